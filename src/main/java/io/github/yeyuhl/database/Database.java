@@ -15,6 +15,8 @@ import io.github.yeyuhl.database.index.BPlusTree;
 import io.github.yeyuhl.database.index.BPlusTreeMetadata;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
 import io.github.yeyuhl.database.io.DiskSpaceManagerImpl;
+import io.github.yeyuhl.database.io.PageException;
+import io.github.yeyuhl.database.memory.AccessHint;
 import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.ClockEvictionPolicy;
 import io.github.yeyuhl.database.memory.EvictionPolicy;
@@ -24,6 +26,8 @@ import io.github.yeyuhl.database.query.SortOperator;
 import io.github.yeyuhl.database.query.expr.Expression;
 import io.github.yeyuhl.database.recovery.ARIESRecoveryManager;
 import io.github.yeyuhl.database.recovery.DummyRecoveryManager;
+import io.github.yeyuhl.database.recovery.FileLogManager;
+import io.github.yeyuhl.database.recovery.LSNFormat;
 import io.github.yeyuhl.database.recovery.RecoveryManager;
 import io.github.yeyuhl.database.table.*;
 import io.github.yeyuhl.database.table.stats.TableStats;
@@ -34,9 +38,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Phaser;
+import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 
@@ -57,6 +63,8 @@ import java.util.function.UnaryOperator;
  * <p>
  * Each partition corresponds to a file in `fileDir`. The remaining partitions
  * are used for user created tables and are allocated as tables are created.
+ * On close, the pages in the buffer cache are also listed in a file in `fileDir`,
+ * so that warmUpBuffer can reload them after a restart.
  * <p>
  * Metadata tables are manually synchronized and use a special locking hierarchy
  * to improve concurrency. The methods to lock and access metadata has already
@@ -80,6 +88,9 @@ public class Database implements AutoCloseable {
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    // file that the pages in the buffer cache are listed in on close, for warm-up; must not be
+    // purely numeric, or it would be taken for a partition
+    private static final String WARM_UP_FILE_NAME = "buffer_warm_up";
     // effective page size - table metadata size
     private static final int MAX_SCHEMA_SIZE = 4006;
 
@@ -103,6 +114,8 @@ public class Database implements AutoCloseable {
     private int workMem = 1024; // default of 4M
     // number of pages of memory available total
     private int numMemoryPages;
+    // directory of the database files
+    private final String fileDir;
     // active transactions
     private Phaser activeTransactions = new Phaser(0);
     // Statistics about the contents of the database.
@@ -156,7 +169,9 @@ public class Database implements AutoCloseable {
      * @param fileDir        the directory to put the table files in
      * @param numMemoryPages the number of pages of memory in the buffer cache
      * @param lockManager    the lock manager
-     * @param policy         eviction policy for buffer cache
+     * @param policy         eviction policy for buffer cache; TwoQueueEvictionPolicy,
+     *                       LRUKEvictionPolicy and ARCEvictionPolicy keep frequently used pages
+     *                       cached through large scans
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy) {
@@ -174,23 +189,53 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy, boolean useRecoveryManager) {
+        this(fileDir, numMemoryPages, lockManager, policy, useRecoveryManager, DiskSpaceManagerImpl::new);
+    }
+
+    /**
+     * Creates a new database with a custom disk space manager, e.g. MappedDiskSpaceManager::new
+     * to access partition files through memory mappings.
+     *
+     * @param fileDir                 the directory to put the table files in
+     * @param numMemoryPages          the number of pages of memory in the buffer cache
+     * @param lockManager             the lock manager
+     * @param policy                  eviction policy for buffer cache
+     * @param useRecoveryManager      flag to enable or disable the recovery manager (ARIES)
+     * @param diskSpaceManagerFactory creates the disk space manager from the directory and recovery manager
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean useRecoveryManager,
+                    BiFunction<String, RecoveryManager, DiskSpaceManager> diskSpaceManagerFactory) {
         boolean initialized = setupDirectory(fileDir);
 
+        this.fileDir = fileDir;
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
 
+        // LSNs are persisted in the log and on every page, so a database keeps the LSN format
+        // it was created with
+        Path dbDir = Paths.get(fileDir);
+        if (!initialized) LSNFormat.BINARY.write(dbDir);
+
         if (useRecoveryManager) {
-            recoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction);
+            // the log is kept in its own files, except in databases created before it could be,
+            // which keep their log in the log partition
+            boolean logInFiles = !initialized || FileLogManager.exists(dbDir);
+            ARIESRecoveryManager ariesRecoveryManager = new ARIESRecoveryManager(this::beginRecoveryTransaction,
+                    logInFiles ? dbDir : null, LSNFormat.read(dbDir));
+            // changes to different pages are redone in parallel on restart
+            ariesRecoveryManager.setRedoWorkers(Runtime.getRuntime().availableProcessors());
+            recoveryManager = ariesRecoveryManager;
         } else {
             recoveryManager = new DummyRecoveryManager();
         }
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        diskSpaceManager = diskSpaceManagerFactory.apply(fileDir, recoveryManager);
         bufferManager = new BufferManager(diskSpaceManager, recoveryManager, numMemoryPages,
                 policy);
 
-        // create log partition
+        // create log partition (reserved even when the log is kept in its own files)
         if (!initialized) diskSpaceManager.allocPart(0);
 
         // Performs recovery
@@ -252,6 +297,7 @@ public class Database implements AutoCloseable {
         PageDirectory pageDirectory = new PageDirectory(bufferManager, 2, indexInfoPage0, (short) 0,
                 indexInfoContext);
         indexMetadata = new Table(INDEX_INFO_TABLE_NAME, getIndexInfoSchema(), pageDirectory, indexInfoContext, stats);
+        indexMetadata.setFullPageRecords();
     }
 
     private void loadMetadataTables() {
@@ -291,6 +337,11 @@ public class Database implements AutoCloseable {
 
         dropDemoTables();
 
+        try {
+            this.bufferManager.saveResidentPages(Paths.get(fileDir, WARM_UP_FILE_NAME));
+        } catch (PageException e) {
+            // warm-up is only an optimization: the buffer cache starts cold next time instead
+        }
         this.bufferManager.evictAll();
 
         this.recoveryManager.close();
@@ -302,6 +353,44 @@ public class Database implements AutoCloseable {
         this.diskSpaceManager.close();
     }
 
+    /**
+     * Starts reloading the pages that were in the buffer cache when the database was last
+     * closed, in the background, so that queries run at memory speed sooner after a restart.
+     * Only free frames of the buffer cache are used, so warm-up never evicts pages loaded
+     * by queries, and stops once the buffer cache is full.
+     *
+     * @param maxPages maximum number of pages to reload (the most recently used ones)
+     */
+    public void warmUpBuffer(int maxPages) {
+        this.bufferManager.warmUp(Paths.get(fileDir, WARM_UP_FILE_NAME), maxPages);
+    }
+
+    /**
+     * Sets how long a committing transaction waits for concurrent commits to join its log
+     * flush (group commit). Has no effect if recovery is disabled.
+     *
+     * @param micros commit delay in microseconds; 0 to flush right away
+     */
+    public void setCommitDelay(long micros) {
+        if (this.recoveryManager instanceof ARIESRecoveryManager) {
+            ((ARIESRecoveryManager) this.recoveryManager).setCommitDelay(micros);
+        }
+    }
+
+    /**
+     * Starts taking checkpoints in the background, whenever the log has grown by logPages pages
+     * or intervalMillis milliseconds have passed since the last checkpoint, and reclaiming the
+     * log that restart recovery no longer needs. Has no effect if recovery is disabled.
+     *
+     * @param logPages       log growth that triggers a checkpoint, in pages; 0 to only use time
+     * @param intervalMillis time that triggers a checkpoint, in milliseconds; 0 to only use log growth
+     */
+    public void enablePeriodicCheckpoints(int logPages, long intervalMillis) {
+        if (this.recoveryManager instanceof ARIESRecoveryManager) {
+            ((ARIESRecoveryManager) this.recoveryManager).enablePeriodicCheckpoints(logPages, intervalMillis);
+        }
+    }
+
     public LockManager getLockManager() {
         return lockManager;
     }
@@ -636,6 +725,8 @@ public class Database implements AutoCloseable {
             long pageNum = diskSpaceManager.allocPage(partNum);
             // We can use dummy contexts since this table will only be visible from the current transaction
             PageDirectory pageDirectory = new PageDirectory(bufferManager, partNum, pageNum, (short) 0, new DummyLockContext("_dummyPageDir"));
+            // temporary tables are written once and read back once or twice
+            pageDirectory.setAccessHint(AccessHint.TEMP);
             tempTables.put(tempTableName, new Table(tableName, schema, pageDirectory, new DummyLockContext("_dummyTempTable" + tempTableName), stats));
             return tempTableName;
         }
@@ -1129,7 +1220,7 @@ public class Database implements AutoCloseable {
                 throw new DatabaseException("index already exists on " + tableName + "(" + columnName + ")");
             }
 
-            int order = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, colType);
+            int order = BPlusTree.maxOrder(bufferManager.getEffectivePageSize(), colType);
             Record indexEntry = new Record(tableName, columnName, order,
                     diskSpaceManager.allocPart(),
                     diskSpaceManager.INVALID_PAGE_NUM,
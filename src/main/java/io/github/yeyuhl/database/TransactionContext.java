@@ -4,6 +4,7 @@ import io.github.yeyuhl.database.common.PredicateOperator;
 import io.github.yeyuhl.database.common.iterator.BacktrackingIterator;
 import io.github.yeyuhl.database.databox.DataBox;
 import io.github.yeyuhl.database.index.BPlusTreeMetadata;
+import io.github.yeyuhl.database.memory.BufferMetrics;
 import io.github.yeyuhl.database.table.Record;
 import io.github.yeyuhl.database.table.RecordId;
 import io.github.yeyuhl.database.table.Schema;
@@ -39,6 +40,8 @@ public abstract class TransactionContext implements AutoCloseable {
     private boolean startBlock = false;
     private final ReentrantLock transactionLock = new ReentrantLock();
     private final Condition unblocked = transactionLock.newCondition();
+    // Counters of buffer manager activity on behalf of this transaction; created on first use
+    private volatile BufferMetrics bufferMetrics;
 
     /**
      * Fetches the current transaction running on this thread.
@@ -89,6 +92,22 @@ public abstract class TransactionContext implements AutoCloseable {
      */
     public abstract int getWorkMemSize();
 
+    /**
+     * @return counters of buffer manager activity on behalf of this transaction
+     */
+    public BufferMetrics getBufferMetrics() {
+        BufferMetrics metrics = this.bufferMetrics;
+        if (metrics == null) {
+            synchronized (this) {
+                metrics = this.bufferMetrics;
+                if (metrics == null) {
+                    metrics = this.bufferMetrics = new BufferMetrics();
+                }
+            }
+        }
+        return metrics;
+    }
+
     @Override
     public abstract void close();
 
@@ -10,6 +10,7 @@ import io.github.yeyuhl.database.cli.parser.RookieParser;
 import io.github.yeyuhl.database.cli.parser.TokenMgrError;
 import io.github.yeyuhl.database.cli.visitor.StatementListVisitor;
 import io.github.yeyuhl.database.concurrency.LockManager;
+import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.ClockEvictionPolicy;
 import io.github.yeyuhl.database.table.Record;
 import io.github.yeyuhl.database.table.Schema;
@@ -42,6 +43,7 @@ public class CommandLineInterface {
 
         // Use the following after completing project 5 (recovery)
          Database db = new Database("demo", 25, new LockManager(), new ClockEvictionPolicy(), true);
+        db.warmUpBuffer(25);
 
         db.loadDemo();
 
@@ -165,6 +167,16 @@ public class CommandLineInterface {
         new PrettyPrinter(out).printSchema(s);
     }
 
+    private void printBufferStats(BufferManager bufferManager, TransactionContext tc) {
+        this.out.println(bufferManager.getMetrics());
+        this.out.printf("loaded pages by partition (of %d frames): %s\n", bufferManager.getNumFrames(),
+                bufferManager.getPartitionResidency());
+        if (tc != null) {
+            this.out.printf("Transaction %d\n", tc.getTransNum());
+            this.out.println(tc.getBufferMetrics());
+        }
+    }
+
     private void parseMetaCommand(String input, Database db) {
         input = input.substring(1); // Shave off the initial slash
         String[] tokens = input.split("\\s+");
@@ -195,6 +207,8 @@ public class CommandLineInterface {
             } else {
                 this.out.println(db.getLockManager().getLocks(tc));
             }
+        } else if (cmd.equals("buffer")) {
+            printBufferStats(db.getBufferManager(), tc);
         } else {
             throw new IllegalArgumentException(String.format(
                     "`%s` is not a valid metacommand",
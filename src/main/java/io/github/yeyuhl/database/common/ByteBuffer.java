@@ -59,6 +59,26 @@ public class ByteBuffer implements Buffer {
         return new ByteBuffer(java.nio.ByteBuffer.wrap(array));
     }
 
+    /**
+     * Wraps length bytes of array starting at offset in a buffer that cannot be written to.
+     * Position 0 of the buffer is array[offset]. Writes throw a java.nio.ReadOnlyBufferException.
+     */
+    public static Buffer wrapReadOnly(byte[] array, int offset, int length) {
+        return new ByteBuffer(java.nio.ByteBuffer.wrap(array, offset, length).slice().asReadOnlyBuffer());
+    }
+
+    /**
+     * Same as wrapReadOnly(byte[], int, int), but over length bytes of buf (which may be a
+     * direct buffer) starting at index offset. The position and limit of buf are not changed.
+     */
+    public static Buffer wrapReadOnly(java.nio.ByteBuffer buf, int offset, int length) {
+        java.nio.ByteBuffer b = buf.duplicate();
+        b.clear();
+        b.position(offset);
+        b.limit(offset + length);
+        return new ByteBuffer(b.slice().asReadOnlyBuffer());
+    }
+
     @Override
     public Buffer slice() {
         return new ByteBuffer(buf.slice());
@@ -99,7 +99,7 @@ public class BPlusTree {
             throw new BPlusTreeException(msg);
         }
 
-        int maxOrder = BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, metadata.getKeySchema());
+        int maxOrder = BPlusTree.maxOrder(bufferManager.getEffectivePageSize(), metadata.getKeySchema());
         if (metadata.getOrder() > maxOrder) {
             String msg = String.format(
                     "You cannot construct a B+ tree with order %d greater than the " + "max order %d.",
@@ -365,7 +365,7 @@ public class BPlusTree {
     /**
      * 返回最大数字d，以便具有2d个entries的LeafNode和具有2d个keys的InnerNode序列化后能将适应单个page
      */
-    public static int maxOrder(short pageSize, Type keySchema) {
+    public static int maxOrder(int pageSize, Type keySchema) {
         int leafOrder = LeafNode.maxOrder(pageSize, keySchema);
         int innerOrder = InnerNode.maxOrder(pageSize, keySchema);
         return Math.min(leafOrder, innerOrder);
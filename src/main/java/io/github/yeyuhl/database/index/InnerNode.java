@@ -221,7 +221,7 @@ class InnerNode extends BPlusNode {
     /**
      * 返回最大数字d，以便具有2d个keys的InnerNode序列化后能适应单个page大小
      */
-    static int maxOrder(short pageSize, Type keySchema) {
+    static int maxOrder(int pageSize, Type keySchema) {
         // 具有n个keys的内部节点占用的字节数为：1 + 4 + (n * keySize) + ((n + 1) * 8)
         //   - 1字节用于存储isLeaf的
         //   - 4字节用于存储n
@@ -380,7 +380,7 @@ class InnerNode extends BPlusNode {
      */
     public static InnerNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager, LockContext treeContext, long pageNum) {
         Page page = bufferManager.fetchPage(treeContext, pageNum);
-        Buffer buf = page.getBuffer();
+        Buffer buf = page.getReadOnlyBuffer();
 
         byte nodeType = buf.get();
         assert (nodeType == (byte) 0);
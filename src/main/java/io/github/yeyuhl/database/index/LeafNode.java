@@ -295,7 +295,7 @@ class LeafNode extends BPlusNode {
     /**
      * 返回最大数字d，以便具有2d个条目的LeafNode序列化后能适应单个page大小
      */
-    static int maxOrder(short pageSize, Type keySchema) {
+    static int maxOrder(int pageSize, Type keySchema) {
         // 具有n个条目的叶节点占用的字节数为:1 + 8 + 4 + n * (keySize + ridSize)
         //   - 1字节用于存储isLeaf
         //   - 8字节用于存储sibling指针，即指向右同级叶节点的指针
@@ -396,7 +396,7 @@ class LeafNode extends BPlusNode {
     public static LeafNode fromBytes(BPlusTreeMetadata metadata, BufferManager bufferManager, LockContext treeContext, long pageNum) {
         // 实现fromBytes方法需要重用已有的页，而不是获取一个新的页，参考InnerNode.fromBytes方法
         Page page = bufferManager.fetchPage(treeContext, pageNum);
-        Buffer buffer = page.getBuffer();
+        Buffer buffer = page.getReadOnlyBuffer();
 
         byte nodeType = buffer.get();
         assert (nodeType == (byte) 1);
@@ -0,0 +1,62 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.recovery.LogManager;
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+/**
+ * Disk space manager that stores the data pages of every partition but the log partition
+ * compressed, which mostly pays off for tables with padded string columns and other sparse
+ * pages. Master and header pages are stored as in DiskSpaceManagerImpl, but data pages are
+ * deflated and kept in a separate file per partition (see CompressedPartitionHandle), so a
+ * database created with this disk space manager must be reopened with it as well.
+ */
+public class CompressedDiskSpaceManager extends DiskSpaceManagerImpl {
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public CompressedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        super(dbDir, recoveryManager);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     * @param checksums   whether to checksum data pages when written and verify them when read
+     */
+    public CompressedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                      boolean checksums) {
+        super(dbDir, recoveryManager, syncOnWrite, checksums);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     * @param checksums   whether to checksum data pages when written and verify them when read
+     * @param pageSize    size of pages in bytes for a new database (see DiskSpaceManagerImpl)
+     */
+    public CompressedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                      boolean checksums, int pageSize) {
+        super(dbDir, recoveryManager, syncOnWrite, checksums, pageSize);
+    }
+
+    @Override
+    PartitionHandle newPartitionHandle(int partNum) {
+        if (partNum == LogManager.LOG_PARTITION) {
+            // log pages are appended to and read back in order, and compress poorly
+            return super.newPartitionHandle(partNum);
+        }
+        return new CompressedPartitionHandle(partNum, getRecoveryManager(), isSyncOnWrite(), isChecksummed(),
+                                             getPageSize());
+    }
+}
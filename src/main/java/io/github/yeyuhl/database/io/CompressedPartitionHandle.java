@@ -0,0 +1,324 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Partition handle that stores data pages compressed. The master and header pages stay in the
+ * partition's OS file as usual, but data pages are deflated and appended to a second OS file
+ * (the partition's file name followed by ".pages"). Each entry of that file is
+ *
+ *     [data page number (4 bytes)] [length (4 bytes)] [length bytes of page data]
+ *
+ * where a length of one page size means the page did not compress and is stored as is. Rewriting a
+ * page appends a new entry, and the latest entry of a page is the current one: an in-memory map
+ * from data page number to the location of its latest entry is rebuilt when the partition is
+ * opened, so compressed pages keep their usual page numbers. Data pages without an entry read
+ * back as zeros. Once more than half of the file is taken up by stale entries, the live entries
+ * are copied into a new file, which then replaces the old one.
+ */
+class CompressedPartitionHandle extends PartitionHandle {
+    // Size of the header of each entry in the pages file.
+    private static final int ENTRY_HEADER_SIZE = 2 * Integer.BYTES;
+
+    // The pages file is not compacted while smaller than this.
+    static final long MIN_COMPACTION_SIZE = 1L << 20;
+
+    // Location of the latest entry of a data page in the pages file.
+    private static class Entry {
+        private final long offset;
+        private final int length;
+
+        private Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        private long size() {
+            return ENTRY_HEADER_SIZE + this.length;
+        }
+    }
+
+    // OS file the data pages are stored in, and its name
+    private RandomAccessFile pagesFile;
+    private FileChannel pagesChannel;
+    private String pagesFileName;
+
+    // Latest entry of each data page that has one
+    private Map<Integer, Entry> entries;
+
+    // Offset at which the next entry is appended
+    private long endOffset;
+
+    // Total size of the latest entries (the rest of the file is stale)
+    private long liveBytes;
+
+    // Compressor for page writes (only used by writers, which hold the exclusive lock)
+    private Deflater deflater;
+    private byte[] deflateBuffer;
+
+    CompressedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite, boolean checksums,
+                              int pageSize) {
+        super(partNum, recoveryManager, syncOnWrite, checksums, pageSize);
+        this.entries = new HashMap<>();
+        this.deflater = new Deflater(Deflater.BEST_SPEED, true);
+        // deflate output may be slightly larger than its input, which we can detect without overflowing
+        this.deflateBuffer = new byte[this.pageSize + 1];
+    }
+
+    @Override
+    void open(String fileName) {
+        super.open(fileName);
+        this.pagesFileName = fileName + ".pages";
+        try {
+            // left behind if we crashed while compacting; the old file is still intact
+            Files.deleteIfExists(Paths.get(this.pagesFileName + ".tmp"));
+            this.pagesFile = new RandomAccessFile(this.pagesFileName, "rw");
+            this.pagesChannel = this.pagesFile.getChannel();
+            this.loadEntries();
+        } catch (IOException e) {
+            throw new PageException("Could not open or read file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rebuilds the map of entries by scanning the pages file. A partially written entry at
+     * the end of the file (from a crash in the middle of a write) is cut off.
+     */
+    private void loadEntries() throws IOException {
+        long length = this.pagesChannel.size();
+        ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE);
+        long offset = 0;
+        while (offset + ENTRY_HEADER_SIZE <= length) {
+            header.clear();
+            this.readFully(this.pagesChannel, header, offset);
+            int pageNum = header.getInt(0);
+            int entryLength = header.getInt(Integer.BYTES);
+            if (pageNum < 0 || entryLength <= 0 || entryLength > this.pageSize
+                    || offset + ENTRY_HEADER_SIZE + entryLength > length) {
+                break;
+            }
+            this.putEntry(pageNum, new Entry(offset, entryLength));
+            offset += ENTRY_HEADER_SIZE + entryLength;
+        }
+        if (offset < length) {
+            this.pagesChannel.truncate(offset);
+        }
+        this.endOffset = offset;
+        // pages freed since their last write keep their entries in the file
+        Iterator<Map.Entry<Integer, Entry>> iter = this.entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<Integer, Entry> e = iter.next();
+            if (this.isNotAllocatedPage(e.getKey())) {
+                this.liveBytes -= e.getValue().size();
+                iter.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.partitionLock.writeLock().lock();
+        try {
+            this.deflater.end();
+            this.pagesFile.close();
+            this.pagesChannel.close();
+            super.close();
+        } finally {
+            this.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    boolean deleteFiles(String fileName) {
+        boolean deleted = new File(fileName + ".pages").delete();
+        return super.deleteFiles(fileName) && deleted;
+    }
+
+    @Override
+    void ensureExtent(int pageNum) {
+        // data pages are not stored in the partition's own OS file, so there is nothing to grow
+    }
+
+    @Override
+    void force() throws IOException {
+        this.pagesChannel.force(false);
+        super.force();
+    }
+
+    @Override
+    void freePage(int pageNum) throws IOException {
+        super.freePage(pageNum);
+        // the entry stays in the file until the next compaction, but is ignored once the page is freed
+        Entry entry = this.entries.remove(pageNum);
+        if (entry != null) {
+            this.liveBytes -= entry.size();
+        }
+    }
+
+    @Override
+    void readData(long offset, ByteBuffer buf) throws IOException {
+        Entry entry = this.entries.get(this.dataPageNum(offset));
+        if (entry == null) {
+            PartitionHandle.zero(buf);
+            return;
+        }
+        // inflating without the zlib wrapper requires an extra dummy byte after the input
+        byte[] data = new byte[entry.length + 1];
+        this.readFully(this.pagesChannel, ByteBuffer.wrap(data, 0, entry.length), entry.offset + ENTRY_HEADER_SIZE);
+        if (entry.length == this.pageSize) {
+            PartitionHandle.whole(buf).put(data, 0, this.pageSize);
+            return;
+        }
+        // the inflater only writes to arrays, so pages outside the heap are inflated into a copy
+        byte[] page = buf.hasArray() ? buf.array() : new byte[this.pageSize];
+        int pageOffset = buf.hasArray() ? buf.arrayOffset() : 0;
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data, 0, data.length);
+            if (inflater.inflate(page, pageOffset, this.pageSize) != this.pageSize) {
+                throw new IOException("compressed page is truncated");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed page is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        if (!buf.hasArray()) {
+            PartitionHandle.whole(buf).put(page);
+        }
+    }
+
+    @Override
+    void writeData(long offset, ByteBuffer buf) throws IOException {
+        int pageNum = this.dataPageNum(offset);
+        byte[] page;
+        int pageOffset;
+        if (buf.hasArray()) {
+            page = buf.array();
+            pageOffset = buf.arrayOffset();
+        } else {
+            page = new byte[this.pageSize];
+            pageOffset = 0;
+            PartitionHandle.whole(buf).get(page);
+        }
+        this.deflater.reset();
+        this.deflater.setInput(page, pageOffset, this.pageSize);
+        this.deflater.finish();
+        int length = 0;
+        while (!this.deflater.finished() && length < this.pageSize) {
+            length += this.deflater.deflate(this.deflateBuffer, length, this.deflateBuffer.length - length);
+        }
+        byte[] data = this.deflateBuffer;
+        int dataOffset = 0;
+        if (!this.deflater.finished() || length >= this.pageSize) {
+            // incompressible page, store it as is
+            data = page;
+            dataOffset = pageOffset;
+            length = this.pageSize;
+        }
+
+        ByteBuffer b = ByteBuffer.allocate(ENTRY_HEADER_SIZE + length);
+        b.putInt(pageNum).putInt(length).put(data, dataOffset, length);
+        b.flip();
+        Entry entry = new Entry(this.endOffset, length);
+        while (b.hasRemaining()) {
+            this.pagesChannel.write(b, entry.offset + b.position());
+        }
+        this.endOffset += entry.size();
+        this.putEntry(pageNum, entry);
+        this.compactIfNeeded();
+    }
+
+    @Override
+    void readRun(long offset, ByteBuffer[] bufs, int start, int len) throws IOException {
+        // pages next to each other in the partition are not stored next to each other on disk
+        for (int i = 0; i < len; ++i) {
+            this.readData(offset + (long) i * this.pageSize, bufs[start + i]);
+        }
+    }
+
+    @Override
+    void writeRun(long offset, ByteBuffer[] bufs, int start, int len) throws IOException {
+        for (int i = 0; i < len; ++i) {
+            this.writeData(offset + (long) i * this.pageSize, bufs[start + i]);
+        }
+    }
+
+    /**
+     * Makes an entry the latest entry of its data page.
+     * @param pageNum data page number
+     * @param entry new entry of the page
+     */
+    private void putEntry(int pageNum, Entry entry) {
+        Entry old = this.entries.put(pageNum, entry);
+        if (old != null) {
+            this.liveBytes -= old.size();
+        }
+        this.liveBytes += entry.size();
+    }
+
+    /**
+     * Copies the latest entries into a new pages file if the current one is mostly stale
+     * entries. The new file is forced to disk before it replaces the old one, so the old file
+     * stays intact if we crash before then. Assumes that the partition's exclusive lock is held.
+     */
+    private void compactIfNeeded() throws IOException {
+        if (this.endOffset < MIN_COMPACTION_SIZE || this.endOffset < 2 * this.liveBytes) {
+            return;
+        }
+        String tmpName = this.pagesFileName + ".tmp";
+        Map<Integer, Entry> newEntries = new HashMap<>();
+        long offset = 0;
+        try (RandomAccessFile tmpFile = new RandomAccessFile(tmpName, "rw")) {
+            FileChannel tmpChannel = tmpFile.getChannel();
+            for (Map.Entry<Integer, Entry> e : this.entries.entrySet()) {
+                Entry entry = e.getValue();
+                ByteBuffer b = ByteBuffer.allocate((int) entry.size());
+                this.readFully(this.pagesChannel, b, entry.offset);
+                b.flip();
+                while (b.hasRemaining()) {
+                    tmpChannel.write(b, offset + b.position());
+                }
+                newEntries.put(e.getKey(), new Entry(offset, entry.length));
+                offset += entry.size();
+            }
+            tmpChannel.force(false);
+        }
+        this.pagesFile.close();
+        Files.move(Paths.get(tmpName), Paths.get(this.pagesFileName),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        this.pagesFile = new RandomAccessFile(this.pagesFileName, "rw");
+        this.pagesChannel = this.pagesFile.getChannel();
+        this.entries = newEntries;
+        this.endOffset = offset;
+        this.liveBytes = offset;
+    }
+
+    /**
+     * @return size of the pages file in bytes
+     */
+    long getPagesFileSize() {
+        return this.endOffset;
+    }
+
+    private void readFully(FileChannel channel, ByteBuffer b, long offset) throws IOException {
+        while (b.hasRemaining()) {
+            if (channel.read(b, offset + b.position()) < 0) {
+                throw new IOException("unexpected end of file");
+            }
+        }
+    }
+}
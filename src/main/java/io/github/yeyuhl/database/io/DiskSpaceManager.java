@@ -1,7 +1,9 @@
 package io.github.yeyuhl.database.io;
 
+import java.nio.ByteBuffer;
+
 public interface DiskSpaceManager extends AutoCloseable {
-    short PAGE_SIZE = 4096; // size of a page in bytes
+    short PAGE_SIZE = 4096; // default size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
 
     @Override
@@ -65,6 +67,91 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads several pages. Implementations may merge reads of pages that are stored
+     * next to each other into a single I/O request.
+     *
+     * @param pages numbers of pages to be read, in any order
+     * @param bufs byte buffers whose contents will be filled with page data, one per page
+     */
+    default void readPages(long[] pages, byte[][] bufs) {
+        for (int i = 0; i < pages.length; ++i) {
+            this.readPage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to several pages. Implementations may merge writes to pages that are stored
+     * next to each other into a single I/O request, and force the whole batch to disk at once.
+     *
+     * @param pages numbers of pages to be written, in any order
+     * @param bufs byte buffers that contain the new page data, one per page
+     */
+    default void writePages(long[] pages, byte[][] bufs) {
+        for (int i = 0; i < pages.length; ++i) {
+            this.writePage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Reads a page into a buffer that may be outside the Java heap. The buffer must have a
+     * capacity of exactly one page; the page is stored from index 0, and the position and limit
+     * of the buffer are left unchanged. Implementations may read straight into the buffer; by
+     * default the page is read into a byte array first.
+     *
+     * @param page number of page to be read
+     * @param buf page-sized buffer whose contents will be filled with page data
+     */
+    default void readPage(long page, ByteBuffer buf) {
+        byte[] b = new byte[this.getPageSize()];
+        this.readPage(page, b);
+        ByteBuffer dst = buf.duplicate();
+        dst.clear();
+        dst.put(b);
+    }
+
+    /**
+     * Writes to a page from a buffer that may be outside the Java heap. The buffer must have
+     * a capacity of exactly one page, and holds the page from index 0; its position and limit
+     * are left unchanged.
+     *
+     * @param page number of page to be written
+     * @param buf page-sized buffer that contains the new page data
+     */
+    default void writePage(long page, ByteBuffer buf) {
+        byte[] b = new byte[this.getPageSize()];
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.get(b);
+        this.writePage(page, b);
+    }
+
+    /**
+     * Reads several pages into buffers, as readPages(long[], byte[][]) does. See
+     * readPage(long, ByteBuffer) for the requirements on the buffers.
+     *
+     * @param pages numbers of pages to be read, in any order
+     * @param bufs page-sized buffers whose contents will be filled with page data, one per page
+     */
+    default void readPages(long[] pages, ByteBuffer[] bufs) {
+        for (int i = 0; i < pages.length; ++i) {
+            this.readPage(pages[i], bufs[i]);
+        }
+    }
+
+    /**
+     * Writes to several pages from buffers, as writePages(long[], byte[][]) does. See
+     * writePage(long, ByteBuffer) for the requirements on the buffers.
+     *
+     * @param pages numbers of pages to be written, in any order
+     * @param bufs page-sized buffers that contain the new page data, one per page
+     */
+    default void writePages(long[] pages, ByteBuffer[] bufs) {
+        for (int i = 0; i < pages.length; ++i) {
+            this.writePage(pages[i], bufs[i]);
+        }
+    }
+
     /**
      * Checks if a page is allocated
      *
@@ -73,6 +160,19 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     boolean pageAllocated(long page);
 
+    /**
+     * @return size of the pages managed by this disk space manager, in bytes
+     */
+    default int getPageSize() {
+        return PAGE_SIZE;
+    }
+
+    /**
+     * Forces every page write issued so far to disk. Page writes are only
+     * guaranteed to be durable once this returns.
+     */
+    void sync();
+
     /**
      * Gets partition number from virtual page number
      * @param page virtual page number
@@ -5,11 +5,20 @@ import io.github.yeyuhl.database.recovery.RecoveryManager;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.Lock;
 
 /**
  * An implementation of a disk space manager with virtual page translation, and
@@ -28,7 +37,9 @@ import java.util.concurrent.locks.ReentrantLock;
  *
  * Master and header pages are cached permanently in memory; changes to these are immediately flushed to
  * disk. This imposes a fairly small memory overhead (128M partitions have 2 pages cached). This caching
- * is done separately from the buffer manager's caching.
+ * is done separately from the buffer manager's caching. When an existing partition is opened, only its
+ * master page is read: the master page summarizes which header pages have any allocated pages, and
+ * header pages are read in the first time they are used. Existing partitions are opened in parallel.
  *
  * Virtual page numbers are 64-bit integers (Java longs) assigned to data pages in the following format:
  *       partition number * 10^10 + n
@@ -44,26 +55,60 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * Partition files are grown a fixed-size extent of data pages at a time, without writing to the
+ * new extent. Pages allocated out of an extent the handle grew the file by are not zeroed out on
+ * disk (they already read back as zeros), and are served without I/O until they are first written.
+ *
+ * By default every data page write is forced to disk before writePage returns. In write-back
+ * mode, writes are only forced when sync is called (by the recovery manager when checkpointing,
+ * by the buffer manager when it is closed, and when the disk space manager itself is closed), so
+ * that many page writes share a single fsync per partition.
+ *
+ * Optionally, a CRC32 checksum of each data page (outside of the log partition) is stored in the
+ * first bytes of the page (part of the space the buffer manager reserves on every page) when it is
+ * written, and checked when the page is read back, so that torn or corrupted pages are reported
+ * with a PageException instead of being returned. Header pages are filled by their bitmap and are
+ * not checksummed.
+ *
+ * Batches of pages can be read and written with readPages/writePages; runs of pages that are
+ * stored back to back in a partition file are then transferred with a single I/O request, and
+ * each partition is locked (and forced to disk) once per batch rather than once per page.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
+    // Layout of partitions with the default page size (see PartitionHandle for other page sizes)
     static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
     static final int DATA_PAGES_PER_HEADER = PAGE_SIZE * 8; // 1 bit per data page
 
+    // Largest supported page size. LSNs store the offset of a log record within its log page
+    // in 16 bits, and page offsets in log records are unsigned shorts, so pages cannot be larger.
+    public static final int MAX_PAGE_SIZE = 65536;
+
+    // Name of the file in the base directory that the page size of the database is stored in.
+    static final String PAGE_SIZE_FILE = "page_size";
+
     // Name of base directory.
     private String dbDir;
 
-    // Info about each partition.
+    // Info about each partition. Lookups take no lock; each partition has its own lock.
     private Map<Integer, PartitionHandle> partInfo;
 
     // Counter to generate new partition numbers.
     private AtomicInteger partNumCounter;
 
-    // Lock on the entire manager.
-    private ReentrantLock managerLock;
-
     // recovery manager
     private RecoveryManager recoveryManager;
 
+    // Whether every data page write is forced to disk immediately (false for write-back mode;
+    // writes to the log partition are forced either way)
+    private boolean syncOnWrite;
+
+    // Whether data pages are checksummed
+    private boolean checksums;
+
+    // Size of pages in bytes
+    private int pageSize;
+
     /**
      * Initialize the disk space manager using the given directory. Creates the directory
      * if not present.
@@ -71,23 +116,75 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, true);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        this(dbDir, recoveryManager, syncOnWrite, false);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     * @param checksums   whether to checksum data pages when written and verify them when read
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                boolean checksums) {
+        this(dbDir, recoveryManager, syncOnWrite, checksums, PAGE_SIZE);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present. The page size is fixed when the database is created: it is stored in
+     * the directory, and when opening an existing database, the stored page size is used
+     * instead of pageSize.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     * @param checksums   whether to checksum data pages when written and verify them when read
+     * @param pageSize    size of pages in bytes for a new database; a power of two between
+     *                    PAGE_SIZE and MAX_PAGE_SIZE
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                boolean checksums, int pageSize) {
+        if (pageSize < PAGE_SIZE || pageSize > MAX_PAGE_SIZE || Integer.bitCount(pageSize) != 1) {
+            throw new IllegalArgumentException("unsupported page size " + pageSize);
+        }
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
-        this.partInfo = new HashMap<>();
+        this.syncOnWrite = syncOnWrite;
+        this.checksums = checksums;
+        this.pageSize = pageSize;
+        this.partInfo = new ConcurrentHashMap<>();
         this.partNumCounter = new AtomicInteger(0);
-        this.managerLock = new ReentrantLock();
 
         File dir = new File(dbDir);
         if (!dir.exists()) {
             if (!dir.mkdirs()) {
                 throw new PageException("could not initialize disk space manager - could not make directory");
             }
+            this.writePageSize();
         } else {
             int maxFileNum = -1;
             File[] files = dir.listFiles();
             if (files == null) {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
+            this.readPageSize(files);
+            List<Integer> fileNums = new ArrayList<>();
             for (File f : files) {
                 if (f.length() == 0) {
                     if (!f.delete()) {
@@ -95,19 +192,92 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                     }
                     continue;
                 }
+                if (!f.getName().matches("\\d+")) {
+                    // not a partition file (the page size file, or a file opened by the handle of its partition)
+                    continue;
+                }
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
-
-                PartitionHandle pi = new PartitionHandle(fileNum, recoveryManager);
-                pi.open(dbDir + "/" + f.getName());
-                this.partInfo.put(fileNum, pi);
+                fileNums.add(fileNum);
+            }
+            // Partitions are independent of each other, so they are opened in parallel (on the
+            // common fork-join pool) to keep startup fast with many partitions. Failures are
+            // collected rather than thrown from the stream, so that every open has finished
+            // before the opened handles are closed again.
+            Map<Integer, PartitionHandle> opened = new ConcurrentHashMap<>();
+            List<RuntimeException> failures = Collections.synchronizedList(new ArrayList<>());
+            fileNums.parallelStream().forEach((Integer fileNum) -> {
+                try {
+                    PartitionHandle pi = this.newPartitionHandle(fileNum);
+                    pi.open(dbDir + "/" + fileNum);
+                    opened.put(fileNum, pi);
+                } catch (RuntimeException e) {
+                    failures.add(e);
+                }
+            });
+            if (!failures.isEmpty()) {
+                RuntimeException failure = failures.get(0);
+                for (PartitionHandle pi : opened.values()) {
+                    try {
+                        pi.close();
+                    } catch (IOException e) {
+                        failure.addSuppressed(e);
+                    }
+                }
+                throw failure;
             }
+            this.partInfo.putAll(opened);
             this.partNumCounter.set(maxFileNum + 1);
         }
     }
 
+    /**
+     * Loads the page size of an existing database. Databases created before the page size was
+     * stored (which have partition files but no page size file) use the default page size. If
+     * there are no partitions yet, the database is new, and the requested page size is stored.
+     *
+     * @param files contents of the base directory
+     */
+    private void readPageSize(File[] files) {
+        File pageSizeFile = new File(dbDir, PAGE_SIZE_FILE);
+        if (pageSizeFile.exists()) {
+            try {
+                this.pageSize = Integer.parseInt(new String(Files.readAllBytes(pageSizeFile.toPath()),
+                                                            StandardCharsets.US_ASCII).trim());
+            } catch (IOException | NumberFormatException e) {
+                throw new PageException("could not read page size: " + e.getMessage());
+            }
+            return;
+        }
+        for (File f : files) {
+            if (f.getName().matches("\\d+") && f.length() > 0) {
+                this.pageSize = PAGE_SIZE;
+                return;
+            }
+        }
+        this.writePageSize();
+    }
+
+    /**
+     * Stores the page size of a new database in its base directory.
+     */
+    private void writePageSize() {
+        try {
+            Files.write(Paths.get(dbDir, PAGE_SIZE_FILE),
+                        Integer.toString(this.pageSize).getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new PageException("could not write page size: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
     @Override
     public void close() {
+        this.sync();
         for (Map.Entry<Integer, PartitionHandle> part : this.partInfo.entrySet()) {
             try {
                 part.getValue().close();
@@ -129,25 +299,16 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     }
 
     private int allocPartHelper(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
+        PartitionHandle pi = this.newPartitionHandle(partNum);
+        // Lock the partition before publishing it, so that no one can use it before it is opened.
+        pi.partitionLock.writeLock().lock();
         try {
-            if (this.partInfo.containsKey(partNum)) {
+            if (this.partInfo.putIfAbsent(partNum, pi) != null) {
                 throw new IllegalStateException("partition number " + partNum + " already exists");
             }
-
-            pi = new PartitionHandle(partNum, recoveryManager);
-            this.partInfo.put(partNum, pi);
-
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
-        try {
-            // We must open partition only after logging, but we need to release the
-            // manager lock first, in case the log manager is currently in the process
-            // of allocating a new log page (for another txn's records).
+            // We must open partition only after logging, but we must not hold any lock the
+            // log manager might need, in case it is currently in the process of allocating a
+            // new log page (for another txn's records).
             TransactionContext transaction = TransactionContext.getTransaction();
             if (transaction != null) {
                 recoveryManager.logAllocPart(transaction.getTransNum(), partNum);
@@ -156,24 +317,17 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
             pi.open(dbDir + "/" + partNum);
             return partNum;
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public void freePart(int partNum) {
-        PartitionHandle pi;
-
-        this.managerLock.lock();
-        try {
-            pi = this.partInfo.remove(partNum);
-            if (pi == null) {
-                throw new NoSuchElementException("no partition " + partNum);
-            }
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
+        PartitionHandle pi = this.partInfo.remove(partNum);
+        if (pi == null) {
+            throw new NoSuchElementException("no partition " + partNum);
         }
+        pi.partitionLock.writeLock().lock();
         try {
             try {
                 pi.freeDataPages();
@@ -187,33 +341,25 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 recoveryManager.logFreePart(transaction.getTransNum(), partNum);
             }
 
-            File pf = new File(dbDir + "/" + partNum);
-            if (!pf.delete()) {
+            if (!pi.deleteFiles(dbDir + "/" + partNum)) {
                 throw new PageException("could not delete files for partition " + partNum);
             }
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public long allocPage(int partNum) {
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum, true);
         try {
             int pageNum = pi.allocPage();
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.zeroPage(pageNum);
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -221,25 +367,15 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public long allocPage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
-
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum, true);
         try {
-            pi.allocPage(headerIndex, pageIndex);
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.allocPage(pageNum / pi.dataPagesPerHeader, pageNum % pi.dataPagesPerHeader);
+            pi.zeroPage(pageNum);
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
@@ -247,68 +383,135 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public void freePage(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum, true);
         try {
             pi.freePage(pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
         }
     }
 
     @Override
     public void readPage(long page, byte[] buf) {
-        if (buf.length != PAGE_SIZE) {
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.capacity() != this.pageSize) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum, false);
         try {
             pi.readPage(pageNum, buf);
         } catch (IOException e) {
             throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
         }
     }
 
     @Override
     public void writePage(long page, byte[] buf) {
-        if (buf.length != PAGE_SIZE) {
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.capacity() != this.pageSize) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum, true);
         try {
             pi.writePage(pageNum, buf);
         } catch (IOException e) {
             throw new PageException("could not write partition " + partNum + ": " + e.getMessage());
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void readPages(long[] pages, byte[][] bufs) {
+        this.batchIO(pages, PartitionHandle.wrapAll(bufs), false);
+    }
+
+    @Override
+    public void readPages(long[] pages, ByteBuffer[] bufs) {
+        this.batchIO(pages, bufs, false);
+    }
+
+    @Override
+    public void writePages(long[] pages, byte[][] bufs) {
+        this.batchIO(pages, PartitionHandle.wrapAll(bufs), true);
+    }
+
+    @Override
+    public void writePages(long[] pages, ByteBuffer[] bufs) {
+        this.batchIO(pages, bufs, true);
+    }
+
+    /**
+     * Reads or writes a batch of pages. Pages are sorted and split up by partition, and
+     * each partition is locked once for all of its pages.
+     *
+     * @param pages virtual page numbers of pages to read or write
+     * @param bufs  page-sized buffers, one per page
+     * @param write whether to write the pages rather than read them
+     */
+    private void batchIO(long[] pages, ByteBuffer[] bufs, boolean write) {
+        if (pages.length != bufs.length) {
+            throw new IllegalArgumentException("expected one buffer per page");
+        }
+        for (ByteBuffer buf : bufs) {
+            if (buf.capacity() != this.pageSize) {
+                throw new IllegalArgumentException("batched I/O expects page-sized buffers");
+            }
+        }
+        Integer[] order = new Integer[pages.length];
+        for (int i = 0; i < pages.length; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> pages[i]));
+
+        int start = 0;
+        while (start < order.length) {
+            int partNum = DiskSpaceManager.getPartNum(pages[order[start]]);
+            int end = start + 1;
+            while (end < order.length && DiskSpaceManager.getPartNum(pages[order[end]]) == partNum) {
+                ++end;
+            }
+            int[] pageNums = new int[end - start];
+            ByteBuffer[] partBufs = new ByteBuffer[end - start];
+            for (int i = start; i < end; ++i) {
+                pageNums[i - start] = DiskSpaceManager.getPageNum(pages[order[i]]);
+                partBufs[i - start] = bufs[order[i]];
+            }
+
+            PartitionHandle pi = this.lockPartition(partNum, write);
+            try {
+                if (write) {
+                    pi.writePages(pageNums, partBufs);
+                } else {
+                    pi.readPages(pageNums, partBufs);
+                }
+            } catch (IOException e) {
+                throw new PageException("could not " + (write ? "write" : "read") + " partition " + partNum + ": "
+                                        + e.getMessage());
+            } finally {
+                if (write) {
+                    pi.partitionLock.writeLock().unlock();
+                } else {
+                    pi.partitionLock.readLock().unlock();
+                }
+            }
+            start = end;
         }
     }
 
@@ -316,21 +519,70 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
-        this.managerLock.lock();
-        PartitionHandle pi;
-        try {
-            pi = getPartInfo(partNum);
-            pi.partitionLock.lock();
-        } finally {
-            this.managerLock.unlock();
-        }
+        PartitionHandle pi = this.lockPartition(partNum, false);
         try {
             return !pi.isNotAllocatedPage(pageNum);
         } finally {
-            pi.partitionLock.unlock();
+            pi.partitionLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        for (PartitionHandle pi : this.partInfo.values()) {
+            pi.partitionLock.readLock().lock();
+            try {
+                pi.sync();
+            } catch (IOException e) {
+                throw new PageException("could not sync partition: " + e.getMessage());
+            } finally {
+                pi.partitionLock.readLock().unlock();
+            }
         }
     }
 
+    /**
+     * Creates the in-memory handle for a partition. Does not open the underlying file.
+     *
+     * @param partNum partition number
+     * @return new partition handle
+     */
+    PartitionHandle newPartitionHandle(int partNum) {
+        return new PartitionHandle(partNum, recoveryManager, syncOnWrite, checksums, pageSize);
+    }
+
+    RecoveryManager getRecoveryManager() {
+        return this.recoveryManager;
+    }
+
+    boolean isSyncOnWrite() {
+        return this.syncOnWrite;
+    }
+
+    boolean isChecksummed() {
+        return this.checksums;
+    }
+
+    /**
+     * Looks up a partition and locks it. Reads only need the shared lock, so that reads of the
+     * same partition run in parallel; anything that modifies the partition needs the exclusive lock.
+     *
+     * @param partNum   partition number
+     * @param exclusive whether to take the exclusive (write) lock rather than the shared (read) lock
+     * @return the locked partition handle
+     */
+    private PartitionHandle lockPartition(int partNum, boolean exclusive) {
+        PartitionHandle pi = getPartInfo(partNum);
+        Lock lock = exclusive ? pi.partitionLock.writeLock() : pi.partitionLock.readLock();
+        lock.lock();
+        // the partition may have been freed between the lookup and acquiring the lock
+        if (this.partInfo.get(partNum) != pi) {
+            lock.unlock();
+            throw new NoSuchElementException("no partition " + partNum);
+        }
+        return pi;
+    }
+
     // Gets PartInfo, throws exception if not found.
     private PartitionHandle getPartInfo(int partNum) {
         PartitionHandle pi = this.partInfo.get(partNum);
@@ -339,4 +591,4 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         return pi;
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,67 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+/**
+ * Disk space manager that stores partitions in the same format as DiskSpaceManagerImpl,
+ * but reads and writes data pages through memory mapped partition files. Reads become
+ * memory copies out of the OS page cache rather than read system calls.
+ */
+public class MappedDiskSpaceManager extends DiskSpaceManagerImpl {
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        super(dbDir, recoveryManager);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        super(dbDir, recoveryManager, syncOnWrite);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     * @param checksums   whether to checksum data pages when written and verify them when read
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                  boolean checksums) {
+        super(dbDir, recoveryManager, syncOnWrite, checksums);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir       base directory of the database
+     * @param syncOnWrite whether to force each data page write to disk immediately, or to
+     *                    defer forcing writes until sync is called (write-back mode)
+     * @param checksums   whether to checksum data pages when written and verify them when read
+     * @param pageSize    size of pages in bytes for a new database (see DiskSpaceManagerImpl)
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite,
+                                  boolean checksums, int pageSize) {
+        super(dbDir, recoveryManager, syncOnWrite, checksums, pageSize);
+    }
+
+    @Override
+    PartitionHandle newPartitionHandle(int partNum) {
+        return new MappedPartitionHandle(partNum, getRecoveryManager(), isSyncOnWrite(), isChecksummed(),
+                                         getPageSize());
+    }
+}
@@ -0,0 +1,136 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Partition handle that accesses data pages through memory mappings of the OS file
+ * instead of FileChannel reads and writes. The file is mapped in fixed-size chunks,
+ * which are only mapped once a page inside of them is first accessed, so a partition
+ * that grows through allocPage is remapped one chunk at a time. Master and header pages
+ * are still read and written through the file channel (they are cached in memory anyway).
+ */
+class MappedPartitionHandle extends PartitionHandle {
+    // Number of pages covered by each mapping, and the size of each mapping in bytes.
+    static final int PAGES_PER_CHUNK = 256;
+    private final long chunkSize;
+
+    // Mappings of the OS file, indexed by chunk; null for chunks not mapped yet. Mapped chunks
+    // are looked up without locking; the array is only replaced (by a larger copy) and chunks
+    // are only mapped while holding the handle's monitor.
+    private volatile AtomicReferenceArray<Chunk> chunks;
+
+    private static class Chunk {
+        private final MappedByteBuffer mapping;
+        // whether the chunk was written to since it was last forced to disk
+        private volatile boolean dirty;
+
+        private Chunk(MappedByteBuffer mapping) {
+            this.mapping = mapping;
+        }
+    }
+
+    MappedPartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite, boolean checksums,
+                          int pageSize) {
+        super(partNum, recoveryManager, syncOnWrite, checksums, pageSize);
+        this.chunkSize = (long) PAGES_PER_CHUNK * pageSize;
+        this.chunks = new AtomicReferenceArray<>(0);
+    }
+
+    @Override
+    void readData(long offset, ByteBuffer buf) throws IOException {
+        ByteBuffer b = this.chunk(offset).mapping.duplicate();
+        int position = (int) (offset % this.chunkSize);
+        b.limit(position + this.pageSize);
+        b.position(position);
+        PartitionHandle.whole(buf).put(b);
+    }
+
+    @Override
+    void writeData(long offset, ByteBuffer buf) throws IOException {
+        Chunk chunk = this.chunk(offset);
+        ByteBuffer b = chunk.mapping.duplicate();
+        b.position((int) (offset % this.chunkSize));
+        b.put(PartitionHandle.whole(buf));
+        chunk.dirty = true;
+    }
+
+    @Override
+    void readRun(long offset, ByteBuffer[] bufs, int start, int len) throws IOException {
+        // the mapping already serves consecutive pages from memory, so there is nothing to merge
+        for (int i = 0; i < len; ++i) {
+            this.readData(offset + (long) i * this.pageSize, bufs[start + i]);
+        }
+    }
+
+    @Override
+    void writeRun(long offset, ByteBuffer[] bufs, int start, int len) throws IOException {
+        for (int i = 0; i < len; ++i) {
+            this.writeData(offset + (long) i * this.pageSize, bufs[start + i]);
+        }
+    }
+
+    @Override
+    void force() throws IOException {
+        AtomicReferenceArray<Chunk> chunks = this.chunks;
+        for (int i = 0; i < chunks.length(); ++i) {
+            Chunk chunk = chunks.get(i);
+            // cleared before forcing, so that a write racing with the force marks the chunk again
+            if (chunk != null && chunk.dirty) {
+                chunk.dirty = false;
+                chunk.mapping.force();
+            }
+        }
+        super.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            // Java offers no way to unmap eagerly; mappings are released once unreachable.
+            this.chunks = new AtomicReferenceArray<>(0);
+        }
+        super.close();
+    }
+
+    /**
+     * Gets the mapping containing the given file offset, mapping it (and growing the
+     * OS file to cover it) if necessary.
+     * @param offset offset in OS file
+     * @return mapping of the chunk containing offset
+     */
+    private Chunk chunk(long offset) throws IOException {
+        int index = (int) (offset / this.chunkSize);
+        AtomicReferenceArray<Chunk> chunks = this.chunks;
+        Chunk chunk = index < chunks.length() ? chunks.get(index) : null;
+        return chunk != null ? chunk : this.mapChunk(index);
+    }
+
+    /**
+     * Maps a chunk, unless another thread mapped it first.
+     * @param index index of the chunk
+     * @return mapping of the chunk
+     */
+    private synchronized Chunk mapChunk(int index) throws IOException {
+        AtomicReferenceArray<Chunk> chunks = this.chunks;
+        if (chunks.length() <= index) {
+            AtomicReferenceArray<Chunk> grown = new AtomicReferenceArray<>(Math.max(index + 1, 2 * chunks.length()));
+            for (int i = 0; i < chunks.length(); ++i) {
+                grown.set(i, chunks.get(i));
+            }
+            this.chunks = chunks = grown;
+        }
+        Chunk chunk = chunks.get(index);
+        if (chunk == null) {
+            chunk = new Chunk(this.fileChannel.map(FileChannel.MapMode.READ_WRITE, index * this.chunkSize,
+                    this.chunkSize));
+            chunks.set(index, chunk);
+        }
+        return chunk;
+    }
+}
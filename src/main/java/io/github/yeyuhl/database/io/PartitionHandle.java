@@ -3,34 +3,58 @@ package io.github.yeyuhl.database.io;
 import io.github.yeyuhl.database.TransactionContext;
 import io.github.yeyuhl.database.common.Bits;
 import io.github.yeyuhl.database.memory.BufferManager;
+import io.github.yeyuhl.database.recovery.LogManager;
 import io.github.yeyuhl.database.recovery.RecoveryManager;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.NoSuchElementException;
-import java.util.concurrent.locks.ReentrantLock;
-
-import static io.github.yeyuhl.database.io.DiskSpaceManager.PAGE_SIZE;
-import static io.github.yeyuhl.database.io.DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER;
-import static io.github.yeyuhl.database.io.DiskSpaceManagerImpl.MAX_HEADER_PAGES;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
 
 class PartitionHandle implements AutoCloseable {
-    // Lock on the partition.
-    ReentrantLock partitionLock;
+    // Number of data pages the OS file is grown by at a time.
+    static final int PAGES_PER_EXTENT = 64;
+
+    // Maximum number of data pages read or written by a single I/O request in readPages/writePages.
+    static final int MAX_PAGES_PER_RUN = 64;
+
+    // Offset within a data page of its checksum. The first bytes of the space the buffer manager
+    // reserves at the start of each page are unused, so the checksum is stored there.
+    static final int CHECKSUM_OFFSET = 0;
+    static final int CHECKSUM_SIZE = Integer.BYTES;
+
+    // Size of the pages of the partition in bytes
+    final int pageSize;
+
+    // Number of header pages the master page keeps counts for (2 bytes per header page)
+    final int maxHeaderPages;
+
+    // Number of data pages managed by each header page (1 bit per data page). Capped so that
+    // the number of allocated pages under a header page fits in its unsigned short count.
+    final int dataPagesPerHeader;
+
+    // Lock on the partition. Reading pages only requires the read lock (reads are positional,
+    // so they may run in parallel); anything else requires the write lock.
+    ReentrantReadWriteLock partitionLock;
 
     // Underlying OS file/file channel.
     private RandomAccessFile file;
-    private FileChannel fileChannel;
+    FileChannel fileChannel;
 
     // Contents of the master page of this partition
     // Ideally would be an unsigned short array but Java doesn't have unsigned types
     private int[] masterPage;
 
-    // Contents of the various header pages of this partition
-    private byte[][] headerPages;
+    // Contents of the various header pages of this partition. Header pages are read in the
+    // first time they are needed, so the entries of header pages not needed yet are null.
+    private AtomicReferenceArray<byte[]> headerPages;
 
     // Recovery manager
     private RecoveryManager recoveryManager;
@@ -38,16 +62,57 @@ class PartitionHandle implements AutoCloseable {
     // Partition number
     private int partNum;
 
+    // Whether every data page write is forced to disk before returning (always true for the
+    // log partition)
+    private boolean syncOnWrite;
+
+    // Whether data pages are checksummed when written and verified when read
+    private boolean checksums;
+
+    // Whether there are writes to the file that have not been forced to disk yet
+    private volatile boolean unsynced;
+
+    // Length of the OS file, as of the last time it was checked or grown
+    private long fileLength;
+
+    // Data pages that lie in an extent added to the file by this handle and have not been
+    // written to since; these are known to be all zeros on disk, so reading them needs no I/O
+    private BitSet freshPages;
+
     PartitionHandle(int partNum, RecoveryManager recoveryManager) {
-        this.masterPage = new int[MAX_HEADER_PAGES];
-        this.headerPages = new byte[MAX_HEADER_PAGES][];
-        this.partitionLock = new ReentrantLock();
+        this(partNum, recoveryManager, true);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        this(partNum, recoveryManager, syncOnWrite, false);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite, boolean checksums) {
+        this(partNum, recoveryManager, syncOnWrite, checksums, DiskSpaceManager.PAGE_SIZE);
+    }
+
+    PartitionHandle(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite, boolean checksums,
+                    int pageSize) {
+        this.pageSize = pageSize;
+        this.maxHeaderPages = pageSize / 2;
+        this.dataPagesPerHeader = Math.min(pageSize * 8, 0xFFFF);
+        this.masterPage = new int[this.maxHeaderPages];
+        this.headerPages = new AtomicReferenceArray<>(this.maxHeaderPages);
+        this.partitionLock = new ReentrantReadWriteLock();
         this.recoveryManager = recoveryManager;
         this.partNum = partNum;
+        // log pages are only written when the log is flushed, and a flushed log must be on disk
+        // (for commits and for the write-ahead rule), so they are always forced
+        this.syncOnWrite = syncOnWrite || partNum == LogManager.LOG_PARTITION;
+        // log pages use the entire page, so there is no room for a checksum on them
+        this.checksums = checksums && partNum != LogManager.LOG_PARTITION;
+        this.freshPages = new BitSet();
     }
 
     /**
-     * Opens the OS file and loads master and header pages.
+     * Opens the OS file and loads the master page. The master page keeps the number of
+     * allocated pages under each header page, which is all that is needed to open the
+     * partition, so header pages are only read when first used (see getHeaderPage).
      * @param fileName name of OS file partition is stored in
      */
     void open(String fileName) {
@@ -56,38 +121,44 @@ class PartitionHandle implements AutoCloseable {
             this.file = new RandomAccessFile(fileName, "rw");
             this.fileChannel = this.file.getChannel();
             long length = this.file.length();
+            this.fileLength = length;
             if (length == 0) {
                 // new file, write empty master page
                 this.writeMasterPage();
             } else {
-                // old file, read in master page + header pages
-                ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-                this.fileChannel.read(b, PartitionHandle.masterPageOffset());
+                // old file, read in master page
+                ByteBuffer b = ByteBuffer.wrap(new byte[this.pageSize]);
+                this.fileChannel.read(b, this.masterPageOffset());
                 b.position(0);
-                for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+                for (int i = 0; i < this.maxHeaderPages; ++i) {
                     this.masterPage[i] = Short.toUnsignedInt(b.getShort());
-                    if (PartitionHandle.headerPageOffset(i) < length) {
-                        // Load header pages that were already in the file
-                        byte[] headerPage = new byte[PAGE_SIZE];
-                        this.headerPages[i] = headerPage;
-                        this.fileChannel.read(ByteBuffer.wrap(headerPage), PartitionHandle.headerPageOffset(i));
-                    }
                 }
             }
         } catch (IOException e) {
-            throw new PageException("Could not open or read file: " + e.getMessage());
+            PageException failure = new PageException("Could not open or read file: " + e.getMessage());
+            if (this.file != null) {
+                // the file was opened, but its master page could not be read or written
+                try {
+                    this.file.close();
+                } catch (IOException suppressed) {
+                    failure.addSuppressed(suppressed);
+                }
+            }
+            throw failure;
         }
     }
 
     @Override
     public void close() throws IOException {
-        this.partitionLock.lock();
+        this.partitionLock.writeLock().lock();
         try {
-            Arrays.fill(this.headerPages, null);
+            for (int i = 0; i < this.maxHeaderPages; ++i) {
+                this.headerPages.set(i, null);
+            }
             this.file.close();
             this.fileChannel.close();
         } finally {
-            this.partitionLock.unlock();
+            this.partitionLock.writeLock().unlock();
         }
     }
 
@@ -95,12 +166,39 @@ class PartitionHandle implements AutoCloseable {
      * Writes the master page to disk.
      */
     private void writeMasterPage() throws IOException {
-        ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+        ByteBuffer b = ByteBuffer.wrap(new byte[this.pageSize]);
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
             b.putShort((short) masterPage[i]);
         }
         b.position(0);
-        this.fileChannel.write(b, PartitionHandle.masterPageOffset());
+        this.fileChannel.write(b, this.masterPageOffset());
+        this.unsynced = true;
+    }
+
+    /**
+     * Gets the contents of a header page, reading it in from the OS file the first time it is
+     * needed. Header pages with no allocated pages (according to the master page) are not read,
+     * since all their bits are zero. Assumes that the partition lock is held (the read lock
+     * suffices): if several readers load the same header page at once, only the first copy is kept.
+     * @param headerIndex which header page
+     * @return contents of the header page, or null if it has never had any allocated pages
+     */
+    private byte[] getHeaderPage(int headerIndex) {
+        byte[] headerPage = this.headerPages.get(headerIndex);
+        if (headerPage != null || this.masterPage[headerIndex] == 0) {
+            return headerPage;
+        }
+        headerPage = new byte[this.pageSize];
+        try {
+            this.fileChannel.read(ByteBuffer.wrap(headerPage), this.headerPageOffset(headerIndex));
+        } catch (IOException e) {
+            throw new PageException("Could not read header page " + headerIndex + " of partition " + partNum +
+                                    ": " + e.getMessage());
+        }
+        if (!this.headerPages.compareAndSet(headerIndex, null, headerPage)) {
+            headerPage = this.headerPages.get(headerIndex);
+        }
+        return headerPage;
     }
 
     /**
@@ -108,8 +206,130 @@ class PartitionHandle implements AutoCloseable {
      * @param headerIndex which header page
      */
     private void writeHeaderPage(int headerIndex) throws IOException {
-        ByteBuffer b = ByteBuffer.wrap(this.headerPages[headerIndex]);
-        this.fileChannel.write(b, PartitionHandle.headerPageOffset(headerIndex));
+        ByteBuffer b = ByteBuffer.wrap(this.headerPages.get(headerIndex));
+        this.fileChannel.write(b, this.headerPageOffset(headerIndex));
+        this.unsynced = true;
+    }
+
+    /**
+     * Forces all writes to the partition to disk. Assumes that the partition lock is held
+     * (the read lock suffices).
+     */
+    void sync() throws IOException {
+        if (this.unsynced && this.fileChannel.isOpen()) {
+            this.force();
+            this.unsynced = false;
+        }
+    }
+
+    /**
+     * Forces the contents of the OS file to disk.
+     */
+    void force() throws IOException {
+        this.fileChannel.force(false);
+    }
+
+    /**
+     * Reads a page worth of bytes from the OS file.
+     * @param offset offset in OS file to read from
+     * @param buf output buffer - assumed to be page size, filled from index 0
+     */
+    void readData(long offset, ByteBuffer buf) throws IOException {
+        this.fileChannel.read(PartitionHandle.whole(buf), offset);
+    }
+
+    /**
+     * Writes a page worth of bytes to the OS file.
+     * @param offset offset in OS file to write to
+     * @param buf input buffer - assumed to be page size, written from index 0
+     */
+    void writeData(long offset, ByteBuffer buf) throws IOException {
+        this.fileChannel.write(PartitionHandle.whole(buf), offset);
+    }
+
+    /**
+     * Reads consecutive pages worth of bytes from the OS file with a single read.
+     * @param offset offset in OS file to read from
+     * @param bufs output buffers - assumed to be page size
+     * @param start index in bufs of the first page of the run
+     * @param len number of pages in the run
+     */
+    void readRun(long offset, ByteBuffer[] bufs, int start, int len) throws IOException {
+        if (len == 1) {
+            this.readData(offset, bufs[start]);
+            return;
+        }
+        ByteBuffer b = ByteBuffer.allocate(len * this.pageSize);
+        while (b.hasRemaining()) {
+            if (this.fileChannel.read(b, offset + b.position()) < 0) {
+                break;
+            }
+        }
+        for (int i = 0; i < len; ++i) {
+            b.limit((i + 1) * this.pageSize);
+            b.position(i * this.pageSize);
+            PartitionHandle.whole(bufs[start + i]).put(b);
+        }
+    }
+
+    /**
+     * Writes consecutive pages worth of bytes to the OS file with a single gathering write.
+     * @param offset offset in OS file to write to
+     * @param bufs input buffers - assumed to be page size
+     * @param start index in bufs of the first page of the run
+     * @param len number of pages in the run
+     */
+    void writeRun(long offset, ByteBuffer[] bufs, int start, int len) throws IOException {
+        if (len == 1) {
+            this.writeData(offset, bufs[start]);
+            return;
+        }
+        ByteBuffer[] srcs = new ByteBuffer[len];
+        for (int i = 0; i < len; ++i) {
+            srcs[i] = PartitionHandle.whole(bufs[start + i]);
+        }
+        // the channel position is only used here, and writers hold the exclusive lock
+        this.fileChannel.position(offset);
+        while (srcs[len - 1].hasRemaining()) {
+            this.fileChannel.write(srcs);
+        }
+    }
+
+    /**
+     * @param buf page buffer
+     * @return view of the whole of buf, with its own position (0) and limit (the capacity), so
+     * that I/O on the view leaves the position and limit of buf alone
+     */
+    static ByteBuffer whole(ByteBuffer buf) {
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        return b;
+    }
+
+    /**
+     * @param bufs byte arrays
+     * @return buffers wrapping each of the arrays
+     */
+    static ByteBuffer[] wrapAll(byte[][] bufs) {
+        ByteBuffer[] wrapped = new ByteBuffer[bufs.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            wrapped[i] = ByteBuffer.wrap(bufs[i]);
+        }
+        return wrapped;
+    }
+
+    /**
+     * Fills a page buffer with zeroes.
+     * @param buf page buffer
+     */
+    static void zero(ByteBuffer buf) {
+        int i = 0;
+        for (; i + Long.BYTES <= buf.capacity(); i += Long.BYTES) {
+            buf.putLong(i, 0L);
+        }
+        for (; i < buf.capacity(); ++i) {
+            buf.put(i, (byte) 0);
+        }
     }
 
     /**
@@ -118,8 +338,8 @@ class PartitionHandle implements AutoCloseable {
      */
     int allocPage() throws IOException {
         int headerIndex = -1;
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
-            if (this.masterPage[i] < DATA_PAGES_PER_HEADER) {
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
+            if (this.masterPage[i] < this.dataPagesPerHeader) {
                 headerIndex = i;
                 break;
             }
@@ -128,13 +348,13 @@ class PartitionHandle implements AutoCloseable {
             throw new PageException("no free pages - partition has reached max size");
         }
 
-        byte[] headerBytes = this.headerPages[headerIndex];
+        byte[] headerBytes = this.getHeaderPage(headerIndex);
 
         int pageIndex = -1;
         if (headerBytes == null) {
             pageIndex = 0;
         } else {
-            for (int i = 0; i < DATA_PAGES_PER_HEADER; i++) {
+            for (int i = 0; i < this.dataPagesPerHeader; i++) {
                 if (Bits.getBit(headerBytes, i) == Bits.Bit.ZERO) {
                     pageIndex = i;
                     break;
@@ -155,10 +375,10 @@ class PartitionHandle implements AutoCloseable {
      * @return data page number
      */
     int allocPage(int headerIndex, int pageIndex) throws IOException {
-        byte[] headerBytes = this.headerPages[headerIndex];
+        byte[] headerBytes = this.getHeaderPage(headerIndex);
         if (headerBytes == null) {
-            headerBytes = new byte[PAGE_SIZE];
-            this.headerPages[headerIndex] = headerBytes;
+            headerBytes = new byte[this.pageSize];
+            this.headerPages.set(headerIndex, headerBytes);
         }
 
         if (Bits.getBit(headerBytes, pageIndex) == Bits.Bit.ONE) {
@@ -170,7 +390,7 @@ class PartitionHandle implements AutoCloseable {
         Bits.setBit(headerBytes, pageIndex, Bits.Bit.ONE);
         this.masterPage[headerIndex] = Bits.countBits(headerBytes);
 
-        int pageNum = pageIndex + headerIndex * DATA_PAGES_PER_HEADER;
+        int pageNum = pageIndex + headerIndex * this.dataPagesPerHeader;
 
         TransactionContext transaction = TransactionContext.getTransaction();
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
@@ -180,19 +400,60 @@ class PartitionHandle implements AutoCloseable {
         recoveryManager.diskIOHook(vpn);
         this.writeMasterPage();
         this.writeHeaderPage(headerIndex);
+        this.ensureExtent(pageNum);
 
         return pageNum;
     }
 
+    /**
+     * Grows the OS file by an extent of PAGES_PER_EXTENT data pages if it does not yet cover
+     * the given data page. The file is grown with a single length change (leaving a hole in
+     * the file rather than writing zeros), and the data pages in the new extent are marked
+     * as fresh.
+     * @param pageNum data page number that must be backed by the file
+     */
+    void ensureExtent(int pageNum) throws IOException {
+        long end = this.dataPageOffset(pageNum) + this.pageSize;
+        if (end <= this.fileLength) {
+            return;
+        }
+        // the file may have been grown without this handle knowing (e.g. by a memory mapping)
+        long oldLength = Math.max(this.fileLength, this.file.length());
+        if (end <= oldLength) {
+            this.fileLength = oldLength;
+            return;
+        }
+        long newLength = end + (long) (PAGES_PER_EXTENT - 1) * this.pageSize;
+        this.file.setLength(newLength);
+        this.fileLength = newLength;
+        for (int p = pageNum; this.dataPageOffset(p) < newLength; ++p) {
+            this.freshPages.set(p);
+        }
+        for (int p = pageNum - 1; p >= 0 && this.dataPageOffset(p) >= oldLength; --p) {
+            this.freshPages.set(p);
+        }
+    }
+
+    /**
+     * Zeroes out a newly allocated data page. Fresh pages are already zero on disk,
+     * so nothing is written for them. Assumes that the partition lock is held.
+     * @param pageNum data page number to zero out
+     */
+    void zeroPage(int pageNum) throws IOException {
+        if (!this.freshPages.get(pageNum)) {
+            this.writePage(pageNum, new byte[this.pageSize]);
+        }
+    }
+
     /**
      * Frees a page in the partition from use.
      * @param pageNum data page number to be freed
      */
     void freePage(int pageNum) throws IOException {
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
+        int headerIndex = pageNum / this.dataPagesPerHeader;
+        int pageIndex = pageNum % this.dataPagesPerHeader;
 
-        byte[] headerBytes = headerPages[headerIndex];
+        byte[] headerBytes = this.getHeaderPage(headerIndex);
         if (headerBytes == null) {
             throw new NoSuchElementException("cannot free unallocated page");
         }
@@ -204,22 +465,23 @@ class PartitionHandle implements AutoCloseable {
         TransactionContext transaction = TransactionContext.getTransaction();
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         if (transaction != null) {
-            byte[] contents = new byte[PAGE_SIZE];
+            byte[] contents = new byte[this.pageSize];
             readPage(pageNum, contents);
-            int halfway = BufferManager.RESERVED_SPACE + BufferManager.EFFECTIVE_PAGE_SIZE / 2;
+            int effectivePageSize = this.pageSize - BufferManager.RESERVED_SPACE;
+            int halfway = BufferManager.RESERVED_SPACE + effectivePageSize / 2;
             recoveryManager.logPageWrite(
                     transaction.getTransNum(),
                     vpn,
                     (short) 0,
                     Arrays.copyOfRange(contents, BufferManager.RESERVED_SPACE, halfway),
-                    new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
+                    new byte[effectivePageSize / 2]
             );
             recoveryManager.logPageWrite(
                     transaction.getTransNum(),
                     vpn,
-                    (short) (BufferManager.EFFECTIVE_PAGE_SIZE / 2),
-                    Arrays.copyOfRange(contents, halfway, PAGE_SIZE),
-                    new byte[BufferManager.EFFECTIVE_PAGE_SIZE / 2]
+                    (short) (effectivePageSize / 2),
+                    Arrays.copyOfRange(contents, halfway, this.pageSize),
+                    new byte[effectivePageSize / 2]
             );
             recoveryManager.logFreePage(transaction.getTransNum(), vpn);
         }
@@ -231,50 +493,234 @@ class PartitionHandle implements AutoCloseable {
     }
 
     /**
-     * Reads in a data page. Assumes that the partition lock is held.
+     * Reads in a data page. Assumes that the partition lock is held (the read lock suffices).
      * @param pageNum data page number to read in
      * @param buf output buffer to be filled with page - assumed to be page size
      */
     void readPage(int pageNum, byte[] buf) throws IOException {
+        this.readPage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Reads in a data page straight into a buffer, which may be a direct buffer. Assumes that
+     * the partition lock is held (the read lock suffices).
+     * @param pageNum data page number to read in
+     * @param buf output buffer to be filled with page from index 0 - assumed to be page size
+     */
+    void readPage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.read(b, PartitionHandle.dataPageOffset(pageNum));
+        if (this.freshPages.get(pageNum)) {
+            PartitionHandle.zero(buf);
+            return;
+        }
+        this.readData(this.dataPageOffset(pageNum), buf);
+        this.verifyChecksum(pageNum, buf);
     }
 
     /**
-     * Writes to a data page. Assumes that the partition lock is held.
+     * Writes to a data page. Assumes that the partition lock is held. In write-back
+     * mode the write is not forced to disk until the next call to sync.
      * @param pageNum data page number to write to
      * @param buf input buffer with new contents of page - assumed to be page size
      */
     void writePage(int pageNum, byte[] buf) throws IOException {
+        this.writePage(pageNum, ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * Writes to a data page straight from a buffer, which may be a direct buffer. Assumes that
+     * the partition lock is held.
+     * @param pageNum data page number to write to
+     * @param buf input buffer with new contents of page from index 0 - assumed to be page size
+     */
+    void writePage(int pageNum, ByteBuffer buf) throws IOException {
         if (this.isNotAllocatedPage(pageNum)) {
             throw new PageException("page " + pageNum + " is not allocated");
         }
-        ByteBuffer b = ByteBuffer.wrap(buf);
-        this.fileChannel.write(b, PartitionHandle.dataPageOffset(pageNum));
-        this.fileChannel.force(false);
+        this.stampChecksum(buf);
+        this.writeData(this.dataPageOffset(pageNum), buf);
+        this.freshPages.clear(pageNum);
+        this.unsynced = true;
+        if (this.syncOnWrite) {
+            this.sync();
+        }
 
         long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         recoveryManager.diskIOHook(vpn);
     }
 
+    /**
+     * Reads in several data pages, merging reads of pages that are next to each other in
+     * the OS file. Assumes that the partition lock is held (the read lock suffices).
+     * @param pageNums data page numbers to read in, in ascending order
+     * @param bufs output buffers to be filled with pages, one per page - assumed to be page size
+     */
+    void readPages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+        for (int pageNum : pageNums) {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+        }
+        int start = 0;
+        while (start < pageNums.length) {
+            if (this.freshPages.get(pageNums[start])) {
+                PartitionHandle.zero(bufs[start]);
+                ++start;
+                continue;
+            }
+            int end = this.runEnd(pageNums, start, true);
+            this.readRun(this.dataPageOffset(pageNums[start]), bufs, start, end - start);
+            for (int i = start; i < end; ++i) {
+                this.verifyChecksum(pageNums[i], bufs[i]);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Writes to several data pages, merging writes to pages that are next to each other in
+     * the OS file. Assumes that the partition lock is held. The whole batch is forced to disk
+     * at once (unless in write-back mode).
+     * @param pageNums data page numbers to write to, in ascending order
+     * @param bufs input buffers with new contents of pages, one per page - assumed to be page size
+     */
+    void writePages(int[] pageNums, ByteBuffer[] bufs) throws IOException {
+        for (int pageNum : pageNums) {
+            if (this.isNotAllocatedPage(pageNum)) {
+                throw new PageException("page " + pageNum + " is not allocated");
+            }
+        }
+        for (ByteBuffer buf : bufs) {
+            this.stampChecksum(buf);
+        }
+        int start = 0;
+        while (start < pageNums.length) {
+            int end = this.runEnd(pageNums, start, false);
+            this.writeRun(this.dataPageOffset(pageNums[start]), bufs, start, end - start);
+            start = end;
+        }
+        for (int pageNum : pageNums) {
+            this.freshPages.clear(pageNum);
+        }
+        this.unsynced = true;
+        if (this.syncOnWrite) {
+            this.sync();
+        }
+
+        for (int pageNum : pageNums) {
+            long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
+            recoveryManager.diskIOHook(vpn);
+        }
+    }
+
+    /**
+     * Finds the end of the run of pages starting at pageNums[start] that are stored
+     * back to back in the OS file (no header page in between), up to MAX_PAGES_PER_RUN pages.
+     * @param pageNums data page numbers, in ascending order
+     * @param start index of the first page of the run
+     * @param stopAtFresh whether fresh pages end the run
+     * @return index one past the last page of the run
+     */
+    private int runEnd(int[] pageNums, int start, boolean stopAtFresh) {
+        int end = start + 1;
+        while (end < pageNums.length && end - start < MAX_PAGES_PER_RUN) {
+            int pageNum = pageNums[end];
+            if (pageNum != pageNums[end - 1] + 1 || pageNum % this.dataPagesPerHeader == 0) {
+                break;
+            }
+            if (stopAtFresh && this.freshPages.get(pageNum)) {
+                break;
+            }
+            ++end;
+        }
+        return end;
+    }
+
+    /**
+     * Stores the checksum of a data page in the page itself, if checksums are enabled.
+     * @param buf contents of the page - assumed to be page size
+     */
+    private void stampChecksum(ByteBuffer buf) {
+        if (this.checksums) {
+            buf.putInt(CHECKSUM_OFFSET, PartitionHandle.checksum(buf));
+        }
+    }
+
+    /**
+     * Checks a data page read from disk against its stored checksum, if checksums are enabled.
+     * Pages that are entirely zero (allocated but never written) are not checked; any other page
+     * with no stored checksum, e.g. one whose first sector was zeroed by a torn write, fails.
+     * @param pageNum data page number
+     * @param buf contents of the page - assumed to be page size
+     */
+    private void verifyChecksum(int pageNum, ByteBuffer buf) {
+        if (!this.checksums) {
+            return;
+        }
+        int stored = buf.getInt(CHECKSUM_OFFSET);
+        if (stored == 0 ? !PartitionHandle.isZero(buf) : stored != PartitionHandle.checksum(buf)) {
+            throw new PageException("checksum mismatch on page " + pageNum + " of partition " + partNum);
+        }
+    }
+
+    /**
+     * @param buf contents of a data page, from index 0 - assumed to be page size
+     * @return whether every byte of the page is zero
+     */
+    private static boolean isZero(ByteBuffer buf) {
+        ByteBuffer b = PartitionHandle.whole(buf);
+        while (b.remaining() >= Long.BYTES) {
+            if (b.getLong() != 0) {
+                return false;
+            }
+        }
+        while (b.hasRemaining()) {
+            if (b.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param buf contents of a data page - assumed to be page size
+     * @return CRC32 of the page, excluding the checksum itself; never 0, which marks
+     * pages with no checksum
+     */
+    static int checksum(byte[] buf) {
+        return PartitionHandle.checksum(ByteBuffer.wrap(buf));
+    }
+
+    /**
+     * @param buf contents of a data page, from index 0 - assumed to be page size
+     * @return CRC32 of the page, as checksum(byte[]) computes it
+     */
+    static int checksum(ByteBuffer buf) {
+        CRC32 crc = new CRC32();
+        ByteBuffer b = PartitionHandle.whole(buf);
+        b.position(CHECKSUM_OFFSET + CHECKSUM_SIZE);
+        crc.update(b);
+        int checksum = (int) crc.getValue();
+        return checksum == 0 ? 1 : checksum;
+    }
+
     /**
      * Checks if page number is for an unallocated data page
      * @param pageNum data page number
      * @return true if page is not valid or not allocated
      */
     boolean isNotAllocatedPage(int pageNum) {
-        int headerIndex = pageNum / DATA_PAGES_PER_HEADER;
-        int pageIndex = pageNum % DATA_PAGES_PER_HEADER;
-        if (headerIndex < 0 || headerIndex >= MAX_HEADER_PAGES) {
+        int headerIndex = pageNum / this.dataPagesPerHeader;
+        int pageIndex = pageNum % this.dataPagesPerHeader;
+        if (headerIndex < 0 || headerIndex >= this.maxHeaderPages) {
             return true;
         }
         if (masterPage[headerIndex] == 0) {
             return true;
         }
-        return Bits.getBit(headerPages[headerIndex], pageIndex) == Bits.Bit.ZERO;
+        return Bits.getBit(this.getHeaderPage(headerIndex), pageIndex) == Bits.Bit.ZERO;
     }
 
     /**
@@ -282,22 +728,31 @@ class PartitionHandle implements AutoCloseable {
      * @throws IOException
      */
     void freeDataPages() throws IOException {
-        for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
+        for (int i = 0; i < this.maxHeaderPages; ++i) {
             if (masterPage[i] > 0) {
-                byte[] headerPage = headerPages[i];
-                for (int j = 0; j < DATA_PAGES_PER_HEADER; ++j) {
+                byte[] headerPage = this.getHeaderPage(i);
+                for (int j = 0; j < this.dataPagesPerHeader; ++j) {
                     if (Bits.getBit(headerPage, j) == Bits.Bit.ONE) {
-                        this.freePage(i * DATA_PAGES_PER_HEADER + j);
+                        this.freePage(i * this.dataPagesPerHeader + j);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Deletes the OS file(s) of the partition. Assumes that the partition has been closed.
+     * @param fileName name of OS file partition is stored in
+     * @return whether the files were deleted
+     */
+    boolean deleteFiles(String fileName) {
+        return new File(fileName).delete();
+    }
+
     /**
      * @return offset in OS file for master page
      */
-    private static long masterPageOffset() {
+    private long masterPageOffset() {
         return 0;
     }
 
@@ -305,7 +760,7 @@ class PartitionHandle implements AutoCloseable {
      * @param headerIndex which header page
      * @return offset in OS file for header page
      */
-    private static long headerPageOffset(int headerIndex) {
+    private long headerPageOffset(int headerIndex) {
         // Consider the layout if we had 4 data pages per header:
         // Offset (in pages):  0  1  2  3  4  5  6  7  8  9 10 11
         // Page Type:         [M][H][D][D][D][D][H][D][D][D][D][H]...
@@ -314,15 +769,15 @@ class PartitionHandle implements AutoCloseable {
         // the master page, and then take the header index times the number
         // of data pages per header plus 1 to account for the header page
         // itself (in the above example this coefficient would be 5)
-        long spacingCoeff = DATA_PAGES_PER_HEADER + 1; // Promote to long
-        return (1 + headerIndex * spacingCoeff) * PAGE_SIZE;
+        long spacingCoeff = this.dataPagesPerHeader + 1; // Promote to long
+        return (1 + headerIndex * spacingCoeff) * this.pageSize;
     }
 
     /**
      * @param pageNum data page number
      * @return offset in OS file for data page
      */
-    private static long dataPageOffset(int pageNum) {
+    long dataPageOffset(int pageNum) {
         // Consider the layout if we had 4 data pages per header:
         // Offset (in pages):  0  1  2  3  4  5  6  7  8  9 10
         // Page Type:         [M][H][D][D][D][D][H][D][D][D][D]
@@ -334,7 +789,18 @@ class PartitionHandle implements AutoCloseable {
         //   (found by floor dividing page num by data pages per header)
         // - add how many data pages precede the given data page
         //   (this works out conveniently to the page's page number)
-        long otherHeaders = pageNum / DATA_PAGES_PER_HEADER;
-        return (2 + otherHeaders + pageNum) * PAGE_SIZE;
+        long otherHeaders = pageNum / this.dataPagesPerHeader;
+        return (2 + otherHeaders + pageNum) * this.pageSize;
+    }
+
+    /**
+     * @param offset offset in OS file of a data page
+     * @return data page number of the data page at offset (inverse of dataPageOffset)
+     */
+    int dataPageNum(long offset) {
+        // skip the master page and first header page, then remove the header pages
+        // (one every dataPagesPerHeader + 1 pages) that precede the data page
+        long index = offset / this.pageSize - 2;
+        return (int) (index - index / (this.dataPagesPerHeader + 1));
     }
 }
\ No newline at end of file
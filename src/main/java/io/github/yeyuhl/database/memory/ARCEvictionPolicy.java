@@ -0,0 +1,202 @@
+package io.github.yeyuhl.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Implementation of the ARC (adaptive replacement cache) eviction policy, which balances
+ * recency and frequency, and is resistant to sequential scans.
+ *
+ * Loaded pages are kept in two LRU lists: T1 for pages referenced once since being loaded,
+ * and T2 for pages referenced again. The page numbers of pages evicted from each list are
+ * remembered in a ghost list (B1 and B2 respectively). Loading a page remembered in either
+ * ghost list puts it straight into T2, and moves the target size of T1 towards the list the
+ * page was remembered in: up if it was evicted from T1 too early, down if it was evicted from
+ * T2 too early. Pages are evicted from T1 while it is larger than its target size, so a scan,
+ * which only ever adds pages to T1, does not push the pages in T2 out of the buffer.
+ *
+ * Hits are reported for every read of a frame, so a page read many times in a row (for
+ * example, every record of a page in a scan) would otherwise move to T2 right away. A hit on
+ * a page in T1 therefore only counts as a second reference if at least
+ * correlatedReferencePeriod other pages have been loaded since the page was loaded.
+ *
+ * Hits are reported without the buffer manager's lock, so every method of the policy
+ * synchronizes on it.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    // Default number of pages loaded between references to a page for them to be distinct
+    public static final int DEFAULT_CORRELATED_REFERENCE_PERIOD = 4;
+
+    private final int correlatedReferencePeriod;
+
+    // Pages referenced once, and pages referenced more than once, in order of least to most
+    // recently used
+    private LinkedHashSet<BufferFrame> t1;
+    private LinkedHashSet<BufferFrame> t2;
+
+    // Page numbers of pages recently evicted from t1 and t2, in order of eviction
+    private LinkedHashSet<Long> b1;
+    private LinkedHashSet<Long> b2;
+
+    // Target size of t1
+    private int target;
+
+    // Number of pages loaded so far, used to tell correlated references apart
+    private long numLoads;
+
+    // Number of frames, as of the last call to evict
+    private int numFrames;
+
+    // Tag of a frame, recording which list the frame is in
+    private static class Tag {
+        boolean inT2;
+        // Value of numLoads when the page was loaded
+        long loadedAt;
+
+        Tag(boolean inT2, long loadedAt) {
+            this.inT2 = inT2;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public ARCEvictionPolicy() {
+        this(DEFAULT_CORRELATED_REFERENCE_PERIOD);
+    }
+
+    /**
+     * @param correlatedReferencePeriod number of other pages that must be loaded between
+     *                                  loading a page and a hit on it for the hit to count as
+     *                                  a second reference
+     */
+    public ARCEvictionPolicy(int correlatedReferencePeriod) {
+        this.correlatedReferencePeriod = correlatedReferencePeriod;
+        this.t1 = new LinkedHashSet<>();
+        this.t2 = new LinkedHashSet<>();
+        this.b1 = new LinkedHashSet<>();
+        this.b2 = new LinkedHashSet<>();
+        this.target = 0;
+        this.numLoads = 0;
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initialize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        ++this.numLoads;
+        long pageNum = frame.getPageNum();
+        boolean inT2 = true;
+        if (this.b1.remove(pageNum)) {
+            // evicted from t1 too early: t1 should be larger
+            int delta = Math.max(1, this.b2.size() / Math.max(1, this.b1.size()));
+            this.target = Math.min(this.numFrames, this.target + delta);
+        } else if (this.b2.remove(pageNum)) {
+            // evicted from t2 too early: t1 should be smaller
+            int delta = Math.max(1, this.b1.size() / Math.max(1, this.b2.size()));
+            this.target = Math.max(0, this.target - delta);
+        } else {
+            inT2 = false;
+        }
+        (inT2 ? this.t2 : this.t1).add(frame);
+        frame.tag = new Tag(inT2, this.numLoads);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (!(frame.tag instanceof Tag)) {
+            return;
+        }
+        Tag tag = (Tag) frame.tag;
+        if (tag.inT2) {
+            this.t2.remove(frame);
+            this.t2.add(frame);
+        } else if (this.numLoads - tag.loadedAt >= this.correlatedReferencePeriod) {
+            this.t1.remove(frame);
+            this.t2.add(frame);
+            tag.inT2 = true;
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        BufferFrame evicted = null;
+        if (this.t1.size() > Math.max(1, this.target) || this.t2.isEmpty()) {
+            evicted = leastRecentlyUsedUnpinned(this.t1);
+        }
+        if (evicted == null) {
+            evicted = leastRecentlyUsedUnpinned(this.t2);
+        }
+        if (evicted == null) {
+            evicted = leastRecentlyUsedUnpinned(this.t1);
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (!(frame.tag instanceof Tag)) {
+            return;
+        }
+        if (((Tag) frame.tag).inT2) {
+            this.t2.remove(frame);
+            this.b2.add(frame.getPageNum());
+        } else {
+            this.t1.remove(frame);
+            this.b1.add(frame.getPageNum());
+        }
+        frame.tag = null;
+        // remember up to a buffer's worth of pages in total in t1 and b1, and in all four lists
+        int maxSize = Math.max(1, this.numFrames);
+        trim(this.b1, maxSize - this.t1.size());
+        trim(this.b2, 2 * maxSize - this.t1.size() - this.t2.size() - this.b1.size());
+    }
+
+    /**
+     * @param list list of frames
+     * @return the least recently used frame of the list that is not pinned, or null if every
+     * frame in the list is pinned
+     */
+    private static BufferFrame leastRecentlyUsedUnpinned(LinkedHashSet<BufferFrame> list) {
+        for (BufferFrame frame : list) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the oldest page numbers of a ghost list until it is no larger than size.
+     * @param ghosts ghost list
+     * @param size maximum size of the list
+     */
+    private static void trim(LinkedHashSet<Long> ghosts, int size) {
+        Iterator<Long> iter = ghosts.iterator();
+        while (ghosts.size() > Math.max(0, size)) {
+            iter.next();
+            iter.remove();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.github.yeyuhl.database.memory;
+
+/**
+ * Hint about how a page fetched from the buffer manager is going to be used.
+ *
+ * Pages fetched with a hint other than NORMAL are loaded into a small ring of frames set aside
+ * for the hint: once the ring is full, the next page is loaded into the frame that the ring
+ * used the longest time ago (if it is not pinned, and still holds the page the ring loaded
+ * into it) instead of a frame picked by the eviction policy. Traffic that reads or writes a
+ * lot of pages only once therefore recycles the same few frames, rather than pushing the rest
+ * of the pages out of the buffer. Pages that are already loaded are not affected by hints.
+ */
+public enum AccessHint {
+    /**
+     * Pages are loaded into frames picked by the eviction policy.
+     */
+    NORMAL,
+
+    /**
+     * Pages read in order by a scan of a table too large to keep in the buffer.
+     */
+    SEQUENTIAL_SCAN,
+
+    /**
+     * Pages written in bulk, and not read again soon (e.g. pages of the log).
+     */
+    BULK_WRITE,
+
+    /**
+     * Pages of temporary tables (e.g. sorted runs and hash partitions), which are written
+     * once and read back once or twice.
+     */
+    TEMP;
+
+    // Maximum number of frames in the ring of a sequential scan
+    private static final int MAX_SEQUENTIAL_SCAN_RING_SIZE = 32;
+
+    /**
+     * @param numFrames number of frames in the buffer
+     * @return number of frames in the ring of pages fetched with this hint; 0 if pages are not
+     * loaded into a ring
+     */
+    int ringSize(int numFrames) {
+        switch (this) {
+            case SEQUENTIAL_SCAN:
+                return Math.min(MAX_SEQUENTIAL_SCAN_RING_SIZE, numFrames / 8);
+            case BULK_WRITE:
+                return numFrames / 8;
+            case TEMP:
+                return numFrames / 4;
+            default:
+                return 0;
+        }
+    }
+}
@@ -1,35 +1,52 @@
 package io.github.yeyuhl.database.memory;
 
+import io.github.yeyuhl.database.common.Buffer;
+import io.github.yeyuhl.database.common.ByteBuffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
  */
 abstract class BufferFrame {
     Object tag = null;
-    private int pinCount = 0;
+    // Number of times the frame is pinned. Atomic so that whether a frame is pinned can be
+    // checked (e.g. by eviction policies) without the frame's lock.
+    private final AtomicInteger pinCount = new AtomicInteger();
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        pinCount.incrementAndGet();
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
-            throw new IllegalStateException("cannot unpin unpinned frame");
-        }
-        --pinCount;
+        int count;
+        do {
+            count = pinCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("cannot unpin unpinned frame");
+            }
+        } while (!pinCount.compareAndSet(count, count - 1));
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
+    }
+
+    /**
+     * @return number of times the frame is pinned
+     */
+    int getPinCount() {
+        return pinCount.get();
     }
 
     /**
@@ -53,7 +70,18 @@ abstract class BufferFrame {
      * @param num number of bytes to read
      * @param buf output buffer
      */
-    abstract void readBytes(short position, short num, byte[] buf);
+    abstract void readBytes(int position, int num, byte[] buf);
+
+    /**
+     * Get a read-only view of the data in the buffer frame. The frame must be pinned
+     * while the view is in use.
+     * @return buffer over the data in the frame
+     */
+    Buffer getReadOnlyBuffer() {
+        byte[] data = new byte[getEffectivePageSize()];
+        readBytes(0, getEffectivePageSize(), data);
+        return ByteBuffer.wrapReadOnly(data, 0, data.length);
+    }
 
     /**
      * Write to the buffer frame, and mark frame as dirtied.
@@ -61,7 +89,7 @@ abstract class BufferFrame {
      * @param num number of bytes to write
      * @param buf input buffer
      */
-    abstract void writeBytes(short position, short num, byte[] buf);
+    abstract void writeBytes(int position, int num, byte[] buf);
 
     /**
      * Requests a valid Frame object for the page (if invalid, a new Frame object is returned).
@@ -72,7 +100,7 @@ abstract class BufferFrame {
     /**
      * @return amount of space available to user of the frame
      */
-    short getEffectivePageSize() {
+    int getEffectivePageSize() {
         return BufferManager.EFFECTIVE_PAGE_SIZE;
     }
 
@@ -1,82 +1,253 @@
 package io.github.yeyuhl.database.memory;
 
 import io.github.yeyuhl.database.TransactionContext;
-import io.github.yeyuhl.database.common.Pair;
+import io.github.yeyuhl.database.common.Buffer;
 import io.github.yeyuhl.database.concurrency.LockContext;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
 import io.github.yeyuhl.database.io.PageException;
 import io.github.yeyuhl.database.recovery.LogManager;
 import io.github.yeyuhl.database.recovery.RecoveryManager;
 
+import java.io.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
+ * Data is stored in page-sized buffers, and returned in a Frame object specific
  * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * a new Frame object, with the same underlying buffer), with old Frame objects
+ * backed by the same buffer marked as invalid.
+ *
+ * The buffers are byte arrays on the Java heap by default. Off the heap, they are instead
+ * slices of a few large direct buffers allocated up front, so the pages cached in the buffer
+ * never have to be scanned or moved by the garbage collector, and pages are read from and
+ * written to disk without copying them through the heap.
+ *
+ * The buffer may be split into shards, each with its own frames, eviction policy and lock;
+ * a page is always loaded into the shard picked by a hash of its page number.
  */
 public class BufferManager implements AutoCloseable {
     // We reserve 36 bytes on each page for bookkeeping for recovery
     // (used to store the pageLSN, and to ensure that a redo-only/undo-only log record can
-    // fit on one page).
+    // fit on one page). The disk space manager may store a page checksum in the first bytes.
     public static final short RESERVED_SPACE = 36;
 
-    // Effective page size available to users of buffer manager.
+    // Effective page size available to users of buffer manager, with the default page size.
     public static final short EFFECTIVE_PAGE_SIZE = (short) (DiskSpaceManager.PAGE_SIZE - RESERVED_SPACE);
 
-    // Buffer frames
-    private Frame[] frames;
+    // Shards of the buffer pool; every page is loaded into a frame of the shard picked by shardOf
+    private Shard[] shards;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Size of pages (as set by the disk space manager), and the part of it available to users
+    private final int pageSize;
+    private final int effectivePageSize;
 
-    // Lock on buffer manager
-    private ReentrantLock managerLock;
+    // Recovery manager
+    private RecoveryManager recoveryManager;
 
-    // Eviction policy
-    private EvictionPolicy evictionPolicy;
+    // Thread pool that performs read-ahead; null if read-ahead is disabled
+    private ExecutorService readAheadExecutor;
 
-    // Index of first free frame
-    private int firstFreeIndex;
+    // Pages with a read-ahead request queued or in progress
+    private Set<Long> readAheadPending = ConcurrentHashMap.newKeySet();
 
-    // Recovery manager
-    private RecoveryManager recoveryManager;
+    // Number of pages callers should ask to read ahead; adapts to how useful prefetches are
+    private volatile int readAheadWindow = MIN_READ_AHEAD_WINDOW;
+    private static final int MIN_READ_AHEAD_WINDOW = 1;
+    private static final int MAX_READ_AHEAD_WINDOW = 32;
+
+    // Largest direct buffer that frame buffers are sliced from when off the heap
+    private static final int MAX_ARENA_SIZE = 1 << 30;
+
+    // Counters of activity across the whole buffer manager (activity on behalf of a
+    // transaction is also counted in the transaction's own counters)
+    private final BufferMetrics metrics = new BufferMetrics();
+
+    // Thread that flushes dirty pages in the background; null if the background writer is disabled
+    private ScheduledExecutorService backgroundWriter;
+
+    // Fraction of the frames of each shard the background writer tries to keep clean and unpinned
+    private double backgroundWriterCleanFraction;
 
-    // Count of number of I/Os
-    private long numIOs = 0;
+    // Page number the next round of the background writer starts flushing from
+    private long backgroundWriterNextPageNum = 0;
+
+    // Background writer counters: rounds run, pages written, and dirty unpinned pages left
+    // unwritten at the end of the last round
+    private AtomicLong numBackgroundWriterRounds = new AtomicLong();
+    private AtomicLong numBackgroundWrites = new AtomicLong();
+    private volatile int backgroundWriterBacklog = 0;
+
+    // Thread that reloads the pages resident before a restart; null if warm-up was not started
+    private ExecutorService warmUpExecutor;
+
+    // Set to stop warming up
+    private volatile boolean warmUpCancelled = false;
+
+    // Number of pages reloaded by warm-up
+    private AtomicLong numWarmUpLoads = new AtomicLong();
+
+    // Scratch buffers that writes diff and log changed bytes with; one per thread, so that
+    // writes under different frame locks neither allocate nor share them
+    private static final ThreadLocal<WriteScratch> WRITE_SCRATCH = ThreadLocal.withInitial(WriteScratch::new);
+
+    /**
+     * Buffers a write fills with the ranges of bytes it changes: the page offset and length
+     * of each range, and the old and new bytes of the ranges, back to back. Grown (never
+     * shrunk) to fit the largest write seen by the thread.
+     */
+    private static class WriteScratch {
+        short[] offsets = new short[0];
+        short[] lengths = new short[0];
+        byte[] before = new byte[0];
+        byte[] after = new byte[0];
+
+        void ensureCapacity(int numBytes) {
+            if (this.before.length < numBytes) {
+                // every range has at least one byte, so there are at most numBytes ranges
+                this.offsets = new short[numBytes];
+                this.lengths = new short[numBytes];
+                this.before = new byte[numBytes];
+                this.after = new byte[numBytes];
+            }
+        }
+    }
+
+    /**
+     * Part of the buffer pool, with its own frames, page table, free list, eviction policy and
+     * lock. A page is always loaded into the same shard, so fetches of pages in different shards
+     * never contend for the same lock. Frame indices are indices into the frames of the shard.
+     */
+    private class Shard {
+        // Buffer frames
+        private final Frame[] frames;
+
+        // Map of page number to frame index (looked up without the manager lock on buffer hits,
+        // updated only while holding it)
+        private final PageTable pageToFrame;
+
+        // Lock on the shard
+        private final ReentrantLock managerLock;
+
+        // Eviction policy
+        private final EvictionPolicy evictionPolicy;
+
+        // Index of first free frame
+        private int firstFreeIndex;
+
+        // Number of frames holding a prefetched page that has not been fetched yet (decremented
+        // without the manager lock when such a page is fetched)
+        private final AtomicInteger numPrefetchedFrames = new AtomicInteger();
+
+        // Ring of frames of each access hint (indexed by ordinal), or null if the hint has none
+        private final Ring[] rings;
+
+        private Shard(ByteBuffer[] buffers, EvictionPolicy evictionPolicy) {
+            this.frames = new Frame[buffers.length];
+            for (int i = 0; i < buffers.length; ++i) {
+                this.frames[i] = new Frame(this, buffers[i], i + 1);
+            }
+            this.firstFreeIndex = 0;
+            this.pageToFrame = new PageTable(buffers.length);
+            this.managerLock = new ReentrantLock();
+            this.evictionPolicy = evictionPolicy;
+            this.rings = new Ring[AccessHint.values().length];
+            for (AccessHint hint : AccessHint.values()) {
+                int ringSize = hint.ringSize(buffers.length);
+                if (ringSize > 0) {
+                    this.rings[hint.ordinal()] = new Ring(ringSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ring of frames that pages fetched with an access hint are loaded into (see AccessHint).
+     * Only used while holding the lock of its shard.
+     */
+    private static class Ring {
+        // Frame objects of the pages the ring loaded, oldest first from next; null if none
+        private final Frame[] frames;
+
+        // Index of the slot of the next page loaded
+        private int next;
+
+        private Ring(int size) {
+            this.frames = new Frame[size];
+            this.next = 0;
+        }
+
+        /**
+         * @return frame of the page the ring loaded the longest time ago, or null if there is
+         * none (the ring is not full yet)
+         */
+        private Frame oldest() {
+            return this.frames[this.next];
+        }
+
+        /**
+         * Records that a page was loaded into a frame by the ring.
+         * @param frame Frame object of the page
+         */
+        private void add(Frame frame) {
+            this.frames[this.next] = frame;
+            this.next = (this.next + 1) % this.frames.length;
+        }
+    }
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
+     * underlying page-sized buffer (which may be a direct buffer). The contents are always
+     * accessed by absolute index, so the position and limit of the buffer are never used. Free frames use the index field to create a (singly) linked
      * list between free frames.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
+        ByteBuffer contents;
+        private final Shard shard;
         private int index;
         private long pageNum;
         private boolean dirty;
         private ReentrantLock frameLock;
         private boolean logPage;
+        // whether the page was loaded by read-ahead and has not been fetched since (cleared
+        // with a compare-and-set, since fetches do not take the manager lock)
+        private final AtomicBoolean prefetched = new AtomicBoolean();
+        // System.nanoTime() when the frame was last pinned while unpinned
+        private long pinnedAt;
 
-        Frame(byte[] contents, int nextFree) {
-            this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
+        Frame(Shard shard, ByteBuffer contents, int nextFree) {
+            this(shard, contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM);
         }
 
         Frame(Frame frame) {
-            this(frame.contents, frame.index, frame.pageNum);
+            this(frame.shard, frame.contents, frame.index, frame.pageNum);
         }
 
-        Frame(byte[] contents, int index, long pageNum) {
+        Frame(Shard shard, ByteBuffer contents, int index, long pageNum) {
+            this.shard = shard;
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
@@ -92,13 +263,16 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
+            this.lockForPin();
 
             if (!this.isValid()) {
                 throw new IllegalStateException("pinning invalidated frame");
             }
 
             super.pin();
+            if (this.getPinCount() == 1) {
+                this.pinnedAt = System.nanoTime();
+            }
         }
 
         /**
@@ -106,10 +280,24 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         public void unpin() {
+            if (this.getPinCount() == 1) {
+                BufferManager.this.record(BufferMetrics::recordPin, System.nanoTime() - this.pinnedAt);
+            }
             super.unpin();
             this.frameLock.unlock();
         }
 
+        /**
+         * Takes the lock of the frame in order to pin it, counting a pin wait if the lock is
+         * held by another thread.
+         */
+        private void lockForPin() {
+            if (!this.frameLock.tryLock()) {
+                BufferManager.this.record(BufferMetrics::recordPinWait);
+                this.frameLock.lock();
+            }
+        }
+
         /**
          * @return whether this frame is valid
          */
@@ -143,8 +331,8 @@ public class BufferManager implements AutoCloseable {
             if (isFreed()) {
                 throw new IllegalStateException("cannot free free frame");
             }
-            int nextFreeIndex = firstFreeIndex;
-            firstFreeIndex = this.index;
+            int nextFreeIndex = shard.firstFreeIndex;
+            shard.firstFreeIndex = this.index;
             this.index = ~nextFreeIndex;
         }
 
@@ -152,8 +340,8 @@ public class BufferManager implements AutoCloseable {
             if (!isFreed()) {
                 throw new IllegalStateException("cannot unfree used frame");
             }
-            int index = firstFreeIndex;
-            firstFreeIndex = ~this.index;
+            int index = shard.firstFreeIndex;
+            shard.firstFreeIndex = ~this.index;
             this.index = index;
         }
 
@@ -182,8 +370,10 @@ public class BufferManager implements AutoCloseable {
                 if (!this.logPage) {
                     recoveryManager.pageFlushHook(this.getPageLSN());
                 }
+                long start = System.nanoTime();
                 BufferManager.this.diskSpaceManager.writePage(pageNum, contents);
-                BufferManager.this.incrementIOs();
+                BufferManager.this.record(BufferMetrics::recordWrite, System.nanoTime() - start);
+                BufferManager.this.record(BufferMetrics::recordPagesWritten, 1);
                 this.dirty = false;
             } finally {
                 super.unpin();
@@ -198,19 +388,41 @@ public class BufferManager implements AutoCloseable {
          * @param buf output buffer
          */
         @Override
-        void readBytes(short position, short num, byte[] buf) {
+        void readBytes(int position, int num, byte[] buf) {
             this.pin();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
-                BufferManager.this.evictionPolicy.hit(this);
+                ByteBuffer b = this.contents.duplicate();
+                b.position(position + dataOffset());
+                b.get(buf, 0, num);
+                this.shard.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
             }
         }
 
+        /**
+         * Get a read-only view of the data in the buffer frame that reads straight from the
+         * frame's contents, without locking or pinning on every read. The calling thread must
+         * have the frame pinned, and keep it pinned while the view is in use. Counts as a
+         * single hit, however many reads are made through the view.
+         * @return buffer over the data in the frame
+         */
+        @Override
+        Buffer getReadOnlyBuffer() {
+            if (!this.frameLock.isHeldByCurrentThread() || !this.isPinned()) {
+                throw new IllegalStateException("reading from buffer frame that is not pinned");
+            }
+            if (!this.isValid()) {
+                throw new IllegalStateException("reading from invalid buffer frame");
+            }
+            this.shard.evictionPolicy.hit(this);
+            return io.github.yeyuhl.database.common.ByteBuffer.wrapReadOnly(this.contents, dataOffset(),
+                                                                           getEffectivePageSize());
+        }
+
         /**
          * Write to the buffer frame, and mark frame as dirtied.
          * @param position position in buffer frame to start writing
@@ -218,29 +430,28 @@ public class BufferManager implements AutoCloseable {
          * @param buf input buffer
          */
         @Override
-        void writeBytes(short position, short num, byte[] buf) {
+        void writeBytes(int position, int num, byte[] buf) {
             this.pin();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("writing to invalid buffer frame");
                 }
                 int offset = position + dataOffset();
+                ByteBuffer b = this.contents.duplicate();
                 TransactionContext transaction = TransactionContext.getTransaction();
                 if (transaction != null && !logPage) {
-                    List<Pair<Integer, Integer>> changedRanges = getChangedBytes(offset, num, buf);
-                    for (Pair<Integer, Integer> range : changedRanges) {
-                        int start = range.getFirst();
-                        int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
-                        byte[] after = Arrays.copyOfRange(buf, start, start + len);
-                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, (short) (start + position), before,
-                                       after);
+                    WriteScratch scratch = WRITE_SCRATCH.get();
+                    int numRanges = getChangedBytes(b, position, offset, num, buf, scratch);
+                    if (numRanges > 0) {
+                        long pageLSN = recoveryManager.logPageWrites(transaction.getTransNum(), pageNum, numRanges,
+                                       scratch.offsets, scratch.lengths, scratch.before, scratch.after);
                         this.setPageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                b.position(offset);
+                b.put(buf, 0, num);
                 this.dirty = true;
-                BufferManager.this.evictionPolicy.hit(this);
+                this.shard.evictionPolicy.hit(this);
             } finally {
                 this.unpin();
             }
@@ -252,7 +463,7 @@ public class BufferManager implements AutoCloseable {
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
+            this.lockForPin();
             try {
                 if (this.isFreed()) {
                     throw new PageException("page already freed");
@@ -268,17 +479,17 @@ public class BufferManager implements AutoCloseable {
         }
 
         @Override
-        short getEffectivePageSize() {
+        int getEffectivePageSize() {
             if (logPage) {
-                return DiskSpaceManager.PAGE_SIZE;
+                return BufferManager.this.pageSize;
             } else {
-                return BufferManager.EFFECTIVE_PAGE_SIZE;
+                return BufferManager.this.effectivePageSize;
             }
         }
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            return this.contents.getLong(8);
         }
 
         @Override
@@ -293,43 +504,73 @@ public class BufferManager implements AutoCloseable {
         }
 
         /**
-         * Generates (offset, length) pairs for where buf differs from contents. Merges nearby
-         * pairs (where nearby is defined as pairs that have fewer than BufferManager.RESERVED_SPACE
-         * bytes of unmodified data between them).
+         * Finds the ranges where buf differs from contents, and stores them in scratch: the
+         * page offset and length of each range (as unsigned shorts, since pages may be larger
+         * than 32KB), and the bytes of the ranges before and after the write, back to back. Merges nearby ranges (where nearby is defined as ranges that have
+         * fewer than BufferManager.RESERVED_SPACE bytes of unmodified data between them), and
+         * splits ranges longer than half a page.
+         *
+         * Nothing is allocated: the old bytes are copied into the scratch buffer once, compared
+         * against buf, and then compacted in place.
+         *
+         * @param b duplicate of contents, used to read the old bytes
+         * @return number of ranges
          */
-        private List<Pair<Integer, Integer>> getChangedBytes(int offset, int num, byte[] buf) {
-            List<Pair<Integer, Integer>> ranges = new ArrayList<>();
-            int maxRange = EFFECTIVE_PAGE_SIZE / 2;
+        private int getChangedBytes(ByteBuffer b, int position, int offset, int num, byte[] buf,
+                                    WriteScratch scratch) {
+            scratch.ensureCapacity(num);
+            byte[] old = scratch.before;
+            b.position(offset);
+            b.get(old, 0, num);
+            short[] starts = scratch.offsets;
+            short[] lengths = scratch.lengths;
+            int numRanges = 0;
+            int maxRange = effectivePageSize / 2;
             int startIndex = -1;
             int skip = -1;
             for (int i = 0; i < num; ++i) {
                 if (startIndex >= 0 && maxRange == i - startIndex) {
-                    ranges.add(new Pair<>(startIndex, maxRange));
+                    starts[numRanges] = (short) startIndex;
+                    lengths[numRanges++] = (short) maxRange;
                     startIndex = -1;
                     skip = -1;
-                } else if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                }
+                if (buf[i] != old[i]) {
+                    if (startIndex < 0) {
+                        startIndex = i;
+                    }
+                    skip = 0;
+                } else if (startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
-                        ranges.add(new Pair<>(startIndex, i - startIndex - skip));
+                        starts[numRanges] = (short) startIndex;
+                        lengths[numRanges++] = (short) (i - startIndex - skip);
                         startIndex = -1;
                         skip = -1;
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
-                    if (startIndex < 0) {
-                        startIndex = i;
-                    }
-                    skip = 0;
                 }
             }
             if (startIndex >= 0) {
-                ranges.add(new Pair<>(startIndex, num - startIndex - skip));
+                starts[numRanges] = (short) startIndex;
+                lengths[numRanges++] = (short) (num - startIndex - skip);
             }
-            return ranges;
+            // ranges are in increasing order, so packing the old bytes never overwrites bytes
+            // of a later range
+            int packed = 0;
+            for (int r = 0; r < numRanges; ++r) {
+                int start = Short.toUnsignedInt(starts[r]);
+                int len = Short.toUnsignedInt(lengths[r]);
+                System.arraycopy(old, start, old, packed, len);
+                System.arraycopy(buf, start, scratch.after, packed, len);
+                starts[r] = (short) (start + position);
+                packed += len;
+            }
+            return numRanges;
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.contents.putLong(8, pageLSN);
         }
 
         private short dataOffset() {
@@ -350,40 +591,191 @@ public class BufferManager implements AutoCloseable {
      */
     public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                          int bufferSize, EvictionPolicy evictionPolicy) {
-        this.frames = new Frame[bufferSize];
-        for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1);
+        this(diskSpaceManager, recoveryManager, bufferSize, () -> evictionPolicy, 1);
+    }
+
+    /**
+     * Creates a new buffer manager, with the buffer split into shards. Each shard has its own
+     * share of the frames, eviction policy and lock, and each page is always loaded into the
+     * same shard (picked by a hash of the page number), so fetches of pages in different shards
+     * do not contend. Pages are only evicted to make room in their own shard.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicies creates the eviction policy of each shard
+     * @param numShards number of shards, between 1 and bufferSize
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, Supplier<EvictionPolicy> evictionPolicies, int numShards) {
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicies, numShards, false);
+    }
+
+    /**
+     * Creates a new buffer manager, with the buffer split into shards. Each shard has its own
+     * share of the frames, eviction policy and lock, and each page is always loaded into the
+     * same shard (picked by a hash of the page number), so fetches of pages in different shards
+     * do not contend. Pages are only evicted to make room in their own shard.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicies creates the eviction policy of each shard
+     * @param numShards number of shards, between 1 and bufferSize
+     * @param offHeap whether to keep the pages in direct buffers outside the Java heap, which
+     *                are allocated up front and only released once the buffer manager is
+     *                garbage collected
+     */
+    public BufferManager(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                         int bufferSize, Supplier<EvictionPolicy> evictionPolicies, int numShards,
+                         boolean offHeap) {
+        if (numShards < 1 || numShards > bufferSize) {
+            throw new IllegalArgumentException("number of shards must be between 1 and the buffer size");
+        }
+        this.pageSize = diskSpaceManager.getPageSize();
+        this.effectivePageSize = this.pageSize - RESERVED_SPACE;
+        ByteBuffer[] buffers = this.allocateBuffers(bufferSize, offHeap);
+        this.shards = new Shard[numShards];
+        for (int i = 0, first = 0; i < numShards; ++i) {
+            // spread the frames as evenly as possible
+            int numFrames = bufferSize / numShards + (i < bufferSize % numShards ? 1 : 0);
+            this.shards[i] = new Shard(Arrays.copyOfRange(buffers, first, first + numFrames), evictionPolicies.get());
+            first += numFrames;
         }
-        this.firstFreeIndex = 0;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
-        this.managerLock = new ReentrantLock();
-        this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
     }
 
+    /**
+     * Allocates the buffers of the frames. Off the heap, the buffers are slices of direct
+     * buffers of up to MAX_ARENA_SIZE bytes each, rather than one direct buffer each, since
+     * direct buffers are expensive to allocate and release.
+     *
+     * @param numFrames number of frames
+     * @param offHeap whether to allocate the buffers outside the Java heap
+     * @return page-sized buffer of each frame
+     */
+    private ByteBuffer[] allocateBuffers(int numFrames, boolean offHeap) {
+        ByteBuffer[] buffers = new ByteBuffer[numFrames];
+        if (!offHeap) {
+            for (int i = 0; i < numFrames; ++i) {
+                buffers[i] = ByteBuffer.wrap(new byte[this.pageSize]);
+            }
+            return buffers;
+        }
+        int framesPerArena = MAX_ARENA_SIZE / this.pageSize;
+        ByteBuffer arena = null;
+        for (int i = 0; i < numFrames; ++i) {
+            int arenaIndex = i % framesPerArena;
+            if (arenaIndex == 0) {
+                arena = ByteBuffer.allocateDirect(Math.min(framesPerArena, numFrames - i) * this.pageSize);
+            }
+            arena.limit((arenaIndex + 1) * this.pageSize);
+            arena.position(arenaIndex * this.pageSize);
+            buffers[i] = arena.slice();
+        }
+        return buffers;
+    }
+
+    /**
+     * @param pageNum page number
+     * @return the shard the page is loaded into
+     */
+    private Shard shardOf(long pageNum) {
+        if (this.shards.length == 1) {
+            return this.shards[0];
+        }
+        // page numbers of a partition are consecutive, which the multiplication spreads out
+        return this.shards[Math.floorMod(Long.hashCode(pageNum * 0x9E3779B97F4A7C15L), this.shards.length)];
+    }
+
+    /**
+     * @return the frames of all shards
+     */
+    private List<Frame> allFrames() {
+        List<Frame> frames = new ArrayList<>();
+        for (Shard shard : this.shards) {
+            frames.addAll(Arrays.asList(shard.frames));
+        }
+        return frames;
+    }
+
     @Override
     public void close() {
-        this.managerLock.lock();
-        try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
-                try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
-                    if (!frame.isValid()) {
-                        continue;
+        this.warmUpCancelled = true;
+        if (this.warmUpExecutor != null) {
+            // not interrupted, since interrupting a read closes the underlying file channel
+            this.warmUpExecutor.shutdown();
+            try {
+                this.warmUpExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.backgroundWriter != null) {
+            // not interrupted, since interrupting a write closes the underlying file channel
+            this.backgroundWriter.shutdown();
+            try {
+                this.backgroundWriter.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.readAheadExecutor != null) {
+            this.readAheadExecutor.shutdownNow();
+            try {
+                this.readAheadExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        this.flushFrames(this.allFrames());
+        for (Shard shard : this.shards) {
+            shard.managerLock.lock();
+            try {
+                for (Frame frame : shard.frames) {
+                    frame.frameLock.lock();
+                    try {
+                        if (frame.isPinned()) {
+                            throw new IllegalStateException("closing buffer manager but frame still pinned");
+                        }
+                        if (!frame.isValid()) {
+                            continue;
+                        }
+                        shard.evictionPolicy.cleanup(frame);
+                        frame.invalidate();
+                    } finally {
+                        frame.frameLock.unlock();
                     }
-                    evictionPolicy.cleanup(frame);
-                    frame.invalidate();
-                } finally {
-                    frame.frameLock.unlock();
                 }
+            } finally {
+                shard.managerLock.unlock();
             }
-        } finally {
-            this.managerLock.unlock();
         }
+        this.diskSpaceManager.sync();
+    }
+
+    /**
+     * @return number of frames in the buffer
+     */
+    public int getNumFrames() {
+        int numFrames = 0;
+        for (Shard shard : this.shards) {
+            numFrames += shard.frames.length;
+        }
+        return numFrames;
+    }
+
+    /**
+     * @return size of pages in bytes
+     */
+    public int getPageSize() {
+        return this.pageSize;
+    }
+
+    /**
+     * @return size of the part of each (non-log) page available to users of the buffer manager
+     */
+    public int getEffectivePageSize() {
+        return this.effectivePageSize;
     }
 
     /**
@@ -395,58 +787,621 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame with specified page loaded
      */
     Frame fetchPageFrame(long pageNum) {
-        this.managerLock.lock();
-        Frame newFrame;
-        Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
+        return this.fetchPageFrame(pageNum, AccessHint.NORMAL);
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page, as fetchPageFrame(long) does,
+     * loading it into the ring of frames of the access hint if it is not loaded yet. Cannot be
+     * used outside the package.
+     *
+     * @param pageNum page number
+     * @param hint    how the page is going to be used
+     * @return buffer frame with specified page loaded
+     */
+    Frame fetchPageFrame(long pageNum, AccessHint hint) {
+        return this.fetchPageFrame(pageNum, hint, LoadMode.FETCH);
+    }
+
+    /**
+     * Why a page is being loaded into the buffer.
+     */
+    private enum LoadMode {
+        // the page is fetched, and returned pinned
+        FETCH,
+        // the page is read ahead, and is loaded unless too many prefetched pages are waiting
+        // to be fetched
+        PREFETCH,
+        // the page is reloaded after a restart, and is only loaded into a free frame
+        WARM_UP
+    }
+
+    /**
+     * Fetches a buffer frame with data for the specified page. When prefetching or warming
+     * up, nothing is done if the page is already loaded or if it would take up a frame needed
+     * for something else (see LoadMode), and the frame is returned unpinned (or null if
+     * nothing was loaded).
+     *
+     * @param pageNum page number
+     * @param hint    how the page is going to be used
+     * @param mode    why the page is being loaded
+     * @return buffer frame with specified page loaded
+     */
+    private Frame fetchPageFrame(long pageNum, AccessHint hint, LoadMode mode) {
+        // whether the last attempt found no frame it could evict without waiting
+        boolean noFrame = false;
+        while (true) {
+            if (noFrame) {
+                Thread.yield();
+            }
+            if (mode == LoadMode.FETCH) {
+                Frame frame = this.pinLoadedFrame(pageNum);
+                if (frame != null) {
+                    return frame;
+                }
+            }
+            Shard shard = this.shardOf(pageNum);
+            shard.managerLock.lock();
+            Frame newFrame;
+            Frame evictedFrame;
+            // whether evictedFrame holds a page (rather than being a free frame)
+            boolean evicting = false;
+            // figure out what frame to load data to, and update manager state
+            try {
+                if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+                    throw new PageException("page " + pageNum + " not allocated");
+                }
+                int loadedIndex = shard.pageToFrame.get(pageNum);
+                if (loadedIndex >= 0) {
+                    if (mode != LoadMode.FETCH) {
+                        return null;
+                    }
+                    newFrame = shard.frames[loadedIndex];
+                    // pinned frames stay locked, and must not be waited for while holding the
+                    // manager lock: if the frame is locked, it is pinned from the top instead
+                    if (!newFrame.frameLock.tryLock()) {
+                        noFrame = false;
+                        continue;
+                    }
+                    try {
+                        newFrame.pin();
+                    } finally {
+                        newFrame.frameLock.unlock();
+                    }
+                    this.record(BufferMetrics::recordHit);
+                    this.prefetchedFrameFetched(newFrame);
+                    return newFrame;
+                }
+                if (mode == LoadMode.PREFETCH && shard.numPrefetchedFrames.get() >= shard.frames.length / 4) {
+                    return null;
+                }
+                if (mode == LoadMode.WARM_UP && shard.firstFreeIndex >= shard.frames.length) {
+                    return null;
+                }
+                Ring ring = shard.rings[hint.ordinal()];
+                // prioritize free frames over eviction, and the ring over the eviction policy
+                if (shard.firstFreeIndex < shard.frames.length) {
+                    evictedFrame = shard.frames[shard.firstFreeIndex];
+                    evictedFrame.setUsed();
+                    evictedFrame.frameLock.lock();
+                } else {
+                    evictedFrame = ring == null ? null : this.lockRingFrame(ring);
+                    // frames are pinned without the manager lock, so the frame picked may have
+                    // been pinned in the meantime, in which case another frame is picked; if
+                    // none can be locked right away, the manager lock is released before
+                    // trying again
+                    for (int i = 0; evictedFrame == null && i < shard.frames.length; ++i) {
+                        evictedFrame = (Frame) shard.evictionPolicy.evict(shard.frames);
+                        if (!this.tryLockUnpinnedFrame(evictedFrame)) {
+                            evictedFrame = null;
+                        }
+                    }
+                    if (evictedFrame == null) {
+                        noFrame = true;
+                        continue;
+                    }
+                    shard.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
+                    shard.evictionPolicy.cleanup(evictedFrame);
+                    this.prefetchedFrameRemoved(evictedFrame);
+                    evicting = true;
+                }
+                int frameIndex = evictedFrame.index;
+                newFrame = shard.frames[frameIndex] = new Frame(shard, evictedFrame.contents, frameIndex, pageNum);
+                shard.evictionPolicy.init(newFrame);
+                if (ring != null) {
+                    ring.add(newFrame);
+                }
+                if (mode == LoadMode.PREFETCH) {
+                    newFrame.prefetched.set(true);
+                    shard.numPrefetchedFrames.incrementAndGet();
+                }
+
+                newFrame.frameLock.lock();
+
+                shard.pageToFrame.put(pageNum, frameIndex);
+            } finally {
+                shard.managerLock.unlock();
             }
-            if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
+            // flush evicted frame
+            try {
+                if (evicting) {
+                    this.record(evictedFrame.dirty ? BufferMetrics::recordDirtyEviction : BufferMetrics::recordCleanEviction);
+                }
+                evictedFrame.invalidate();
+            } finally {
+                evictedFrame.frameLock.unlock();
+            }
+            // read new page into frame
+            try {
+                newFrame.pageNum = pageNum;
                 newFrame.pin();
+                if (mode == LoadMode.FETCH) {
+                    this.record(BufferMetrics::recordMiss);
+                }
+                long start = System.nanoTime();
+                BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
+                this.record(BufferMetrics::recordRead, System.nanoTime() - start);
+                if (mode != LoadMode.FETCH) {
+                    newFrame.unpin();
+                }
                 return newFrame;
+            } catch (PageException e) {
+                newFrame.unpin();
+                throw e;
+            } finally {
+                newFrame.frameLock.unlock();
             }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
-            }
-            int frameIndex = evictedFrame.index;
-            newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum);
-            evictionPolicy.init(newFrame);
-
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
+        }
+    }
 
-            this.pageToFrame.put(pageNum, frameIndex);
-        } finally {
-            this.managerLock.unlock();
+    /**
+     * Pins the frame of a page that is already loaded, without taking the manager lock. Only
+     * the lock of the frame itself is taken (and kept while the frame is pinned, as usual).
+     * The page table may be out of date by the time the frame is locked (the page may have
+     * been evicted, and the frame reused), so the frame is checked once it is locked.
+     *
+     * @param pageNum page number
+     * @return pinned frame of the page, or null if the page is not loaded
+     */
+    private Frame pinLoadedFrame(long pageNum) {
+        Shard shard = this.shardOf(pageNum);
+        int frameIndex = shard.pageToFrame.get(pageNum);
+        if (frameIndex < 0) {
+            return null;
         }
-        // flush evicted frame
+        Frame frame = shard.frames[frameIndex];
+        frame.lockForPin();
         try {
-            evictedFrame.invalidate();
+            if (!frame.isValid() || frame.pageNum != pageNum) {
+                return null;
+            }
+            frame.pin();
+            this.record(BufferMetrics::recordHit);
+            this.prefetchedFrameFetched(frame);
+            return frame;
         } finally {
-            evictedFrame.frameLock.unlock();
+            frame.frameLock.unlock();
+        }
+    }
+
+    /**
+     * Locks the frame of the page the ring loaded the longest time ago, so that it can be
+     * reused, if the frame still holds that page and is not pinned. Must be called while
+     * holding the lock of the ring's shard.
+     *
+     * @param ring ring of frames
+     * @return the locked frame, or null if it cannot be reused
+     */
+    private Frame lockRingFrame(Ring ring) {
+        Frame frame = ring.oldest();
+        // the Frame object of a page is invalidated when the page is evicted or freed, and
+        // never becomes valid again
+        if (frame == null || !frame.isValid() || !this.tryLockUnpinnedFrame(frame)) {
+            return null;
+        }
+        if (!frame.isValid()) {
+            frame.frameLock.unlock();
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * Locks a frame unless it is pinned. Pinned frames stay locked until they are unpinned,
+     * and whoever pinned one may be waiting for the manager lock, so frames must not be waited
+     * for while holding the manager lock unless they are known to be unpinned (frames locked
+     * only briefly, e.g. while being flushed, are waited for).
+     *
+     * @param frame frame to lock
+     * @return whether the frame was locked; false if the frame is pinned
+     */
+    private boolean lockUnpinnedFrame(Frame frame) {
+        while (true) {
+            if (frame.frameLock.tryLock()) {
+                if (!frame.isPinned()) {
+                    return true;
+                }
+                frame.frameLock.unlock();
+                return false;
+            }
+            if (frame.isPinned()) {
+                return false;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Locks a frame if it is neither pinned nor locked by another thread, without waiting for
+     * it, so that it can be used while holding the manager lock on frames that may be locked.
+     *
+     * @param frame frame to lock
+     * @return whether the frame was locked
+     */
+    private boolean tryLockUnpinnedFrame(Frame frame) {
+        if (!frame.frameLock.tryLock()) {
+            return false;
+        }
+        if (!frame.isPinned()) {
+            return true;
+        }
+        frame.frameLock.unlock();
+        return false;
+    }
+
+    /**
+     * Updates read-ahead bookkeeping for a frame whose page was just fetched. Does not need
+     * the lock of the frame's shard: only the fetch that clears the prefetched flag counts
+     * as a prefetch hit.
+     *
+     * @param frame frame fetched
+     */
+    private void prefetchedFrameFetched(Frame frame) {
+        if (frame.prefetched.compareAndSet(true, false)) {
+            frame.shard.numPrefetchedFrames.decrementAndGet();
+            this.metrics.recordPrefetchHit();
+            this.readAheadWindow = Math.min(MAX_READ_AHEAD_WINDOW, this.readAheadWindow + 1);
+        }
+    }
+
+    /**
+     * Updates read-ahead bookkeeping for a frame whose page is being removed from the
+     * buffer. Assumes that the lock of the frame's shard is held.
+     *
+     * @param frame frame being removed
+     */
+    private void prefetchedFrameRemoved(Frame frame) {
+        if (frame.prefetched.compareAndSet(true, false)) {
+            frame.shard.numPrefetchedFrames.decrementAndGet();
+            this.metrics.recordPrefetchWasted();
+            this.readAheadWindow = Math.max(MIN_READ_AHEAD_WINDOW, this.readAheadWindow / 2);
+        }
+    }
+
+    /**
+     * Enables asynchronous read-ahead. Until this is called, prefetch requests are ignored.
+     *
+     * @param numThreads number of I/O threads used to load prefetched pages
+     */
+    public void enableReadAhead(int numThreads) {
+        if (this.readAheadExecutor != null) {
+            return;
+        }
+        this.readAheadExecutor = Executors.newFixedThreadPool(numThreads, (Runnable r) -> {
+            Thread thread = new Thread(r, "read-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Asynchronously loads the given pages into the buffer, so that they are already in memory
+     * by the time they are fetched. Pages that are already loaded are skipped, and no more than a
+     * quarter of the buffer is used for prefetched pages that have not been fetched yet. Does
+     * nothing if read-ahead is not enabled.
+     *
+     * @param pageNums page numbers of pages that are about to be fetched, in order of use
+     */
+    public void prefetch(List<Long> pageNums) {
+        if (this.readAheadExecutor == null) {
+            return;
+        }
+        for (long pageNum : pageNums) {
+            if (!this.readAheadPending.add(pageNum)) {
+                continue;
+            }
+            try {
+                this.readAheadExecutor.execute(() -> {
+                    try {
+                        if (this.fetchPageFrame(pageNum, AccessHint.NORMAL, LoadMode.PREFETCH) != null) {
+                            this.metrics.recordPrefetch();
+                        }
+                    } catch (PageException | NoSuchElementException | IllegalStateException e) {
+                        // page or partition freed in the meantime, or everything is pinned:
+                        // read-ahead is only a hint, so just skip the page
+                    } finally {
+                        this.readAheadPending.remove(pageNum);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // buffer manager is closing
+                this.readAheadPending.remove(pageNum);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return number of pages callers scanning sequentially should ask to read ahead, or 0
+     * if read-ahead is disabled. The window grows while prefetched pages are used, and
+     * shrinks when they are evicted without being used.
+     */
+    public int getReadAheadWindow() {
+        return this.readAheadExecutor == null ? 0 : this.readAheadWindow;
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead
+     */
+    public long getNumPrefetches() {
+        return this.metrics.getPrefetches();
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead that were fetched before being evicted
+     */
+    public long getNumPrefetchHits() {
+        return this.metrics.getPrefetchHits();
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead that were evicted without being fetched
+     */
+    public long getNumPrefetchesWasted() {
+        return this.metrics.getPrefetchesWasted();
+    }
+
+    /**
+     * Enables the background writer, a thread that periodically flushes dirty pages so that
+     * at least the given fraction of the frames of each shard are clean (or free) and unpinned,
+     * and loading a page rarely has to wait for the page it evicts to be written out. Pages are
+     * flushed as they would be when evicted (the log is flushed up to their pageLSN first), in
+     * batches in order of page number, picking up where the previous round stopped. Log pages
+     * are left to the log manager.
+     *
+     * @param cleanFraction  fraction of the frames of each shard to keep clean, between 0 and 1
+     * @param intervalMillis time between rounds, in milliseconds
+     */
+    public void enableBackgroundWriter(double cleanFraction, long intervalMillis) {
+        if (cleanFraction <= 0 || cleanFraction > 1) {
+            throw new IllegalArgumentException("fraction of clean frames must be between 0 and 1");
+        }
+        if (this.backgroundWriter != null) {
+            return;
+        }
+        this.backgroundWriterCleanFraction = cleanFraction;
+        this.backgroundWriter = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "background-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.backgroundWriter.scheduleWithFixedDelay(() -> {
+            try {
+                this.runBackgroundWriter();
+            } catch (PageException | IllegalStateException e) {
+                // page or partition freed in the meantime: the next round starts over
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs one round of the background writer: flushes enough of the dirty, unpinned pages to
+     * bring every shard up to its target of clean frames, in order of page number starting
+     * from where the previous round stopped. Does nothing if the background writer is not
+     * enabled. Cannot be used outside the package (rounds normally run on the background
+     * writer's thread).
+     *
+     * @return number of pages written
+     */
+    synchronized int runBackgroundWriter() {
+        if (this.backgroundWriter == null) {
+            return 0;
+        }
+        List<Frame> candidates = new ArrayList<>();
+        int numToWrite = 0;
+        for (Shard shard : this.shards) {
+            int target = (int) Math.ceil(this.backgroundWriterCleanFraction * shard.frames.length);
+            int numClean = 0;
+            shard.managerLock.lock();
+            try {
+                for (Frame frame : shard.frames) {
+                    // pins and writes are not synchronized with the manager lock, so this is
+                    // only an estimate; flushFrames checks again with the frame locked
+                    if (!frame.isValid() || (!frame.dirty && !frame.isPinned())) {
+                        ++numClean;
+                    } else if (frame.dirty && !frame.isPinned() && !frame.logPage) {
+                        candidates.add(frame);
+                    }
+                }
+            } finally {
+                shard.managerLock.unlock();
+            }
+            numToWrite += Math.max(0, target - numClean);
+        }
+        this.numBackgroundWriterRounds.incrementAndGet();
+        numToWrite = Math.min(numToWrite, candidates.size());
+        if (numToWrite == 0) {
+            this.backgroundWriterBacklog = candidates.size();
+            return 0;
+        }
+
+        // sweep through the pages in order of page number, wrapping around
+        candidates.sort(Comparator.comparingLong((Frame frame) -> frame.pageNum));
+        int start = 0;
+        while (start < candidates.size() && candidates.get(start).pageNum < this.backgroundWriterNextPageNum) {
+            ++start;
+        }
+        List<Frame> batch = new ArrayList<>(numToWrite);
+        for (int i = 0; i < numToWrite; ++i) {
+            batch.add(candidates.get((start + i) % candidates.size()));
+        }
+        // write the batch in order of page number, so adjacent pages are written together
+        batch.sort(Comparator.comparingLong((Frame frame) -> frame.pageNum));
+        this.backgroundWriterNextPageNum = candidates.get((start + numToWrite - 1) % candidates.size()).pageNum + 1;
+
+        int numWritten = this.flushFrames(batch, false);
+        this.numBackgroundWrites.addAndGet(numWritten);
+        this.backgroundWriterBacklog = candidates.size() - numWritten;
+        return numWritten;
+    }
+
+    /**
+     * Saves the page numbers of the pages currently loaded (except log pages) to a file, most
+     * recently used first (by when they were last pinned), so that they can be reloaded by
+     * warmUp after a restart. The file is replaced atomically.
+     *
+     * @param file file to save the page numbers to
+     */
+    public void saveResidentPages(Path file) {
+        List<Frame> frames = new ArrayList<>();
+        for (Shard shard : this.shards) {
+            shard.managerLock.lock();
+            try {
+                for (Frame frame : shard.frames) {
+                    if (frame.isValid() && !frame.logPage) {
+                        frames.add(frame);
+                    }
+                }
+            } finally {
+                shard.managerLock.unlock();
+            }
+        }
+        // compared as differences, since System.nanoTime() may overflow
+        frames.sort((Frame a, Frame b) -> Long.signum(b.pinnedAt - a.pinnedAt));
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(frames.size());
+            for (Frame frame : frames) {
+                out.writeLong(frame.pageNum);
+            }
+        } catch (IOException e) {
+            throw new PageException("could not save resident pages: " + e.getMessage());
         }
-        // read new page into frame
         try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
-            BufferManager.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
-            return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
-            throw e;
-        } finally {
-            newFrame.frameLock.unlock();
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new PageException("could not save resident pages: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts reloading pages saved by saveResidentPages in the background, so that the buffer
+     * is warm soon after a restart. Up to maxPages of the most recently used pages are loaded,
+     * in order of page number (the order they are stored on disk in), and only into free
+     * frames: pages are never evicted to make room for them, and warming up stops once every
+     * frame is in use. Pages freed since they were saved are skipped. Does nothing if the file
+     * does not exist, or if warm-up was already started.
+     *
+     * @param file     file the page numbers were saved to
+     * @param maxPages maximum number of pages to load
+     */
+    public void warmUp(Path file, int maxPages) {
+        if (this.warmUpExecutor != null || !Files.exists(file)) {
+            return;
         }
+        List<Long> pageNums = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int numPages = Math.min(in.readInt(), maxPages);
+            for (int i = 0; i < numPages; ++i) {
+                pageNums.add(in.readLong());
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read resident pages: " + e.getMessage());
+        }
+        Collections.sort(pageNums);
+        this.warmUpExecutor = Executors.newSingleThreadExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "warm-up");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.warmUpExecutor.execute(() -> {
+            for (long pageNum : pageNums) {
+                if (this.warmUpCancelled || !this.hasFreeFrames()) {
+                    return;
+                }
+                try {
+                    if (this.fetchPageFrame(pageNum, AccessHint.NORMAL, LoadMode.WARM_UP) != null) {
+                        this.numWarmUpLoads.incrementAndGet();
+                    }
+                } catch (PageException | NoSuchElementException | IllegalStateException e) {
+                    // page or partition freed since the pages were saved: skip the page
+                }
+            }
+        });
+        this.warmUpExecutor.shutdown();
+    }
+
+    /**
+     * Stops warming up, leaving the pages already reloaded in the buffer.
+     */
+    public void cancelWarmUp() {
+        this.warmUpCancelled = true;
+    }
+
+    /**
+     * @return whether warm-up was started and has not finished yet
+     */
+    public boolean isWarmingUp() {
+        return this.warmUpExecutor != null && !this.warmUpExecutor.isTerminated();
+    }
+
+    /**
+     * @return number of pages reloaded by warm-up
+     */
+    public long getNumWarmUpLoads() {
+        return this.numWarmUpLoads.get();
+    }
+
+    /**
+     * @return whether any shard has a free frame. Read without the locks of the shards, so
+     * this is only an estimate.
+     */
+    private boolean hasFreeFrames() {
+        for (Shard shard : this.shards) {
+            if (shard.firstFreeIndex < shard.frames.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of rounds the background writer has run
+     */
+    public long getNumBackgroundWriterRounds() {
+        return this.numBackgroundWriterRounds.get();
+    }
+
+    /**
+     * @return number of pages written by the background writer
+     */
+    public long getNumBackgroundWrites() {
+        return this.numBackgroundWrites.get();
+    }
+
+    /**
+     * @return number of dirty, unpinned pages the background writer left unwritten in its last
+     * round
+     */
+    public int getBackgroundWriterBacklog() {
+        return this.backgroundWriterBacklog;
+    }
+
+    /**
+     * @return number of dirty pages that were written out when evicted to load another page
+     */
+    public long getNumDirtyEvictions() {
+        return this.metrics.getDirtyEvictions();
     }
 
     /**
@@ -457,7 +1412,20 @@ public class BufferManager implements AutoCloseable {
      * @return specified page
      */
     public Page fetchPage(LockContext parentContext, long pageNum) {
-        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum));
+        return this.fetchPage(parentContext, pageNum, AccessHint.NORMAL);
+    }
+
+    /**
+     * Fetches the specified page, with a loaded and pinned buffer frame. If the page is not
+     * loaded, it is loaded into the ring of frames of the access hint (see AccessHint).
+     *
+     * @param parentContext lock context of the **parent** of the page being fetched
+     * @param pageNum       page number
+     * @param hint          how the page is going to be used
+     * @return specified page
+     */
+    public Page fetchPage(LockContext parentContext, long pageNum, AccessHint hint) {
+        return this.frameToPage(parentContext, pageNum, this.fetchPageFrame(pageNum, hint));
     }
 
     /**
@@ -467,13 +1435,23 @@ public class BufferManager implements AutoCloseable {
      * @return buffer frame for the new page
      */
     Frame fetchNewPageFrame(int partNum) {
+        return this.fetchNewPageFrame(partNum, AccessHint.NORMAL);
+    }
+
+    /**
+     * Fetches a buffer frame for a new page in the ring of frames of the access hint. Pins the
+     * buffer frame. Cannot be used outside the package.
+     *
+     * @param partNum partition number for new page
+     * @param hint    how the page is going to be used
+     * @return buffer frame for the new page
+     */
+    Frame fetchNewPageFrame(int partNum, AccessHint hint) {
+        // the new page is only known to this thread, so no other thread can load it meanwhile;
+        // fetchPageFrame takes the shard lock itself, and must not be called holding it, as it
+        // waits for frames that may be locked by a flush that needs the shard lock
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum);
-        } finally {
-            this.managerLock.unlock();
-        }
+        return fetchPageFrame(pageNum, hint);
     }
 
     /**
@@ -484,7 +1462,20 @@ public class BufferManager implements AutoCloseable {
      * @return the new page
      */
     public Page fetchNewPage(LockContext parentContext, int partNum) {
-        Frame newFrame = this.fetchNewPageFrame(partNum);
+        return this.fetchNewPage(parentContext, partNum, AccessHint.NORMAL);
+    }
+
+    /**
+     * Fetches a new page, with a loaded and pinned buffer frame in the ring of frames of the
+     * access hint (see AccessHint).
+     *
+     * @param parentContext parent lock context of the new page
+     * @param partNum       partition number for new page
+     * @param hint          how the page is going to be used
+     * @return the new page
+     */
+    public Page fetchNewPage(LockContext parentContext, int partNum, AccessHint hint) {
+        Frame newFrame = this.fetchNewPageFrame(partNum, hint);
         return this.frameToPage(parentContext, newFrame.getPageNum(), newFrame);
     }
 
@@ -496,21 +1487,26 @@ public class BufferManager implements AutoCloseable {
      * @param page page to free
      */
     public void freePage(Page page) {
-        this.managerLock.lock();
+        Shard shard = this.shardOf(page.getPageNum());
+        shard.managerLock.lock();
         try {
             TransactionContext transaction = TransactionContext.getTransaction();
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
+            int frameIndex = shard.pageToFrame.get(page.getPageNum());
+            if (frameIndex < 0) {
+                throw new NoSuchElementException("page " + page.getPageNum() + " is not loaded");
+            }
 
-            Frame frame = this.frames[frameIndex];
+            Frame frame = shard.frames[frameIndex];
             if (transaction != null) page.flush();
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
-            evictionPolicy.cleanup(frame);
+            shard.pageToFrame.remove(page.getPageNum(), frameIndex);
+            shard.evictionPolicy.cleanup(frame);
+            this.prefetchedFrameRemoved(frame);
             frame.setFree();
 
-            this.frames[frameIndex] = new Frame(frame);
+            shard.frames[frameIndex] = new Frame(frame);
             diskSpaceManager.freePage(page.getPageNum());
         } finally {
-            this.managerLock.unlock();
+            shard.managerLock.unlock();
         }
     }
 
@@ -522,23 +1518,26 @@ public class BufferManager implements AutoCloseable {
      * @param partNum partition number to free
      */
     public void freePart(int partNum) {
-        this.managerLock.lock();
-        try {
-            for (int i = 0; i < frames.length; ++i) {
-                Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
-                    evictionPolicy.cleanup(frame);
-                    frame.flush();
-                    frame.setFree();
-                    frames[i] = new Frame(frame);
+        for (Shard shard : this.shards) {
+            shard.managerLock.lock();
+            try {
+                Frame[] frames = shard.frames;
+                for (int i = 0; i < frames.length; ++i) {
+                    Frame frame = frames[i];
+                    if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                        shard.pageToFrame.remove(frame.getPageNum(), i);
+                        shard.evictionPolicy.cleanup(frame);
+                        this.prefetchedFrameRemoved(frame);
+                        frame.flush();
+                        frame.setFree();
+                        frames[i] = new Frame(frame);
+                    }
                 }
+            } finally {
+                shard.managerLock.unlock();
             }
-
-            diskSpaceManager.freePart(partNum);
-        } finally {
-            this.managerLock.unlock();
         }
+        diskSpaceManager.freePart(partNum);
     }
 
     /**
@@ -547,27 +1546,32 @@ public class BufferManager implements AutoCloseable {
      * @param pageNum page number of page to evict
      */
     public void evict(long pageNum) {
-        managerLock.lock();
+        Shard shard = this.shardOf(pageNum);
+        shard.managerLock.lock();
         try {
-            if (!pageToFrame.containsKey(pageNum)) {
+            int frameIndex = shard.pageToFrame.get(pageNum);
+            if (frameIndex < 0) {
                 return;
             }
-            evict(pageToFrame.get(pageNum));
+            evict(shard, frameIndex);
         } finally {
-            managerLock.unlock();
+            shard.managerLock.unlock();
         }
     }
 
-    private void evict(int i) {
-        Frame frame = frames[i];
-        frame.frameLock.lock();
+    private void evict(Shard shard, int i) {
+        Frame frame = shard.frames[i];
+        if (!this.lockUnpinnedFrame(frame)) {
+            return;
+        }
         try {
-            if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
+            if (frame.isValid()) {
+                shard.pageToFrame.remove(frame.pageNum, frame.index);
+                shard.evictionPolicy.cleanup(frame);
+                this.prefetchedFrameRemoved(frame);
 
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex);
-                this.firstFreeIndex = i;
+                shard.frames[i] = new Frame(shard, frame.contents, shard.firstFreeIndex);
+                shard.firstFreeIndex = i;
 
                 frame.invalidate();
             }
@@ -577,12 +1581,117 @@ public class BufferManager implements AutoCloseable {
     }
 
     /**
-     * Calls evict on every frame in sequence.
+     * Calls evict on every frame in sequence. Dirty pages are first flushed together,
+     * so that pages stored next to each other on disk are written with one I/O request.
      */
     public void evictAll() {
-        for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+        this.flushFrames(this.allFrames());
+        for (Shard shard : this.shards) {
+            for (int i = 0; i < shard.frames.length; ++i) {
+                shard.managerLock.lock();
+                try {
+                    evict(shard, i);
+                } finally {
+                    shard.managerLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the given pages to disk (if they are loaded and dirty) as a single batch, so that
+     * pages stored next to each other on disk are written with one I/O request. Does not unload
+     * the pages.
+     *
+     * @param pageNums page numbers of pages to flush
+     */
+    public void flushPages(Collection<Long> pageNums) {
+        List<Frame> frames = new ArrayList<>();
+        for (long pageNum : pageNums) {
+            Shard shard = this.shardOf(pageNum);
+            shard.managerLock.lock();
+            try {
+                int frameIndex = shard.pageToFrame.get(pageNum);
+                if (frameIndex >= 0) {
+                    frames.add(shard.frames[frameIndex]);
+                }
+            } finally {
+                shard.managerLock.unlock();
+            }
+        }
+        this.flushFrames(frames);
+    }
+
+    /**
+     * Flushes the dirty frames among the given frames with a single batched write. Frames
+     * locked by another thread are not waited for while holding the locks of the rest of the
+     * batch (which could deadlock); they are flushed one at a time afterwards instead.
+     *
+     * @param frames frames to flush
+     */
+    private void flushFrames(List<Frame> frames) {
+        this.flushFrames(frames, true);
+    }
+
+    /**
+     * Flushes the dirty frames among the given frames with a single batched write.
+     *
+     * @param frames      frames to flush
+     * @param waitForBusy whether to flush frames locked (e.g. pinned) by another thread one at
+     *                    a time after the batch, waiting for them to be unlocked, or skip them
+     * @return number of frames written in the batch
+     */
+    private int flushFrames(List<Frame> frames, boolean waitForBusy) {
+        int numWritten = 0;
+        List<Frame> locked = new ArrayList<>();
+        List<Frame> busy = new ArrayList<>();
+        try {
+            List<Frame> dirty = new ArrayList<>();
+            long maxPageLSN = -1L;
+            for (Frame frame : frames) {
+                if (!frame.frameLock.tryLock()) {
+                    busy.add(frame);
+                    continue;
+                }
+                locked.add(frame);
+                if (frame.isValid() && frame.dirty) {
+                    dirty.add(frame);
+                    if (!frame.logPage) {
+                        maxPageLSN = Math.max(maxPageLSN, frame.getPageLSN());
+                    }
+                }
+            }
+            if (dirty.isEmpty()) {
+                return 0;
+            }
+            if (maxPageLSN >= 0) {
+                recoveryManager.pageFlushHook(maxPageLSN);
+            }
+            long[] pageNums = new long[dirty.size()];
+            ByteBuffer[] contents = new ByteBuffer[dirty.size()];
+            for (int i = 0; i < dirty.size(); ++i) {
+                pageNums[i] = dirty.get(i).pageNum;
+                contents[i] = dirty.get(i).contents;
+            }
+            long start = System.nanoTime();
+            this.diskSpaceManager.writePages(pageNums, contents);
+            this.record(BufferMetrics::recordWrite, System.nanoTime() - start);
+            this.record(BufferMetrics::recordPagesWritten, dirty.size());
+            for (Frame frame : dirty) {
+                frame.dirty = false;
+            }
+            numWritten = dirty.size();
+        } finally {
+            for (Frame frame : locked) {
+                frame.frameLock.unlock();
+            }
         }
+        if (waitForBusy) {
+            for (Frame frame : busy) {
+                frame.flush();
+            }
+        }
+        return numWritten;
     }
 
     /**
@@ -592,7 +1701,7 @@ public class BufferManager implements AutoCloseable {
      *                (has an unflushed change).
      */
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
-        for (Frame frame : frames) {
+        for (Frame frame : this.allFrames()) {
             frame.frameLock.lock();
             try {
                 if (frame.isValid()) {
@@ -611,22 +1720,61 @@ public class BufferManager implements AutoCloseable {
      * @return number of I/Os
      */
     public long getNumIOs() {
-        return numIOs;
+        return this.metrics.getPagesRead() + this.metrics.getPagesWritten();
     }
 
-    public static boolean logIOs;
-    private void incrementIOs() {
-        if (logIOs) {
-            System.out.println("IO incurred");
-            StackTraceElement[] trace = Thread.currentThread().getStackTrace();
-            for (int i = 0; i < trace.length; i++) {
-                String s = trace[i].toString();
-                if (s.startsWith("edu")) {
-                    System.out.println(s);
+    /**
+     * @return counters of activity across the whole buffer manager
+     */
+    public BufferMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * @return number of loaded pages of each partition that has any, by partition number
+     */
+    public Map<Integer, Integer> getPartitionResidency() {
+        Map<Integer, Integer> residency = new TreeMap<>();
+        for (Shard shard : this.shards) {
+            shard.managerLock.lock();
+            try {
+                for (Frame frame : shard.frames) {
+                    if (frame.isValid()) {
+                        residency.merge(DiskSpaceManager.getPartNum(frame.pageNum), 1, Integer::sum);
+                    }
                 }
+            } finally {
+                shard.managerLock.unlock();
             }
         }
-        ++numIOs;
+        return residency;
+    }
+
+    /**
+     * Records an event in the global counters, and in the counters of the transaction running
+     * on the current thread if there is one.
+     * @param event method of BufferMetrics recording the event
+     */
+    private void record(Consumer<BufferMetrics> event) {
+        event.accept(this.metrics);
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            event.accept(transaction.getBufferMetrics());
+        }
+    }
+
+    /**
+     * Records an event with a value (e.g. a latency) in the global counters, and in the
+     * counters of the transaction running on the current thread if there is one.
+     * @param event method of BufferMetrics recording the event
+     * @param value value of the event
+     */
+    private void record(ObjLongConsumer<BufferMetrics> event, long value) {
+        event.accept(this.metrics, value);
+        TransactionContext transaction = TransactionContext.getTransaction();
+        if (transaction != null) {
+            event.accept(transaction.getBufferMetrics(), value);
+        }
     }
 
     /**
@@ -0,0 +1,293 @@
+package io.github.yeyuhl.database.memory;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of buffer manager activity, either across the whole buffer manager or for a single
+ * transaction. Counters are LongAdders, so recording an event from many threads at once does
+ * not contend on a single memory location, and the counters can stay on at all times; reading
+ * them is comparatively slow, and not atomic across counters.
+ *
+ * A hit is a fetch of a page that is already loaded, and a miss is a fetch that has to load
+ * the page. Evictions only count pages evicted to make room for another page, and are clean
+ * or dirty depending on whether the evicted page had to be written out first. A pin wait is a
+ * pin that had to wait for another thread to unpin the frame, and pin durations are measured
+ * from the first pin of a frame to its last unpin. Page reads and writes count every page
+ * transferred, while their latencies count a batch of pages written together once. Read-ahead
+ * is only counted globally.
+ */
+public class BufferMetrics {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder cleanEvictions = new LongAdder();
+    private final LongAdder dirtyEvictions = new LongAdder();
+    private final LongAdder pins = new LongAdder();
+    private final LongAdder pinWaits = new LongAdder();
+    private final LongAdder pinNanos = new LongAdder();
+    private final LongAdder prefetches = new LongAdder();
+    private final LongAdder prefetchHits = new LongAdder();
+    private final LongAdder prefetchesWasted = new LongAdder();
+    private final LongAdder pagesRead = new LongAdder();
+    private final LongAdder pagesWritten = new LongAdder();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    void recordHit() {
+        this.hits.increment();
+    }
+
+    void recordMiss() {
+        this.misses.increment();
+    }
+
+    void recordCleanEviction() {
+        this.cleanEvictions.increment();
+    }
+
+    void recordDirtyEviction() {
+        this.dirtyEvictions.increment();
+    }
+
+    void recordPinWait() {
+        this.pinWaits.increment();
+    }
+
+    void recordPin(long nanos) {
+        this.pins.increment();
+        this.pinNanos.add(nanos);
+    }
+
+    void recordPrefetch() {
+        this.prefetches.increment();
+    }
+
+    void recordPrefetchHit() {
+        this.prefetchHits.increment();
+    }
+
+    void recordPrefetchWasted() {
+        this.prefetchesWasted.increment();
+    }
+
+    void recordRead(long nanos) {
+        this.pagesRead.increment();
+        this.readLatency.record(nanos);
+    }
+
+    void recordPagesWritten(long numPages) {
+        this.pagesWritten.add(numPages);
+    }
+
+    void recordWrite(long nanos) {
+        this.writeLatency.record(nanos);
+    }
+
+    /**
+     * @return number of fetches of pages that were already loaded
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return number of fetches of pages that had to be loaded
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return fraction of fetches that were hits, or 0 if there were no fetches
+     */
+    public double getHitRatio() {
+        long hits = this.getHits();
+        long fetches = hits + this.getMisses();
+        return fetches == 0 ? 0 : (double) hits / fetches;
+    }
+
+    /**
+     * @return number of clean pages evicted to load another page
+     */
+    public long getCleanEvictions() {
+        return this.cleanEvictions.sum();
+    }
+
+    /**
+     * @return number of dirty pages evicted (and written out) to load another page
+     */
+    public long getDirtyEvictions() {
+        return this.dirtyEvictions.sum();
+    }
+
+    /**
+     * @return number of times a frame was pinned and then unpinned again
+     */
+    public long getPins() {
+        return this.pins.sum();
+    }
+
+    /**
+     * @return number of pins that had to wait for another thread to unpin the frame
+     */
+    public long getPinWaits() {
+        return this.pinWaits.sum();
+    }
+
+    /**
+     * @return average time a frame was kept pinned, in microseconds, or 0 if nothing was pinned
+     */
+    public double getAveragePinMicros() {
+        long pins = this.getPins();
+        return pins == 0 ? 0 : this.pinNanos.sum() / 1000.0 / pins;
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead
+     */
+    public long getPrefetches() {
+        return this.prefetches.sum();
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead that were fetched before being evicted
+     */
+    public long getPrefetchHits() {
+        return this.prefetchHits.sum();
+    }
+
+    /**
+     * @return number of pages loaded by read-ahead that were evicted without being fetched
+     */
+    public long getPrefetchesWasted() {
+        return this.prefetchesWasted.sum();
+    }
+
+    /**
+     * @return number of pages read from disk
+     */
+    public long getPagesRead() {
+        return this.pagesRead.sum();
+    }
+
+    /**
+     * @return number of pages written to disk
+     */
+    public long getPagesWritten() {
+        return this.pagesWritten.sum();
+    }
+
+    /**
+     * @return latencies of page reads
+     */
+    public LatencyHistogram getReadLatency() {
+        return this.readLatency;
+    }
+
+    /**
+     * @return latencies of page writes (a batch of pages written together counts once)
+     */
+    public LatencyHistogram getWriteLatency() {
+        return this.writeLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d (hit ratio %.3f)\n" +
+                        "evictions: %d clean, %d dirty\n" +
+                        "pins: %d, pin waits: %d, average pin time: %.1f us\n" +
+                        "reads: %d pages, %s\n" +
+                        "writes: %d pages, %s\n" +
+                        "prefetches: %d, fetched: %d, wasted: %d",
+                this.getHits(), this.getMisses(), this.getHitRatio(),
+                this.getCleanEvictions(), this.getDirtyEvictions(),
+                this.getPins(), this.getPinWaits(), this.getAveragePinMicros(),
+                this.getPagesRead(), this.readLatency, this.getPagesWritten(), this.writeLatency,
+                this.getPrefetches(), this.getPrefetchHits(), this.getPrefetchesWasted());
+    }
+
+    /**
+     * Histogram of latencies, in buckets whose bounds are powers of two microseconds: bucket 0
+     * counts latencies under 1us, and bucket i > 0 latencies of at least 2^(i-1)us and under
+     * 2^i us. The last bucket also counts every longer latency.
+     */
+    public static class LatencyHistogram {
+        public static final int NUM_BUCKETS = 32;
+
+        private final LongAdder[] buckets = new LongAdder[NUM_BUCKETS];
+        private final LongAdder totalNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            int bucket = Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            this.buckets[bucket].increment();
+            this.totalNanos.add(nanos);
+        }
+
+        /**
+         * @return number of latencies recorded in each bucket
+         */
+        public long[] getBucketCounts() {
+            long[] counts = new long[NUM_BUCKETS];
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                counts[i] = this.buckets[i].sum();
+            }
+            return counts;
+        }
+
+        /**
+         * @return number of latencies recorded
+         */
+        public long getCount() {
+            long count = 0;
+            for (LongAdder bucket : this.buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @return average latency in microseconds, or 0 if nothing was recorded
+         */
+        public double getAverageMicros() {
+            long count = this.getCount();
+            return count == 0 ? 0 : this.totalNanos.sum() / 1000.0 / count;
+        }
+
+        /**
+         * @param percentile percentile, between 0 and 100
+         * @return upper bound (in microseconds) of the bucket holding the given percentile of
+         * the latencies recorded, or 0 if nothing was recorded
+         */
+        public long getPercentileMicros(double percentile) {
+            long[] counts = this.getBucketCounts();
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                seen += counts[i];
+                if (seen >= Math.max(1, rank)) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (NUM_BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d, average %.1f us, p50 < %d us, p99 < %d us", this.getCount(),
+                    this.getAverageMicros(), this.getPercentileMicros(50), this.getPercentileMicros(99));
+        }
+    }
+}
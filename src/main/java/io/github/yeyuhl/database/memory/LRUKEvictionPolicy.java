@@ -0,0 +1,159 @@
+package io.github.yeyuhl.database.memory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Implementation of the LRU-K eviction policy (LRU-2 by default), which evicts the page whose
+ * K-th most recent reference is the oldest. Pages referenced fewer than K times are evicted
+ * first (least recently referenced first), so a sequential scan, which references each page
+ * once, does not push frequently used pages out of the buffer.
+ *
+ * Hits are reported for every read of a frame, so a page read many times in a row (for
+ * example, every record of a page in a scan) would otherwise count as referenced many times.
+ * A hit therefore only counts as a new reference if at least correlatedReferencePeriod other
+ * pages have been loaded since the last reference to the page that was counted; other hits
+ * are correlated with that reference. The reference history of evicted pages is kept for as
+ * many pages as there are frames, so a page that is loaded again soon after being evicted
+ * keeps its history.
+ *
+ * Hits are reported without the buffer manager's lock, so every method of the policy
+ * synchronizes on it.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    // Default number of pages loaded between references to a page for them to be distinct
+    public static final int DEFAULT_CORRELATED_REFERENCE_PERIOD = 4;
+
+    private final int k;
+    private final int correlatedReferencePeriod;
+
+    // Number of references counted so far, used as the time of a reference
+    private long numReferences;
+
+    // Number of pages loaded so far, used to tell correlated references apart
+    private long numLoads;
+
+    // Reference history of recently evicted pages, in order of eviction
+    private LinkedHashMap<Long, History> evictedHistory;
+
+    // Number of frames, as of the last call to evict
+    private int numFrames;
+
+    // Reference history of a page, stored as the tag of its frame
+    private class History {
+        // Times of the last k references, most recent first; 0 if there was no such reference
+        long[] times = new long[k];
+        // Value of numLoads at the last reference
+        long lastLoad;
+
+        void reference() {
+            System.arraycopy(this.times, 0, this.times, 1, k - 1);
+            this.times[0] = ++numReferences;
+            this.lastLoad = numLoads;
+        }
+    }
+
+    public LRUKEvictionPolicy() {
+        this(2);
+    }
+
+    public LRUKEvictionPolicy(int k) {
+        this(k, DEFAULT_CORRELATED_REFERENCE_PERIOD);
+    }
+
+    /**
+     * @param k number of references to a page that are taken into account
+     * @param correlatedReferencePeriod number of other pages that must be loaded between two
+     *                                  hits on a page for them to count as separate references
+     */
+    public LRUKEvictionPolicy(int k, int correlatedReferencePeriod) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.correlatedReferencePeriod = correlatedReferencePeriod;
+        this.numReferences = 0;
+        this.numLoads = 0;
+        this.numFrames = 0;
+        this.evictedHistory = new LinkedHashMap<Long, History>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, History> eldest) {
+                return this.size() > Math.max(1, LRUKEvictionPolicy.this.numFrames);
+            }
+        };
+    }
+
+    /**
+     * Called to initialize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        ++this.numLoads;
+        History history = this.evictedHistory.remove(frame.getPageNum());
+        if (history == null) {
+            history = new History();
+        }
+        history.reference();
+        frame.tag = history;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (!(frame.tag instanceof History)) {
+            return;
+        }
+        History history = (History) frame.tag;
+        if (this.numLoads - history.lastLoad >= this.correlatedReferencePeriod) {
+            history.reference();
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        BufferFrame evicted = null;
+        History victimHistory = null;
+        for (BufferFrame frame : frames) {
+            if (frame.isPinned() || !(frame.tag instanceof History)) {
+                continue;
+            }
+            History history = (History) frame.tag;
+            // the oldest k-th most recent reference goes first (pages without k references
+            // have a time of 0), then the oldest most recent reference
+            if (evicted == null || history.times[k - 1] < victimHistory.times[k - 1] ||
+                    (history.times[k - 1] == victimHistory.times[k - 1] && history.times[0] < victimHistory.times[0])) {
+                evicted = frame;
+                victimHistory = history;
+            }
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag instanceof History) {
+            this.evictedHistory.put(frame.getPageNum(), (History) frame.tag);
+        }
+        frame.tag = null;
+    }
+}
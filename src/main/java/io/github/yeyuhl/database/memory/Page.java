@@ -56,6 +56,20 @@ public class Page {
         return new PageBuffer();
     }
 
+    /**
+     * Gets a read-only Buffer over the page for reading many values at once (e.g. decoding
+     * records or B+ tree nodes). The page must be pinned by the caller, and stay pinned while
+     * the buffer is in use: the lock on the page is checked once here, and reads through the
+     * buffer go straight to the buffer frame rather than locking and pinning the frame on
+     * every read like the buffer returned by getBuffer.
+     *
+     * @return read-only Buffer object over this page
+     */
+    public Buffer getReadOnlyBuffer() {
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
+        return this.frame.getReadOnlyBuffer();
+    }
+
     /**
      * Reads num bytes from offset position into buf.
      *
@@ -74,7 +88,7 @@ public class Page {
             throw new PageException("num bytes to read is longer than buffer");
         }
 
-        this.frame.readBytes((short) position, (short) num, buf);
+        this.frame.readBytes(position, num, buf);
     }
 
     /**
@@ -83,7 +97,7 @@ public class Page {
      * @return a new byte array with all the bytes in the file
      */
     private byte[] readBytes() {
-        byte[] data = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        byte[] data = new byte[frame.getEffectivePageSize()];
         getBuffer().get(data);
         return data;
     }
@@ -108,7 +122,7 @@ public class Page {
             throw new PageException("writeBytes would go out of bounds");
         }
 
-        this.frame.writeBytes((short) position, (short) num, buf);
+        this.frame.writeBytes(position, num, buf);
     }
 
     /**
@@ -122,7 +136,7 @@ public class Page {
      * Completely wipe (zero out) the page.
      */
     public void wipe() {
-        byte[] zeros = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+        byte[] zeros = new byte[frame.getEffectivePageSize()];
         writeBytes(zeros);
     }
 
@@ -0,0 +1,164 @@
+package io.github.yeyuhl.database.memory;
+
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Map from page number to the index of the buffer frame the page is loaded in, used by the
+ * buffer manager. Implemented as an open-addressing hash table (with linear probing) over
+ * primitive arrays, sized when created for the number of frames, so it never needs to grow.
+ *
+ * Updates must be made by one thread at a time (the buffer manager only updates the table while
+ * holding its lock), but lookups take no lock. Writers increment a version number before and
+ * after each update; a lookup reads the version number before and after probing, and probes
+ * again if an update happened in the meantime (or was in progress), so it always sees the table
+ * between updates.
+ */
+class PageTable {
+    // Marks an empty slot
+    private static final long EMPTY = DiskSpaceManager.INVALID_PAGE_NUM;
+
+    // Page number in each slot, or EMPTY
+    private final AtomicLongArray keys;
+
+    // Frame index in each slot
+    private final AtomicIntegerArray values;
+
+    // Number of slots minus one (the number of slots is a power of two)
+    private final int mask;
+
+    // Incremented before and after every update, so it is odd while an update is in progress
+    private final AtomicLong version;
+
+    /**
+     * @param maxEntries maximum number of entries the table will hold at once
+     */
+    PageTable(int maxEntries) {
+        // keep the table at most half full, so that probe sequences stay short
+        int numSlots = Integer.highestOneBit(Math.max(2, maxEntries) * 2 - 1) * 2;
+        this.keys = new AtomicLongArray(numSlots);
+        this.values = new AtomicIntegerArray(numSlots);
+        this.mask = numSlots - 1;
+        this.version = new AtomicLong();
+        for (int i = 0; i < numSlots; ++i) {
+            this.keys.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * @param pageNum page number
+     * @return slot that the probe sequence of pageNum starts at
+     */
+    private int home(long pageNum) {
+        // Fibonacci hashing: page numbers of a partition are consecutive, which this spreads out
+        return (int) ((pageNum * 0x9E3779B97F4A7C15L) >>> 32) & this.mask;
+    }
+
+    /**
+     * @param pageNum page number
+     * @return slot holding pageNum, or -1 if it is not in the table
+     */
+    private int find(long pageNum) {
+        for (int slot = this.home(pageNum); ; slot = (slot + 1) & this.mask) {
+            long key = this.keys.get(slot);
+            if (key == pageNum) {
+                return slot;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Looks up the frame a page is loaded in. Does not need the buffer manager's lock.
+     * @param pageNum page number
+     * @return frame index of the page, or -1 if the page is not in the table
+     */
+    int get(long pageNum) {
+        while (true) {
+            long before = this.version.get();
+            if ((before & 1) == 0) {
+                int slot = this.find(pageNum);
+                int frameIndex = slot < 0 ? -1 : this.values.get(slot);
+                if (this.version.get() == before) {
+                    return frameIndex;
+                }
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @param pageNum page number
+     * @return whether the page is in the table
+     */
+    boolean containsKey(long pageNum) {
+        return this.get(pageNum) >= 0;
+    }
+
+    /**
+     * Maps a page to a frame, replacing any existing mapping of the page. Must not be called
+     * concurrently with other updates.
+     * @param pageNum page number
+     * @param frameIndex frame index
+     */
+    void put(long pageNum, int frameIndex) {
+        this.version.incrementAndGet();
+        try {
+            int slot = this.home(pageNum);
+            while (true) {
+                long key = this.keys.get(slot);
+                if (key == pageNum || key == EMPTY) {
+                    break;
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            this.values.set(slot, frameIndex);
+            this.keys.set(slot, pageNum);
+        } finally {
+            this.version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes the mapping of a page, if it is mapped to the given frame. Must not be called
+     * concurrently with other updates.
+     * @param pageNum page number
+     * @param frameIndex frame index the page must be mapped to
+     * @return whether the mapping was removed
+     */
+    boolean remove(long pageNum, int frameIndex) {
+        int slot = this.find(pageNum);
+        if (slot < 0 || this.values.get(slot) != frameIndex) {
+            return false;
+        }
+        this.version.incrementAndGet();
+        try {
+            // shift later entries of the probe sequence back, so that no lookup stops early
+            // at the emptied slot (this avoids the need for tombstones)
+            int hole = slot;
+            for (int next = (hole + 1) & this.mask; ; next = (next + 1) & this.mask) {
+                long key = this.keys.get(next);
+                if (key == EMPTY) {
+                    break;
+                }
+                int home = this.home(key);
+                // the entry can move to the hole if its home is not cyclically in (hole, next]
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    this.keys.set(hole, key);
+                    this.values.set(hole, this.values.get(next));
+                    hole = next;
+                }
+            }
+            this.keys.set(hole, EMPTY);
+            return true;
+        } finally {
+            this.version.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.github.yeyuhl.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Implementation of the 2Q eviction policy, which is resistant to sequential scans.
+ *
+ * Newly loaded pages go into a FIFO queue (A1in) that takes up a quarter of the buffer, and
+ * hits on them are ignored, so a page read many times in a row (for example, every record of
+ * a page in a scan) is not mistaken for a frequently used page. Pages evicted from A1in are
+ * remembered in a ghost queue (A1out) of page numbers; a page that is loaded again while it is
+ * remembered there goes into an LRU queue (Am) for frequently used pages instead. A scan
+ * therefore only ever replaces pages in A1in, and leaves the pages in Am alone.
+ *
+ * Hits are reported without the buffer manager's lock, so every method of the policy
+ * synchronizes on it.
+ */
+public class TwoQueueEvictionPolicy implements EvictionPolicy {
+    // Queue of pages loaded once, in order of loading
+    private LinkedHashSet<BufferFrame> a1in;
+
+    // Queue of frequently used pages, in order of least to most recently used
+    private LinkedHashSet<BufferFrame> am;
+
+    // Page numbers of pages recently evicted from a1in, in order of eviction
+    private LinkedHashSet<Long> a1out;
+
+    // Number of frames, as of the last call to evict
+    private int numFrames;
+
+    // Tags of frames, recording which queue the frame is in
+    private static final Object A1IN = "A1in";
+    private static final Object AM = "Am";
+
+    public TwoQueueEvictionPolicy() {
+        this.a1in = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.numFrames = 0;
+    }
+
+    /**
+     * Called to initialize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        if (this.a1out.remove(frame.getPageNum())) {
+            this.am.add(frame);
+            frame.tag = AM;
+        } else {
+            this.a1in.add(frame);
+            frame.tag = A1IN;
+        }
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (frame.tag == AM) {
+            this.am.remove(frame);
+            this.am.add(frame);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.numFrames = frames.length;
+        int maxA1in = Math.max(1, frames.length / 4);
+        BufferFrame evicted = null;
+        if (this.a1in.size() > maxA1in || this.am.isEmpty()) {
+            evicted = oldestUnpinned(this.a1in);
+        }
+        if (evicted == null) {
+            evicted = oldestUnpinned(this.am);
+        }
+        if (evicted == null) {
+            evicted = oldestUnpinned(this.a1in);
+        }
+        if (evicted == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        return evicted;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag == A1IN) {
+            this.a1in.remove(frame);
+            this.a1out.add(frame.getPageNum());
+            // remember as many pages as fit in the buffer (page numbers take little space)
+            Iterator<Long> iter = this.a1out.iterator();
+            while (this.a1out.size() > Math.max(1, this.numFrames)) {
+                iter.next();
+                iter.remove();
+            }
+        } else if (frame.tag == AM) {
+            this.am.remove(frame);
+        }
+        frame.tag = null;
+    }
+
+    /**
+     * @param queue queue of frames
+     * @return the frame closest to the front of the queue that is not pinned, or null if
+     * every frame in the queue is pinned
+     */
+    private static BufferFrame oldestUnpinned(LinkedHashSet<BufferFrame> queue) {
+        for (BufferFrame frame : queue) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+}
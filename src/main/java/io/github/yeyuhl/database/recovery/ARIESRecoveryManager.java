@@ -4,12 +4,17 @@ import io.github.yeyuhl.database.Transaction;
 import io.github.yeyuhl.database.common.Pair;
 import io.github.yeyuhl.database.concurrency.DummyLockContext;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.io.PageException;
 import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.Page;
 import io.github.yeyuhl.database.recovery.records.*;
 
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 /**
@@ -37,8 +42,48 @@ public class ARIESRecoveryManager implements RecoveryManager {
     // 如果重启的重做阶段已结束，则为true，否则为false。用于防止在重启的重做阶段刷新DPT条目。
     boolean redoComplete;
 
+    // 存放日志段文件的目录；为null时日志保存在buffer manager的日志分区中
+    private Path logDir;
+    // 日志中LSN的格式（见LSNFormat）
+    private LSNFormat lsnFormat;
+
+    // 后台检查点线程；为null时只在初始化、重启和关闭时设置检查点
+    private ScheduledExecutorService checkpointer;
+    // 后台检查点线程检查是否需要设置检查点的间隔（毫秒）
+    private static final long CHECKPOINTER_POLL_MILLIS = 100;
+
+    // 重启时并行重做的工作线程数，为1时串行重做
+    private int redoWorkers = 1;
+    // 并行重做时已分派但尚未重做的记录数的上限
+    private static final int MAX_REDO_BACKLOG = 1024;
+    // 上一个检查点的开始检查点记录的LSN，以及设置它的时间
+    private volatile long lastCheckpointLSN = 0;
+    private volatile long lastCheckpointMillis = System.currentTimeMillis();
+    // 追加事务的日志记录并更新事务表和DPT时持有读锁，检查点写入开始检查点记录时持有写锁，
+    // 因此开始检查点记录之前的记录对事务表和DPT的更新都在检查点的快照中（见appendToLog）
+    private final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+
     public ARIESRecoveryManager(Function<Long, Transaction> newTransaction) {
+        this(newTransaction, null);
+    }
+
+    /**
+     * @param newTransaction 使用给定事务编号创建用于恢复的新事务的方法
+     * @param logDir         日志段文件所在的目录（见FileLogManager），为null时日志保存在日志分区中
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction, Path logDir) {
+        this(newTransaction, logDir, LSNFormat.BINARY);
+    }
+
+    /**
+     * @param newTransaction 使用给定事务编号创建用于恢复的新事务的方法
+     * @param logDir         日志段文件所在的目录（见FileLogManager），为null时日志保存在日志分区中
+     * @param lsnFormat      数据库创建时记录的LSN格式（见LSNFormat.read）
+     */
+    public ARIESRecoveryManager(Function<Long, Transaction> newTransaction, Path logDir, LSNFormat lsnFormat) {
         this.newTransaction = newTransaction;
+        this.logDir = logDir;
+        this.lsnFormat = lsnFormat;
     }
 
     /**
@@ -62,7 +107,72 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManager(bufferManager);
+        if (logDir == null) {
+            this.logManager = new LogManager(bufferManager, lsnFormat);
+        } else {
+            this.logManager = new FileLogManager(bufferManager, logDir, FileLogManager.DEFAULT_PAGES_PER_SEGMENT,
+                    lsnFormat);
+        }
+    }
+
+    /**
+     * 设置组提交的延迟：提交时，如果有其他事务也在等待刷新日志，负责刷新的事务先等待这么久，
+     * 让更多提交加入同一次刷新。
+     *
+     * @param micros commit delay in microseconds; 0 to flush right away
+     */
+    public void setCommitDelay(long micros) {
+        this.logManager.setCommitDelay(micros);
+    }
+
+    /**
+     * 启用后台检查点线程：自上一个检查点以来刷新的日志达到logPages页，或距上一个检查点已过intervalMillis毫秒时，
+     * 设置一个检查点（见checkpoint），从而限制重启时需要扫描的日志，并让不再需要的日志得以回收。
+     * 应在重启恢复完成后调用。
+     *
+     * @param logPages       number of log pages flushed since the last checkpoint that trigger a
+     *                       checkpoint; 0 to only trigger checkpoints by time
+     * @param intervalMillis time since the last checkpoint that triggers a checkpoint, in
+     *                       milliseconds; 0 to only trigger checkpoints by log volume
+     */
+    public synchronized void enablePeriodicCheckpoints(int logPages, long intervalMillis) {
+        if (logPages < 0 || intervalMillis < 0 || (logPages == 0 && intervalMillis == 0)) {
+            throw new IllegalArgumentException("checkpoints must be triggered by log volume or time");
+        }
+        if (this.checkpointer != null) {
+            return;
+        }
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+            Thread thread = new Thread(r, "checkpointer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long pollMillis = intervalMillis == 0 ? CHECKPOINTER_POLL_MILLIS
+                : Math.min(intervalMillis, CHECKPOINTER_POLL_MILLIS);
+        this.checkpointer.scheduleWithFixedDelay(() -> {
+            long logGrowth = logManager.lsnFormat.getLSNPage(logManager.getFlushedLSN())
+                    - logManager.lsnFormat.getLSNPage(lastCheckpointLSN);
+            long elapsed = System.currentTimeMillis() - lastCheckpointMillis;
+            if ((logPages > 0 && logGrowth >= logPages) || (intervalMillis > 0 && elapsed >= intervalMillis)) {
+                try {
+                    this.checkpoint();
+                } catch (PageException | IllegalStateException e) {
+                    // 页面或分区在此期间被释放：下一轮再设置检查点
+                }
+            }
+        }, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 设置重启时重做阶段的工作线程数（见restartRedo），应在restart之前调用。
+     *
+     * @param numWorkers number of threads redoing changes to pages; 1 to redo serially
+     */
+    public void setRedoWorkers(int numWorkers) {
+        if (numWorkers <= 0) {
+            throw new IllegalArgumentException("redo needs at least one worker");
+        }
+        this.redoWorkers = numWorkers;
     }
 
     // Forward Processing //////////////////////////////////////////////////////
@@ -74,7 +184,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public synchronized void startTransaction(Transaction transaction) {
-        this.transactionTable.put(transaction.getTransNum(), new TransactionTableEntry(transaction));
+        TransactionTableEntry entry = new TransactionTableEntry(transaction);
+        // 之后追加的日志记录都在已刷新的日志之后
+        entry.startLSN = Math.max(0, logManager.getFlushedLSN());
+        this.transactionTable.put(transaction.getTransNum(), entry);
     }
 
     /**
@@ -88,10 +201,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // 更新事务状态
         transactionTable.get(transNum).transaction.setStatus(Transaction.Status.COMMITTING);
         // 追加提交记录
-        transactionTable.get(transNum).lastLSN = logManager.appendToLog(new CommitTransactionLogRecord(transNum, transactionTable.get(transNum).lastLSN));
-        long newLSN = transactionTable.get(transNum).lastLSN;
-        // 刷新日志
-        logManager.flushToLSN(newLSN);
+        long newLSN = appendToLog(transactionTable.get(transNum),
+                new CommitTransactionLogRecord(transNum, transactionTable.get(transNum).lastLSN));
+        // 刷新日志，与同时提交的其他事务共用一次刷新（组提交）
+        logManager.groupFlushToLSN(newLSN);
         return newLSN;
     }
 
@@ -107,8 +220,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // 更新事务状态
         transactionTable.get(transNum).transaction.setStatus(Transaction.Status.ABORTING);
         // 追加中止记录
-        transactionTable.get(transNum).lastLSN = logManager.appendToLog(new AbortTransactionLogRecord(transNum, transactionTable.get(transNum).lastLSN));
-        return transactionTable.get(transNum).lastLSN;
+        return appendToLog(transactionTable.get(transNum),
+                new AbortTransactionLogRecord(transNum, transactionTable.get(transNum).lastLSN));
     }
 
     /**
@@ -127,10 +240,16 @@ public class ARIESRecoveryManager implements RecoveryManager {
         }
         // 由于进行了撤销，因此需要获取该事务的lastLSN
         long prevLSN = transactionTable.get(transNum).lastLSN;
-        // 添加结束记录
-        long newLSN = logManager.appendToLog(new EndTransactionLogRecord(transNum, prevLSN));
-        transactionTable.get(transNum).lastLSN = newLSN;
-        transactionTable.remove(transNum);
+        // 添加结束记录，并在检查点能看到之前把事务从事务表中删除
+        long newLSN;
+        checkpointLock.readLock().lock();
+        try {
+            newLSN = logManager.appendToLog(new EndTransactionLogRecord(transNum, prevLSN));
+            transactionTable.get(transNum).lastLSN = newLSN;
+            transactionTable.remove(transNum);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
         transaction.setStatus(Transaction.Status.COMPLETE);
         return newLSN;
     }
@@ -162,7 +281,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
             if (currentRecord.isUndoable()) {
                 // 通过在记录上调用undo来获取补偿日志记录(CLR)
                 LogRecord CLR = currentRecord.undo(transactionEntry.lastLSN);
-                transactionEntry.lastLSN = logManager.appendToLog(CLR);
+                appendToLog(transactionEntry, CLR);
                 // 调用CLR上的redo来执行撤销操作
                 CLR.redo(this, diskSpaceManager, bufferManager);
                 // 将当前 LSN 更新为下一条要撤销记录的 LSN
@@ -173,6 +292,35 @@ public class ARIESRecoveryManager implements RecoveryManager {
         }
     }
 
+    /**
+     * 把事务的一条日志记录追加到日志，并更新事务表中事务的lastLSN；如果记录修改了页面，
+     * 把页面登记到DPT，如果记录释放了页面（FreePageLogRecord），把页面从DPT中删除。
+     * 追加和更新在checkpointLock的读锁下进行：检查点在写锁下写入开始检查点记录，因此不会在记录已追加、
+     * 而事务表和DPT尚未更新时取快照，否则重启的分析阶段从开始检查点记录开始，既看不到这条记录，
+     * 也看不到它对事务表和DPT的更新。不能在持有读锁时等待页面，因为检查点在写锁下追加日志时也可能需要页面。
+     *
+     * @param entry  transaction table entry of the transaction the record belongs to
+     * @param record log record to append
+     * @return LSN of the record
+     */
+    private long appendToLog(TransactionTableEntry entry, LogRecord record) {
+        checkpointLock.readLock().lock();
+        try {
+            long LSN = logManager.appendToLog(record);
+            entry.lastLSN = LSN;
+            LogType type = record.getType();
+            if (type == LogType.UPDATE_PAGE || type == LogType.UNDO_UPDATE_PAGE ||
+                    type == LogType.UPDATE_PAGE_RANGES || type == LogType.UNDO_UPDATE_PAGE_RANGES) {
+                dirtyPage(record.getPageNum().get(), LSN);
+            } else if (type == LogType.FREE_PAGE) {
+                dirtyPageTable.remove(record.getPageNum().get());
+            }
+            return LSN;
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+    }
+
     /**
      * 在从缓冲区缓存中刷新页面之前调用，日志页永远不会调用此方法。
      *
@@ -212,14 +360,65 @@ public class ARIESRecoveryManager implements RecoveryManager {
     @Override
     public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before, byte[] after) {
         assert (before.length == after.length);
-        assert (before.length <= BufferManager.EFFECTIVE_PAGE_SIZE / 2);
+        assert (before.length <= bufferManager.getEffectivePageSize() / 2);
         TransactionTableEntry ttEntry = transactionTable.get(transNum);
-        // 创建更新日志记录并写入到日志
+        // 创建更新日志记录并写入到日志，同时更新事务表和脏页表
         LogRecord r = new UpdatePageLogRecord(transNum, pageNum, ttEntry.lastLSN, pageOffset, before, after);
-        ttEntry.lastLSN = logManager.appendToLog(r);
-        // 更新脏页表
-        if (!dirtyPageTable.containsKey(pageNum)) {
-            dirtyPageTable.put(pageNum, ttEntry.lastLSN);
+        return appendToLog(ttEntry, r);
+    }
+
+    /**
+     * 一次写入修改了页面上多个范围时调用。
+     *
+     * 从不在日志页上调用此方法。所有范围写入同一条UpdatePageRangesLogRecord，只有一个记录头；
+     * 如果一条记录放不下日志页，则按顺序拆成多条记录。只有一个范围的记录写成普通的UpdatePageLogRecord。
+     * before和after在返回后会被调用者重用，所以记录中保存的是它们的副本。
+     *
+     * @param transNum  transaction performing the write
+     * @param pageNum   page number of page being written
+     * @param numRanges number of ranges changed by the write
+     * @param offsets   offset into page where each range begins
+     * @param lengths   number of bytes in each range
+     * @param before    bytes of every range before the write
+     * @param after     bytes of every range after the write
+     * @return LSN of last record written to log
+     */
+    @Override
+    public long logPageWrites(long transNum, long pageNum, int numRanges, short[] offsets, short[] lengths,
+                              byte[] before, byte[] after) {
+        TransactionTableEntry ttEntry = transactionTable.get(transNum);
+        int maxSize = logManager.getMaxRecordSize();
+        int first = 0;
+        int start = 0;
+        while (first < numRanges) {
+            // 尽可能多地把范围放进一条记录
+            int last = first;
+            int numBytes = 0;
+            while (last < numRanges &&
+                    UpdatePageRangesLogRecord.getSize(last - first + 1, numBytes + lengths[last]) <= maxSize) {
+                numBytes += lengths[last];
+                ++last;
+            }
+            if (last == first) {
+                // 单个范围总能放进一条UpdatePageLogRecord
+                numBytes = lengths[first];
+                last = first + 1;
+            }
+            LogRecord r;
+            if (last - first == 1) {
+                r = new UpdatePageLogRecord(transNum, pageNum, ttEntry.lastLSN, offsets[first],
+                        Arrays.copyOfRange(before, start, start + numBytes),
+                        Arrays.copyOfRange(after, start, start + numBytes));
+            } else {
+                r = new UpdatePageRangesLogRecord(transNum, pageNum, ttEntry.lastLSN,
+                        Arrays.copyOfRange(offsets, first, last), Arrays.copyOfRange(lengths, first, last),
+                        Arrays.copyOfRange(before, start, start + numBytes),
+                        Arrays.copyOfRange(after, start, start + numBytes));
+            }
+            // 更新事务表和脏页表，recLSN是第一条记录的LSN
+            appendToLog(ttEntry, r);
+            first = last;
+            start += numBytes;
         }
         return ttEntry.lastLSN;
     }
@@ -241,9 +440,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
         // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN = appendToLog(transactionEntry, record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -266,9 +464,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
         // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN = appendToLog(transactionEntry, record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -291,9 +488,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new AllocPageLogRecord(transNum, pageNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
         // Update lastLSN
-        transactionEntry.lastLSN = LSN;
+        long LSN = appendToLog(transactionEntry, record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -316,10 +512,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new FreePageLogRecord(transNum, pageNum, prevLSN);
-        long LSN = logManager.appendToLog(record);
-        // Update lastLSN
-        transactionEntry.lastLSN = LSN;
-        dirtyPageTable.remove(pageNum);
+        // Update lastLSN; the page is no longer dirty
+        long LSN = appendToLog(transactionEntry, record);
         // Flush log
         logManager.flushToLSN(LSN);
         return LSN;
@@ -377,25 +571,44 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * 首先，应写入开始检查点记录。然后，应使用DPT中的recLSN尽可能填满结束检查点记录，使用事务表中的status/lastLSN填满记录，并在记录填满后（或无记录可写入时）写入结束检查点记录。
      * 你可以在这里找到EndCheckpointLogRecord#fitsInOneRecord方法，用于来确定何时写入结束检查点记录。
      * 最后，应使用开始检查点记录的LSN重写主记录。
+     * 检查点是模糊的：不会刷新任何数据页，也不会阻塞事务的其他操作。
+     * 主记录更新后，回收重启时不再需要的日志：分析从本检查点开始，重做从DPT中最小的recLSN开始，
+     * 撤销最多回到活跃事务的第一条记录，因此早于三者中最小者的日志记录（主记录除外）都可以回收。
+     * DPT和事务表取写入结束检查点记录时的快照：快照中没有的脏页在快照前已写回，由下面的sync落盘；
+     * 而快照之后才写回的页面尚未落盘，仍需要它们的日志记录。
      */
     @Override
     public synchronized void checkpoint() {
         // 创建开始检查点日志记录并写入日志
+        // 等待已追加的事务日志记录更新完事务表和DPT（见appendToLog）
         LogRecord beginRecord = new BeginCheckpointLogRecord();
-        long beginLSN = logManager.appendToLog(beginRecord);
+        long beginLSN;
+        checkpointLock.writeLock().lock();
+        try {
+            beginLSN = logManager.appendToLog(beginRecord);
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
 
         // 脏页到相应LSN的映射
         Map<Long, Long> chkptDPT = new HashMap<>();
         // 事务编号到相应事务状态和LSN的映射
         Map<Long, Pair<Transaction.Status, Long>> chkptTxnTable = new HashMap<>();
+        // 重启时需要的第一条日志记录的LSN（主记录除外）
+        long truncateLSN = beginLSN;
 
         int numDPTRecords = 0;
         // TODO(proj5): generate end checkpoint record(s) for DPT and transaction table
         // 遍历脏页表，获取脏页的page number
         for (Long pg : dirtyPageTable.keySet()) {
+            Long recLSN = dirtyPageTable.get(pg);
+            if (recLSN == null) {
+                // 页面已在此期间写回
+                continue;
+            }
             numDPTRecords++;
             // 查看是否可以将所有结束检查点记录放入一个页面
-            if (!EndCheckpointLogRecord.fitsInOneRecord(numDPTRecords, 0)) {
+            if (!EndCheckpointLogRecord.fitsInOneRecord(numDPTRecords, 0, logManager.getMaxRecordSize())) {
                 // 如果不可以，则需要拆分为多个EndCheckpointLogRecord存储
                 numDPTRecords = 1;
                 logManager.appendToLog(new EndCheckpointLogRecord(chkptDPT, chkptTxnTable));
@@ -403,14 +616,21 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 chkptDPT.clear();
             }
             // 记录DPT
-            chkptDPT.put(pg, dirtyPageTable.get(pg));
+            chkptDPT.put(pg, recLSN);
+            truncateLSN = Math.min(truncateLSN, recLSN);
         }
         int numTXNTableRecords = 0;
         // 遍历事务表，获取事务编号
         for (Long tNum : transactionTable.keySet()) {
+            TransactionTableEntry entry = transactionTable.get(tNum);
+            if (entry == null) {
+                // 事务已在此期间结束
+                continue;
+            }
             numTXNTableRecords++;
             // 查看是否可以将所有结束检查点记录放入一个页面
-            if (!EndCheckpointLogRecord.fitsInOneRecord(numDPTRecords, numTXNTableRecords)) {
+            if (!EndCheckpointLogRecord.fitsInOneRecord(numDPTRecords, numTXNTableRecords,
+                    logManager.getMaxRecordSize())) {
                 // 同理，如果前面脏页相关的日志记录可以放到一个页面，但是考虑事务表相关的日志记录后不可以，那么也要拆分
                 numDPTRecords = 0;
                 numTXNTableRecords = 1;
@@ -419,8 +639,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 chkptTxnTable.clear();
             }
             // 记录事务表
-            chkptTxnTable.put(tNum, new Pair<>(transactionTable.get(tNum).transaction.getStatus(),
-                    transactionTable.get(tNum).lastLSN));
+            chkptTxnTable.put(tNum, new Pair<>(entry.transaction.getStatus(), entry.lastLSN));
+            truncateLSN = Math.min(truncateLSN, entry.startLSN);
         }
 
         // 最后创建结束检查点日志记录并写入日志
@@ -428,10 +648,18 @@ public class ARIESRecoveryManager implements RecoveryManager {
         logManager.appendToLog(endRecord);
         // 确保在更新主记录之前完全刷新检查点
         flushToLSN(endRecord.getLSN());
+        // 写回模式下数据页的写入可能尚未落盘，而上面的DPT快照不再包含这些页，
+        // 因此必须在主记录指向本检查点之前把它们强制写到磁盘
+        diskSpaceManager.sync();
 
         // 更新主记录
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
+        lastCheckpointLSN = beginLSN;
+        lastCheckpointMillis = System.currentTimeMillis();
+
+        // 回收重启时不再需要的日志
+        logManager.truncate(truncateLSN);
     }
 
     /**
@@ -454,6 +682,15 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     @Override
     public void close() {
+        if (this.checkpointer != null) {
+            // 不中断线程，因为中断写入会关闭底层的文件通道
+            this.checkpointer.shutdown();
+            try {
+                this.checkpointer.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
         this.checkpoint();
         this.logManager.close();
     }
@@ -524,7 +761,9 @@ public class ARIESRecoveryManager implements RecoveryManager {
                 // 如果涉及页面（getPageNum存在），更新dpt
                 if (next.getPageNum().isPresent()) {
                     // update/undoupdate页面会弄脏页面
-                    if (next.getType().equals(LogType.UPDATE_PAGE) || next.getType().equals(LogType.UNDO_UPDATE_PAGE)) {
+                    if (next.getType().equals(LogType.UPDATE_PAGE) || next.getType().equals(LogType.UNDO_UPDATE_PAGE) ||
+                            next.getType().equals(LogType.UPDATE_PAGE_RANGES) ||
+                            next.getType().equals(LogType.UNDO_UPDATE_PAGE_RANGES)) {
                         dirtyPageTable.putIfAbsent(next.getPageNum().get(), next.getLSN());
                     }
                     // free/undoalloc页面总是将更改刷新到磁盘
@@ -617,6 +856,8 @@ public class ARIESRecoveryManager implements RecoveryManager {
      * - 关于分区（Alloc/Free/UndoAlloc/UndoFree..Part），总是redo
      * - 分配页面（AllocPage/UndoFreePage），总是redo
      * - 修改了脏页表中的页面（Update/UndoUpdate/Free/UndoAlloc....Page）且LSN >= recLSN，从磁盘获取该页面，检查pageLSN，并在需要时重做记录。
+     *
+     * 工作线程数大于1时，页面记录由多个线程并行重做（见restartRedoInParallel）。
      */
     void restartRedo() {
         // TODO(proj5): implement
@@ -627,41 +868,146 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // 从脏页表中确定REDO的起点
         Long LSN = Collections.min(dirtyPageTable.values());
         Iterator<LogRecord> i = logManager.scanFrom(LSN);
+        if (redoWorkers > 1) {
+            restartRedoInParallel(i);
+            return;
+        }
         while (i.hasNext()) {
             LogRecord next = i.next();
-            LogType lType = next.getType();
             if (next.isRedoable()) {
-                boolean isPart = lType.equals(LogType.ALLOC_PART) ||
-                        lType.equals(LogType.UNDO_ALLOC_PART) ||
-                        lType.equals(LogType.FREE_PART) ||
-                        lType.equals(LogType.UNDO_FREE_PART) ||
-                        lType.equals(LogType.ALLOC_PAGE) ||
-                        lType.equals(LogType.UNDO_FREE_PAGE);
-                boolean isModified = lType.equals(LogType.UPDATE_PAGE) ||
-                        lType.equals(LogType.UNDO_UPDATE_PAGE) ||
-                        lType.equals(LogType.ALLOC_PAGE) ||
-                        lType.equals(LogType.FREE_PAGE);
-                if (isPart) {
+                if (isPartRedo(next.getType())) {
+                    next.redo(this, diskSpaceManager, bufferManager);
+                } else if (isPageRedo(next.getType()) && isDirtyAt(next)) {
+                    redoIfNewer(next);
+                }
+            }
+        }
+        return;
+    }
+
+    /**
+     * 并行执行redo pass：不同页面的重做互不影响，因此按页号把页面记录分派给redoWorkers个工作线程，
+     * 每个工作线程按LSN顺序重做分到的记录，同一页面的记录总是分给同一个线程，从而保持每个页面的重做顺序和pageLSN检查。
+     * 分区和页面分配的记录作为屏障：等之前分派的记录全部重做完毕后，在当前线程重做，再继续分派。
+     *
+     * @param records 从REDO起点开始的日志记录
+     */
+    private void restartRedoInParallel(Iterator<LogRecord> records) {
+        int numWorkers = redoWorkers;
+        List<ExecutorService> workers = new ArrayList<>();
+        for (int w = 0; w < numWorkers; ++w) {
+            workers.add(Executors.newSingleThreadExecutor((Runnable r) -> {
+                Thread thread = new Thread(r, "redo-worker");
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+        // 每个工作线程最后分派的记录，工作线程按分派顺序重做，等待它即等待该线程之前的所有记录
+        List<Future<?>> lastTasks = new ArrayList<>(Collections.nCopies(numWorkers, null));
+        // 限制已分派但尚未重做的记录数，以免日志读得比重做快时全部堆积在内存中
+        Semaphore backlog = new Semaphore(MAX_REDO_BACKLOG);
+        // 工作线程中第一个失败的重做
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        try {
+            while (records.hasNext()) {
+                LogRecord next = records.next();
+                if (!next.isRedoable()) {
+                    continue;
+                }
+                if (isPartRedo(next.getType())) {
+                    awaitRedoWorkers(lastTasks, failure);
                     next.redo(this, diskSpaceManager, bufferManager);
-                } else if (isModified) {
-                    Long pgNum = next.getPageNum().get();
-                    if (dirtyPageTable.containsKey(pgNum) || next.getLSN() >= dirtyPageTable.get(pgNum)) {
-                        Page p = bufferManager.fetchPage(new DummyLockContext(), pgNum);
+                } else if (isPageRedo(next.getType()) && isDirtyAt(next)) {
+                    int w = (int) Math.floorMod(next.getPageNum().get(), (long) numWorkers);
+                    backlog.acquireUninterruptibly();
+                    lastTasks.set(w, workers.get(w).submit(() -> {
                         try {
-                            if (p.getPageLSN() >= next.getLSN()) {
-                                continue;
-                            }
+                            redoIfNewer(next);
+                        } catch (RuntimeException e) {
+                            failure.compareAndSet(null, e);
                         } finally {
-                            p.unpin();
+                            backlog.release();
                         }
-                        next.redo(this, diskSpaceManager, bufferManager);
-                    } else {
-                        continue;
-                    }
+                    }));
                 }
             }
+            awaitRedoWorkers(lastTasks, failure);
+        } finally {
+            for (ExecutorService worker : workers) {
+                worker.shutdown();
+            }
         }
-        return;
+    }
+
+    /**
+     * 等待已分派的记录全部重做完毕，如果有记录重做失败，则抛出其异常。
+     */
+    private void awaitRedoWorkers(List<Future<?>> lastTasks, AtomicReference<RuntimeException> failure) {
+        for (int w = 0; w < lastTasks.size(); ++w) {
+            Future<?> task = lastTasks.get(w);
+            if (task == null) {
+                continue;
+            }
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted during redo");
+            } catch (ExecutionException e) {
+                failure.compareAndSet(null, new IllegalStateException(e.getCause()));
+            }
+            lastTasks.set(w, null);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * @return 该类型的记录是否作用于分区或页面分配（Alloc/Free/UndoAlloc/UndoFree..Part，AllocPage/UndoFreePage），
+     * 这类记录总是redo
+     */
+    private static boolean isPartRedo(LogType lType) {
+        return lType.equals(LogType.ALLOC_PART) ||
+                lType.equals(LogType.UNDO_ALLOC_PART) ||
+                lType.equals(LogType.FREE_PART) ||
+                lType.equals(LogType.UNDO_FREE_PART) ||
+                lType.equals(LogType.ALLOC_PAGE) ||
+                lType.equals(LogType.UNDO_FREE_PAGE);
+    }
+
+    /**
+     * @return 该类型的记录是否修改了某个页面，这类记录仅在页面是脏页且pageLSN较旧时redo
+     */
+    private static boolean isPageRedo(LogType lType) {
+        return lType.equals(LogType.UPDATE_PAGE) ||
+                lType.equals(LogType.UNDO_UPDATE_PAGE) ||
+                lType.equals(LogType.UPDATE_PAGE_RANGES) ||
+                lType.equals(LogType.UNDO_UPDATE_PAGE_RANGES) ||
+                lType.equals(LogType.FREE_PAGE);
+    }
+
+    /**
+     * @return 记录修改的页面是否在脏页表中，且记录的LSN >= recLSN
+     */
+    private boolean isDirtyAt(LogRecord record) {
+        Long recLSN = dirtyPageTable.get(record.getPageNum().get());
+        return recLSN != null && record.getLSN() >= recLSN;
+    }
+
+    /**
+     * 从磁盘获取记录修改的页面，如果pageLSN小于记录的LSN，则重做该记录。
+     */
+    private void redoIfNewer(LogRecord record) {
+        Page p = bufferManager.fetchPage(new DummyLockContext(), record.getPageNum().get());
+        try {
+            if (p.getPageLSN() >= record.getLSN()) {
+                return;
+            }
+        } finally {
+            p.unpin();
+        }
+        record.redo(this, diskSpaceManager, bufferManager);
     }
 
     /**
@@ -51,6 +51,12 @@ public class DummyRecoveryManager implements RecoveryManager {
         return 0L;
     }
 
+    @Override
+    public long logPageWrites(long transNum, long pageNum, int numRanges, short[] offsets, short[] lengths,
+                              byte[] before, byte[] after) {
+        return 0L;
+    }
+
     @Override
     public long logAllocPart(long transNum, int partNum) {
         return 0L;
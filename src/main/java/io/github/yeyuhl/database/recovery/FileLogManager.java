@@ -0,0 +1,706 @@
+package io.github.yeyuhl.database.recovery;
+
+import io.github.yeyuhl.database.common.Buffer;
+import io.github.yeyuhl.database.common.ByteBuffer;
+import io.github.yeyuhl.database.io.PageException;
+import io.github.yeyuhl.database.memory.BufferManager;
+import io.github.yeyuhl.database.recovery.records.MasterLogRecord;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Log manager that keeps the log in its own append-only files instead of the log partition of
+ * the buffer manager, so that log traffic never takes frames away from data pages, and
+ * appending to the log never has to evict a page.
+ * <p>
+ * The log is still a sequence of log pages (of the buffer manager's page size), and LSNs are
+ * still made of a log page number and an offset into the page, so the byte offset of a record
+ * in the log is simply pageNum * pageSize + index. Log pages are stored in segment files of
+ * pagesPerSegment pages each, named wal_0, wal_1, ... in the log directory; a segment is
+ * filled with zeros when it is created, so appends never grow a file. The last CHECKSUM_SIZE
+ * bytes of every log page hold a checksum of the rest of the page, which tells written pages
+ * apart from pages that were never written, or only partly written, when the log is reopened.
+ * <p>
+ * Records are appended to an in-memory buffer holding the log tail. A full tail joins the
+ * pages waiting to be flushed, and appends continue in a fresh buffer. A flush swaps the tail
+ * for a fresh buffer in the same way, and then writes the pages out with sequential FileChannel
+ * writes and a single force, without holding the lock that appends take: appends keep filling
+ * the new tail while the old one is written out, and written buffers are recycled. As in
+ * LogManager, a log page is never written to again once it has been flushed.
+ * <p>
+ * Pages written out together are forced in batches of FORCE_BATCH_PAGES, in order, so a crash
+ * can only leave a hole (an unwritten page followed by written ones) among the pages of the last
+ * batch. On reopen, the log ends at the first page of that batch that is not fully written, and
+ * the rest of the batch is cleared, so that records after the hole, which were never reported
+ * as flushed, are dropped for good instead of resurfacing behind later appends.
+ * <p>
+ * Appends do not take a lock either, unless they start a new log page: a record reserves its
+ * space in the tail with an atomic fetch-and-add on the tail's offset, and is then copied in
+ * concurrently with other records. A reservation that does not fit leaves the tail full (every
+ * later reservation fails too), and the writer moves on to a new tail. Once its record is
+ * copied in, a writer publishes it by moving the page's written offset past it, after waiting
+ * for the records reserved before it to be published, so every record before the written
+ * offset is complete. Reads of a page in memory copy the records before the written offset,
+ * and a page is only written out once the written offset has reached the first reservation
+ * that did not fit (a flush seals the tail with one such reservation), so flushes and scans
+ * only ever see fully written records.
+ * <p>
+ * Segments that only hold log records no longer needed for recovery are deleted by truncate.
+ * Segment 0 is never deleted, since it holds the master record; scans skip over the pages of
+ * deleted segments.
+ */
+public class FileLogManager extends LogManager {
+    // Prefix of the names of segment files
+    static final String SEGMENT_PREFIX = "wal_";
+
+    // Number of log pages in a segment, by default
+    public static final int DEFAULT_PAGES_PER_SEGMENT = 256;
+
+    // Number of full log pages kept in memory before they are written out without a flush
+    // being requested
+    private static final int MAX_UNFLUSHED_PAGES = 64;
+
+    // Number of written buffers kept for reuse
+    private static final int MAX_SPARE_BUFFERS = 2;
+
+    // Size of the checksum at the end of every log page
+    static final int CHECKSUM_SIZE = Integer.BYTES;
+
+    // Number of log pages written out between forces
+    static final int FORCE_BATCH_PAGES = 64;
+
+    private final Path dir;
+    private final int pageSize;
+    // Number of bytes of a log page that hold records
+    private final int capacity;
+    private final int pagesPerSegment;
+
+    // Open segment files, by segment number
+    private final Map<Long, FileChannel> segments = new HashMap<>();
+
+    // First segment after segment 0 that has not been deleted by truncate
+    private volatile long firstLiveSegment = 1;
+
+    // Log pages not yet written out, in order; the last one is the tail if tail is not null.
+    // The tail is read without a lock by appends, and only replaced under the lock.
+    private final ArrayDeque<LogBuffer> unflushed = new ArrayDeque<>();
+    private volatile LogBuffer tail;
+
+    // Page number the next new log page gets
+    private long nextPageNum;
+
+    // Written buffers, zeroed and ready to hold new log pages
+    private final ArrayDeque<byte[]> spareBuffers = new ArrayDeque<>();
+
+    // Held while writing log pages out, so that flushes happen one at a time and in order
+    private final Object flushLock = new Object();
+
+    /**
+     * A log page held in memory.
+     */
+    private static class LogBuffer {
+        private final long pageNum;
+        private final byte[] bytes;
+
+        // Offset of the next reservation; past the end of the page's records once the page is full
+        private final AtomicInteger reserved = new AtomicInteger();
+
+        // Offset up to which every reserved record has been copied into the page
+        private final AtomicInteger written = new AtomicInteger();
+
+        // Offset of the first reservation that did not fit, or -1 while every reservation has
+        // fit; once set, the page holds exactly the records before it
+        private volatile int limit = -1;
+
+        private LogBuffer(long pageNum, byte[] bytes) {
+            this.pageNum = pageNum;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Reserves space for a record in the page.
+         *
+         * @param length   size of the record
+         * @param capacity number of bytes of the page that hold records
+         * @return offset of the record in the page, or -1 if the record does not fit
+         */
+        private int reserve(int length, int capacity) {
+            int pos = this.reserved.getAndAdd(length);
+            if (pos + length <= capacity) {
+                return pos;
+            }
+            if (pos <= capacity) {
+                // only one reservation crosses the end of the page
+                this.limit = pos;
+            }
+            return -1;
+        }
+
+        /**
+         * Publishes a record copied into the page, once the records reserved before it have
+         * been published.
+         */
+        private void publish(int pos, int length) {
+            while (this.written.get() != pos) {
+                Thread.yield();
+            }
+            this.written.set(pos + length);
+        }
+
+        /**
+         * Makes every later reservation fail, so that once the records reserved before have
+         * been published the contents of the page are final.
+         */
+        private void seal(int capacity) {
+            this.reserve(this.bytes.length + 1, capacity);
+        }
+
+        /**
+         * Waits for every record of a full or sealed page to be published.
+         */
+        private void awaitWritten() {
+            while (this.limit < 0 || this.written.get() != this.limit) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Opens the log in dir, creating dir if it does not exist. New records are appended
+     * on a new log page after the last log page written.
+     *
+     * @param bufferManager buffer manager (the log uses its page size)
+     * @param dir           directory holding the segment files
+     */
+    public FileLogManager(BufferManager bufferManager, Path dir) {
+        this(bufferManager, dir, DEFAULT_PAGES_PER_SEGMENT);
+    }
+
+    public FileLogManager(BufferManager bufferManager, Path dir, int pagesPerSegment) {
+        this(bufferManager, dir, pagesPerSegment, LSNFormat.BINARY);
+    }
+
+    /**
+     * @param lsnFormat how LSNs are built from log page numbers and offsets in this log
+     */
+    public FileLogManager(BufferManager bufferManager, Path dir, int pagesPerSegment, LSNFormat lsnFormat) {
+        super(lsnFormat);
+        if (pagesPerSegment <= 0) {
+            throw new IllegalArgumentException("segments must hold at least one page");
+        }
+        this.dir = dir;
+        this.pageSize = bufferManager.getPageSize();
+        this.capacity = this.pageSize - CHECKSUM_SIZE;
+        this.pagesPerSegment = pagesPerSegment;
+        long numSegments = 0;
+        long firstSegment = Long.MAX_VALUE;
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+                for (Path p : stream) {
+                    String suffix = p.getFileName().toString().substring(SEGMENT_PREFIX.length());
+                    if (suffix.matches("\\d+")) {
+                        long segmentNum = Long.parseLong(suffix);
+                        numSegments = Math.max(numSegments, segmentNum + 1);
+                        if (segmentNum > 0) {
+                            firstSegment = Math.min(firstSegment, segmentNum);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not open log: " + e.getMessage());
+        }
+        // log pages are used in order, and forced in order in batches, so the written pages are
+        // followed only by unwritten ones, except among the pages of the batch being written at a
+        // crash. Bisecting finds a page of that batch (or the page after it); the pages of
+        // deleted segments were all written.
+        long start = 0;
+        if (firstSegment != Long.MAX_VALUE) {
+            this.firstLiveSegment = firstSegment;
+            start = firstSegment * pagesPerSegment;
+        }
+        long lo = start;
+        long hi = numSegments * pagesPerSegment;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (this.isWritten(mid)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // the log ends at the first page that is not written, from the batch before on
+        long end = Math.max(start, lo - FORCE_BATCH_PAGES);
+        while (end < numSegments * pagesPerSegment && this.isWritten(end)) {
+            ++end;
+        }
+        this.clearPages(end, Math.min(lo + FORCE_BATCH_PAGES, numSegments * pagesPerSegment));
+        this.nextPageNum = end;
+        this.flushedLSN = lsnFormat.maxLSN(end - 1L);
+    }
+
+    /**
+     * @param dir directory that may hold a log
+     * @return whether dir holds the segment files of a log
+     */
+    public static boolean exists(Path dir) {
+        if (!Files.isDirectory(dir)) {
+            return false;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*")) {
+            return stream.iterator().hasNext();
+        } catch (IOException e) {
+            throw new PageException("could not open log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes to the first record in the log.
+     *
+     * @param record log record to replace first record with
+     */
+    @Override
+    public void rewriteMasterRecord(MasterLogRecord record) {
+        byte[] bytes = record.toBytes();
+        synchronized (flushLock) {
+            boolean inMemory = false;
+            synchronized (this) {
+                for (LogBuffer buffer : unflushed) {
+                    if (buffer.pageNum == 0) {
+                        System.arraycopy(bytes, 0, buffer.bytes, 0, bytes.length);
+                        inMemory = true;
+                    }
+                }
+            }
+            if (inMemory) {
+                this.flushToLSN(lsnFormat.maxLSN(0));
+                return;
+            }
+            try {
+                FileChannel channel = this.segment(0, true);
+                this.writeFully(channel, java.nio.ByteBuffer.wrap(bytes), 0);
+                channel.force(false);
+            } catch (IOException e) {
+                throw new PageException("could not write log: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Appends a log record to the log.
+     *
+     * @param record log record to append to the log
+     * @return LSN of new log record
+     */
+    @Override
+    public long appendToLog(LogRecord record) {
+        byte[] bytes = record.toBytes();
+        if (bytes.length > capacity) {
+            throw new IllegalArgumentException("log record of " + bytes.length + " bytes does not fit on a log page");
+        }
+        while (true) {
+            LogBuffer current = tail;
+            if (current != null) {
+                int pos = current.reserve(bytes.length, capacity);
+                if (pos >= 0) {
+                    System.arraycopy(bytes, 0, current.bytes, pos, bytes.length);
+                    current.publish(pos, bytes.length);
+                    long LSN = lsnFormat.makeLSN(current.pageNum, pos);
+                    record.LSN = LSN;
+                    return LSN;
+                }
+            }
+            // the tail is full (or was flushed): start a new one, unless another writer already has
+            long fullPageNum = -1;
+            synchronized (this) {
+                if (tail == current) {
+                    tail = new LogBuffer(nextPageNum++, this.takeBuffer());
+                    unflushed.add(tail);
+                    if (unflushed.size() > MAX_UNFLUSHED_PAGES) {
+                        fullPageNum = tail.pageNum - 1;
+                    }
+                }
+            }
+            if (fullPageNum >= 0) {
+                // write out the full pages, so the log does not grow without bound in memory
+                this.flushToLSN(lsnFormat.maxLSN(fullPageNum));
+            }
+        }
+    }
+
+    /**
+     * Fetches a specific log record.
+     *
+     * @param LSN LSN of record to fetch
+     * @return log record with the specified LSN
+     */
+    @Override
+    public LogRecord fetchLogRecord(long LSN) {
+        byte[] page = this.readPage(lsnFormat.getLSNPage(LSN));
+        if (page == null || lsnFormat.getLSNIndex(LSN) >= capacity) {
+            return null;
+        }
+        Buffer buf = ByteBuffer.wrap(page);
+        buf.position(lsnFormat.getLSNIndex(LSN));
+        Optional<LogRecord> record = LogRecord.fromBytes(buf);
+        record.ifPresent((LogRecord e) -> e.setLSN(LSN));
+        return record.orElse(null);
+    }
+
+    /**
+     * Flushes the log to at least the specified record,
+     * essentially flushing up to and including the page
+     * that contains the record specified by the LSN.
+     *
+     * @param LSN LSN up to which the log should be flushed
+     */
+    @Override
+    public void flushToLSN(long LSN) {
+        long pageNum = lsnFormat.getLSNPage(LSN);
+        synchronized (flushLock) {
+            List<LogBuffer> pages = new ArrayList<>();
+            synchronized (this) {
+                for (LogBuffer buffer : unflushed) {
+                    if (buffer.pageNum > pageNum) {
+                        break;
+                    }
+                    pages.add(buffer);
+                    if (buffer == tail) {
+                        // swap the tail out: later records go to a new log page
+                        buffer.seal(capacity);
+                        tail = null;
+                    }
+                }
+            }
+            if (!pages.isEmpty()) {
+                this.writePages(pages);
+                synchronized (this) {
+                    for (LogBuffer buffer : pages) {
+                        unflushed.remove(buffer);
+                        if (spareBuffers.size() < MAX_SPARE_BUFFERS) {
+                            Arrays.fill(buffer.bytes, (byte) 0);
+                            spareBuffers.add(buffer.bytes);
+                        }
+                    }
+                }
+            }
+            flushedLSN = Math.max(flushedLSN, lsnFormat.maxLSN(pageNum));
+        }
+    }
+
+    /**
+     * @return size in bytes of the largest log record that fits on a log page, which leaves room
+     * for the checksum
+     */
+    @Override
+    public int getMaxRecordSize() {
+        return capacity;
+    }
+
+    /**
+     * Scan forward in the log from LSN.
+     *
+     * @param LSN LSN to start scanning from
+     * @return iterator over log entries from LSN
+     */
+    @Override
+    public Iterator<LogRecord> scanFrom(long LSN) {
+        return new LogIterator(LSN);
+    }
+
+    /**
+     * Deletes the segments (other than segment 0) that only hold log pages before the page of
+     * LSN.
+     *
+     * @param LSN no log record before this LSN is needed anymore, other than the master record
+     * @return number of log pages reclaimed
+     */
+    @Override
+    public int truncate(long LSN) {
+        long firstKept = lsnFormat.getLSNPage(LSN) / pagesPerSegment;
+        int numPages = 0;
+        synchronized (segments) {
+            try {
+                for (long s = firstLiveSegment; s < firstKept; ++s) {
+                    FileChannel channel = segments.remove(s);
+                    if (channel != null) {
+                        channel.close();
+                    }
+                    if (Files.deleteIfExists(dir.resolve(SEGMENT_PREFIX + s))) {
+                        numPages += pagesPerSegment;
+                    }
+                }
+            } catch (IOException e) {
+                throw new PageException("could not truncate log: " + e.getMessage());
+            }
+            firstLiveSegment = Math.max(firstLiveSegment, firstKept);
+        }
+        return numPages;
+    }
+
+    @Override
+    public void close() {
+        long lastPageNum;
+        synchronized (this) {
+            lastPageNum = nextPageNum - 1;
+        }
+        this.flushToLSN(lsnFormat.maxLSN(lastPageNum));
+        synchronized (segments) {
+            try {
+                for (FileChannel channel : segments.values()) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                throw new PageException("could not close log: " + e.getMessage());
+            } finally {
+                segments.clear();
+            }
+        }
+    }
+
+    /**
+     * @return a zeroed buffer for a new log page
+     */
+    private byte[] takeBuffer() {
+        byte[] bytes = spareBuffers.poll();
+        return bytes == null ? new byte[pageSize] : bytes;
+    }
+
+    /**
+     * Writes log pages out to their segments, and forces the segments to disk after every
+     * FORCE_BATCH_PAGES pages and after the last page.
+     *
+     * @param pages log pages, in order
+     */
+    private void writePages(List<LogBuffer> pages) {
+        try {
+            Set<FileChannel> written = new LinkedHashSet<>();
+            for (int i = 0; i < pages.size(); ++i) {
+                LogBuffer buffer = pages.get(i);
+                // only full or sealed pages are written, so their contents are final once their
+                // records are published
+                buffer.awaitWritten();
+                this.stampChecksum(buffer.bytes);
+                FileChannel channel = this.segment(buffer.pageNum / pagesPerSegment, true);
+                this.writeFully(channel, java.nio.ByteBuffer.wrap(buffer.bytes),
+                                (buffer.pageNum % pagesPerSegment) * pageSize);
+                written.add(channel);
+                if ((i + 1) % FORCE_BATCH_PAGES == 0 || i == pages.size() - 1) {
+                    for (FileChannel c : written) {
+                        c.force(false);
+                    }
+                    written.clear();
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not write log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stores the checksum of the records of a log page at the end of the page.
+     */
+    private void stampChecksum(byte[] page) {
+        ByteBuffer.wrap(page).putInt(capacity, this.checksum(page));
+    }
+
+    private int checksum(byte[] page) {
+        CRC32 crc = new CRC32();
+        crc.update(page, 0, capacity);
+        return (int) crc.getValue();
+    }
+
+    private void writeFully(FileChannel channel, java.nio.ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    /**
+     * Reads a log page, from memory if it has not been written out yet.
+     *
+     * @param pageNum log page number
+     * @return copy of the log page, or null if there is no such log page
+     */
+    private byte[] readPage(long pageNum) {
+        synchronized (this) {
+            if (pageNum < 0 || pageNum >= nextPageNum) {
+                return null;
+            }
+            for (LogBuffer buffer : unflushed) {
+                if (buffer.pageNum == pageNum) {
+                    // records after the written offset may be only partly copied in
+                    byte[] bytes = new byte[pageSize];
+                    System.arraycopy(buffer.bytes, 0, bytes, 0, buffer.written.get());
+                    return bytes;
+                }
+            }
+        }
+        // pages leave memory only once they are written, so the page is in its segment
+        return this.readFromDisk(pageNum);
+    }
+
+    /**
+     * Reads a log page from its segment.
+     *
+     * @param pageNum log page number
+     * @return the log page, all zeros if its segment does not exist
+     */
+    private byte[] readFromDisk(long pageNum) {
+        byte[] bytes = new byte[pageSize];
+        try {
+            FileChannel channel = this.segment(pageNum / pagesPerSegment, false);
+            if (channel != null) {
+                java.nio.ByteBuffer buf = java.nio.ByteBuffer.wrap(bytes);
+                long position = (pageNum % pagesPerSegment) * pageSize;
+                while (buf.hasRemaining()) {
+                    int read = channel.read(buf, position + buf.position());
+                    if (read < 0) {
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new PageException("could not read log: " + e.getMessage());
+        }
+        return bytes;
+    }
+
+    /**
+     * @return whether the log page on disk was fully written: its checksum matches, or for the
+     * first page (whose master record is rewritten in place without updating the checksum), it
+     * starts with a log record
+     */
+    private boolean isWritten(long pageNum) {
+        byte[] page = this.readFromDisk(pageNum);
+        if (pageNum == 0) {
+            return page[0] != 0;
+        }
+        return ByteBuffer.wrap(page).getInt(capacity) == this.checksum(page);
+    }
+
+    /**
+     * Zeroes the log pages on disk in [from, to) that are not all zeros, and forces them to disk.
+     */
+    private void clearPages(long from, long to) {
+        byte[] zeros = new byte[pageSize];
+        try {
+            Set<FileChannel> written = new LinkedHashSet<>();
+            for (long p = from; p < to; ++p) {
+                if (Arrays.equals(this.readFromDisk(p), zeros)) {
+                    continue;
+                }
+                FileChannel channel = this.segment(p / pagesPerSegment, false);
+                this.writeFully(channel, java.nio.ByteBuffer.wrap(zeros), (p % pagesPerSegment) * pageSize);
+                written.add(channel);
+            }
+            for (FileChannel channel : written) {
+                channel.force(false);
+            }
+        } catch (IOException e) {
+            throw new PageException("could not clear log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param pageNum log page number
+     * @return pageNum, or the first page after it that was not deleted by truncate
+     */
+    private long skipTruncated(long pageNum) {
+        long firstLivePage = firstLiveSegment * pagesPerSegment;
+        return pageNum >= pagesPerSegment && pageNum < firstLivePage ? firstLivePage : pageNum;
+    }
+
+    /**
+     * Opens a segment file, creating it (filled with zeros) if asked to.
+     *
+     * @param segmentNum segment number
+     * @param create     whether to create the segment if it does not exist
+     * @return the segment file, or null if it does not exist and create is false
+     */
+    private FileChannel segment(long segmentNum, boolean create) throws IOException {
+        synchronized (segments) {
+            FileChannel channel = segments.get(segmentNum);
+            if (channel != null) {
+                return channel;
+            }
+            Path path = dir.resolve(SEGMENT_PREFIX + segmentNum);
+            if (!Files.exists(path)) {
+                if (!create) {
+                    return null;
+                }
+                // preallocate the whole segment, so appends never grow the file
+                Path tmp = dir.resolve(SEGMENT_PREFIX + segmentNum + ".tmp");
+                try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    java.nio.ByteBuffer zeros = java.nio.ByteBuffer.allocate(pageSize);
+                    for (int i = 0; i < pagesPerSegment; ++i) {
+                        zeros.clear();
+                        this.writeFully(out, zeros, (long) i * pageSize);
+                    }
+                    out.force(true);
+                }
+                Files.move(tmp, path);
+            }
+            channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments.put(segmentNum, channel);
+            return channel;
+        }
+    }
+
+    /**
+     * Iterator over the records of the log, from a given LSN on. Reads one log page at a time.
+     */
+    private class LogIterator implements Iterator<LogRecord> {
+        private long pageNum;
+        private byte[] page;
+        private int index;
+        private LogRecord next;
+
+        private LogIterator(long LSN) {
+            this.pageNum = skipTruncated(lsnFormat.getLSNPage(LSN));
+            this.index = this.pageNum == lsnFormat.getLSNPage(LSN) ? lsnFormat.getLSNIndex(LSN) : 0;
+            this.page = readPage(this.pageNum);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && page != null) {
+                if (index < capacity) {
+                    Buffer buf = ByteBuffer.wrap(page);
+                    buf.position(index);
+                    Optional<LogRecord> record = LogRecord.fromBytes(buf);
+                    if (record.isPresent()) {
+                        next = record.get();
+                        next.setLSN(lsnFormat.makeLSN(pageNum, index));
+                        index = buf.position();
+                        break;
+                    }
+                }
+                pageNum = skipTruncated(pageNum + 1);
+                page = readPage(pageNum);
+                index = 0;
+            }
+            return next != null;
+        }
+
+        @Override
+        public LogRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LogRecord record = next;
+            next = null;
+            return record;
+        }
+    }
+}
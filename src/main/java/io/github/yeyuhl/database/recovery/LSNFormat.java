@@ -0,0 +1,143 @@
+package io.github.yeyuhl.database.recovery;
+
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.io.PageException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * How an LSN is built from the number of the log page a record is on and the offset of the
+ * record within that page. LSNs are stored in the master record, in log records and in the
+ * pageLSN of every data page, so a database keeps the format it was created with; the format
+ * is recorded in the LSN_FORMAT_FILE file of the database directory.
+ */
+public enum LSNFormat {
+    /**
+     * page number * 10000 + offset, for log pages of up to 8KB. Used by databases created
+     * before the format was recorded.
+     */
+    DECIMAL {
+        @Override
+        long makeLSN(long pageNum, int index) {
+            return DiskSpaceManager.getPageNum(pageNum) * 10000L + index;
+        }
+
+        @Override
+        long maxLSN(long pageNum) {
+            return makeLSN(pageNum, 9999);
+        }
+
+        @Override
+        long getLSNPage(long LSN) {
+            return LSN / 10000L;
+        }
+
+        @Override
+        int getLSNIndex(long LSN) {
+            return (int) (LSN % 10000L);
+        }
+    },
+
+    /**
+     * page number in the high bits, offset in the low INDEX_BITS bits, for log pages of up
+     * to 64KB (DiskSpaceManagerImpl.MAX_PAGE_SIZE).
+     */
+    BINARY {
+        @Override
+        long makeLSN(long pageNum, int index) {
+            return ((long) DiskSpaceManager.getPageNum(pageNum) << INDEX_BITS) | index;
+        }
+
+        @Override
+        long maxLSN(long pageNum) {
+            return makeLSN(pageNum, INDEX_MASK);
+        }
+
+        @Override
+        long getLSNPage(long LSN) {
+            return LSN >>> INDEX_BITS;
+        }
+
+        @Override
+        int getLSNIndex(long LSN) {
+            return (int) (LSN & INDEX_MASK);
+        }
+    };
+
+    public static final String LSN_FORMAT_FILE = "lsn_format";
+
+    static final int INDEX_BITS = 16;
+    static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+
+    /**
+     * Generates LSN from log page number and index
+     *
+     * @param pageNum page number of log page
+     * @param index   index of the log record within the log page
+     * @return LSN
+     */
+    abstract long makeLSN(long pageNum, int index);
+
+    /**
+     * Generates the max possible LSN on the given page
+     *
+     * @param pageNum page number of log page
+     * @return max possible LSN on the log page
+     */
+    abstract long maxLSN(long pageNum);
+
+    /**
+     * Get the page number of the page with the record corresponding to LSN
+     *
+     * @param LSN LSN to get page of
+     * @return page that LSN resides on
+     */
+    abstract long getLSNPage(long LSN);
+
+    /**
+     * Get the index within the page of the record corresponding to LSN
+     *
+     * @param LSN LSN to get index of
+     * @return index in page that LSN resides on
+     */
+    abstract int getLSNIndex(long LSN);
+
+    /**
+     * Records this format in dir. Called when the database in dir is created.
+     *
+     * @param dir database directory
+     */
+    public void write(Path dir) {
+        try {
+            Files.write(dir.resolve(LSN_FORMAT_FILE), this.name().getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new PageException("could not write LSN format: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param dir directory of an existing database
+     * @return the format recorded in dir, or DECIMAL if none is (the database was created
+     * before the format was recorded)
+     */
+    public static LSNFormat read(Path dir) {
+        Path file = dir.resolve(LSN_FORMAT_FILE);
+        if (!Files.exists(file)) {
+            return DECIMAL;
+        }
+        String name;
+        try {
+            name = new String(Files.readAllBytes(file), StandardCharsets.US_ASCII).trim();
+        } catch (IOException e) {
+            throw new PageException("could not read LSN format: " + e.getMessage());
+        }
+        try {
+            return LSNFormat.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new PageException("unknown LSN format in " + file + ": " + name);
+        }
+    }
+}
@@ -8,6 +8,7 @@ import io.github.yeyuhl.database.common.iterator.IndexBacktrackingIterator;
 import io.github.yeyuhl.database.concurrency.DummyLockContext;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
 import io.github.yeyuhl.database.io.PageException;
+import io.github.yeyuhl.database.memory.AccessHint;
 import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.Page;
 import io.github.yeyuhl.database.recovery.records.MasterLogRecord;
@@ -17,11 +18,13 @@ import java.util.*;
 /**
  * The LogManager is responsible for interfacing with the log itself. The log is stored
  * on its own partition (partition 0). Since log pages are never deleted, the page number
- * is always increasing, so we assign LSNs as follow:
- * - page 1: [ LSN 10000, LSN 10040, LSN 10080, ...]
- * - page 2: [ LSN 20000, LSN 20030, LSN 20055, ...]
- * - page 3: [ LSN 30000, LSN 30047, LSN 30090, ...]
- * allowing for up to 10,000 log entries per page. The index (last 4 digits) is the offset
+ * is always increasing, so we assign LSNs as follow (page number in the high bits, and
+ * offset within the page in the low 16 bits, see LSNFormat.BINARY; databases created
+ * before the LSN format was recorded use LSNFormat.DECIMAL instead):
+ * - page 1: [ LSN 0x10000, LSN 0x10028, LSN 0x10050, ...]
+ * - page 2: [ LSN 0x20000, LSN 0x2001e, LSN 0x20037, ...]
+ * - page 3: [ LSN 0x30000, LSN 0x3002f, LSN 0x3005a, ...]
+ * allowing for log pages of up to 64KB. The index (low 16 bits) is the offset
  * within the page where the log record starts. Log entries are not fixed width,
  * so backwards iteration is not as easy as forward iteration. Page 0 is reserved for the
  * master record, which only contains a few log entries: the master record, with LSN 0, followed
@@ -40,12 +43,36 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     private Page logTail;
     private Buffer logTailBuffer;
     private boolean logTailPinned = false;
-    private long flushedLSN;
+    volatile long flushedLSN;
+
+    // Group commit: committers waiting for the log to be flushed. The first committer to find
+    // no flush in progress becomes the leader and flushes up to the largest LSN requested by
+    // any committer so far; the others wait for it, and return if the flush covered them.
+    private final Object groupCommitLock = new Object();
+    private boolean groupFlushInProgress = false;
+    private long groupFlushRequestedLSN = 0;
+    private int numGroupCommitters = 0;
+
+    // How long a leader waits for more committers to join its flush, if any other committer
+    // is already waiting; 0 to flush right away
+    private volatile long commitDelayMicros = 0;
+
+    // Number of group flushes, and number of commits they made durable
+    private long numGroupFlushes = 0;
+    private long numGroupCommits = 0;
 
     public static final int LOG_PARTITION = 0;
 
+    // How LSNs are built from log page numbers and offsets in this log
+    final LSNFormat lsnFormat;
+
     LogManager(BufferManager bufferManager) {
+        this(bufferManager, LSNFormat.BINARY);
+    }
+
+    LogManager(BufferManager bufferManager, LSNFormat lsnFormat) {
         this.bufferManager = bufferManager;
+        this.lsnFormat = lsnFormat;
         this.unflushedLogTail = new ArrayDeque<>();
 
         this.logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
@@ -53,7 +80,16 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         this.logTailBuffer = this.logTail.getBuffer();
         this.logTail.unpin();
 
-        this.flushedLSN = maxLSN(this.logTail.getPageNum() - 1L);
+        this.flushedLSN = lsnFormat.maxLSN(this.logTail.getPageNum() - 1L);
+    }
+
+    /**
+     * Constructor for log managers that keep the log somewhere other than the buffer manager,
+     * and override every method that accesses log pages.
+     */
+    LogManager(LSNFormat lsnFormat) {
+        this.unflushedLogTail = new ArrayDeque<>();
+        this.lsnFormat = lsnFormat;
     }
 
     /**
@@ -81,9 +117,11 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         byte[] bytes = record.toBytes();
         // loop in case accessing log tail requires flushing the log in order to evict dirty page to load log tail
         do {
-            if (logTailBuffer == null || bytes.length > DiskSpaceManager.PAGE_SIZE - logTailBuffer.position()) {
+            if (logTailBuffer == null || bytes.length > bufferManager.getPageSize() - logTailBuffer.position()) {
                 logTailPinned = true;
-                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION);
+                // log pages are written once, and only read again by rollbacks and recovery
+                logTail = bufferManager.fetchNewPage(new DummyLockContext("_dummyLogPageRecord"), LOG_PARTITION,
+                        AccessHint.BULK_WRITE);
                 unflushedLogTail.add(logTail);
                 logTailBuffer = logTail.getBuffer();
             } else {
@@ -97,7 +135,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         try {
             int pos = logTailBuffer.position();
             logTailBuffer.put(bytes);
-            long LSN = makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
+            long LSN = lsnFormat.makeLSN(unflushedLogTail.getLast().getPageNum(), pos);
             record.LSN = LSN;
             return LSN;
         } finally {
@@ -114,10 +152,10 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      */
     public LogRecord fetchLogRecord(long LSN) {
         try {
-            Page logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), getLSNPage(LSN));
+            Page logPage = bufferManager.fetchPage(new DummyLockContext("_dummyLogPageRecord"), lsnFormat.getLSNPage(LSN));
             try {
                 Buffer buf = logPage.getBuffer();
-                buf.position(getLSNIndex(LSN));
+                buf.position(lsnFormat.getLSNIndex(LSN));
                 Optional<LogRecord> record = LogRecord.fromBytes(buf);
                 record.ifPresent((LogRecord e) -> e.setLSN(LSN));
                 return record.orElse(null);
@@ -138,16 +176,19 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
      */
     public synchronized void flushToLSN(long LSN) {
         Iterator<Page> iter = unflushedLogTail.iterator();
-        long pageNum = getLSNPage(LSN);
+        long pageNum = lsnFormat.getLSNPage(LSN);
+        List<Long> pageNums = new ArrayList<>();
         while (iter.hasNext()) {
             Page page = iter.next();
             if (page.getPageNum() > pageNum) {
                 break;
             }
-            page.flush();
+            pageNums.add(page.getPageNum());
             iter.remove();
         }
-        flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
+        // log pages are allocated in order, so the pages flushed here are usually written out together
+        bufferManager.flushPages(pageNums);
+        flushedLSN = Math.max(flushedLSN, lsnFormat.maxLSN(pageNum));
         if (unflushedLogTail.size() == 0) {
             if (!logTailPinned) {
                 logTail = null;
@@ -156,6 +197,118 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         }
     }
 
+    /**
+     * Flushes the log to at least the specified record on behalf of a committing transaction,
+     * sharing the flush with other transactions committing at the same time (group commit).
+     *
+     * If no group flush is in progress, the caller becomes the leader: it waits for the commit
+     * delay (only if other committers are waiting too, so a lone committer is never delayed),
+     * then flushes up to the largest LSN requested by every committer so far. Otherwise the
+     * caller waits for the flush in progress, and returns right away if it covered its LSN.
+     * Concurrent commits therefore write out the log tail together, instead of one by one.
+     *
+     * @param LSN LSN up to which the log should be flushed
+     */
+    public void groupFlushToLSN(long LSN) {
+        synchronized (groupCommitLock) {
+            ++numGroupCommitters;
+            try {
+                groupFlushRequestedLSN = Math.max(groupFlushRequestedLSN, LSN);
+                while (groupFlushInProgress) {
+                    try {
+                        groupCommitLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                ++numGroupCommits;
+                if (flushedLSN >= LSN) {
+                    return;
+                }
+                groupFlushInProgress = true;
+            } finally {
+                --numGroupCommitters;
+            }
+        }
+        try {
+            long delay = commitDelayMicros;
+            boolean siblings;
+            synchronized (groupCommitLock) {
+                siblings = numGroupCommitters > 0;
+            }
+            if (delay > 0 && siblings) {
+                try {
+                    Thread.sleep(delay / 1000, (int) (delay % 1000) * 1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            long target;
+            synchronized (groupCommitLock) {
+                target = groupFlushRequestedLSN;
+            }
+            flushToLSN(target);
+        } finally {
+            synchronized (groupCommitLock) {
+                ++numGroupFlushes;
+                groupFlushInProgress = false;
+                groupCommitLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Sets how long the leader of a group commit waits for more committers to join its flush,
+     * when other committers are already waiting. Longer delays make larger groups under heavy
+     * commit traffic, at the cost of commit latency.
+     *
+     * @param micros commit delay in microseconds; 0 to flush right away
+     */
+    public void setCommitDelay(long micros) {
+        if (micros < 0) {
+            throw new IllegalArgumentException("commit delay must be non-negative");
+        }
+        this.commitDelayMicros = micros;
+    }
+
+    /**
+     * @return number of flushes made by group commit leaders
+     */
+    public long getNumGroupFlushes() {
+        synchronized (groupCommitLock) {
+            return numGroupFlushes;
+        }
+    }
+
+    /**
+     * @return number of commits made durable by group commit (average group size is this
+     * divided by getNumGroupFlushes)
+     */
+    public long getNumGroupCommits() {
+        synchronized (groupCommitLock) {
+            return numGroupCommits;
+        }
+    }
+
+    /**
+     * Reclaims the space of log pages that are no longer needed. The log pages of the log
+     * partition are never reclaimed: freed page numbers would be handed out again, and log
+     * pages must stay in order.
+     *
+     * @param LSN no log record before this LSN is needed anymore, other than the master record
+     * @return number of log pages reclaimed
+     */
+    public int truncate(long LSN) {
+        return 0;
+    }
+
+    /**
+     * @return size in bytes of the largest log record that fits on a log page
+     */
+    public int getMaxRecordSize() {
+        return bufferManager.getPageSize();
+    }
+
     /**
      * @return flushedLSN
      */
@@ -164,44 +317,47 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     }
 
     /**
-     * Generates LSN from log page number and index
+     * Generates LSN from log page number and index, in the format of new databases
+     * (LSNFormat.BINARY)
      *
      * @param pageNum page number of log page
      * @param index   index of the log record within the log page
      * @return LSN
      */
     static long makeLSN(long pageNum, int index) {
-        return DiskSpaceManager.getPageNum(pageNum) * 10000L + index;
+        return LSNFormat.BINARY.makeLSN(pageNum, index);
     }
 
     /**
-     * Generates the max possible LSN on the given page
+     * Generates the max possible LSN on the given page, in the format of new databases
      *
      * @param pageNum page number of log page
      * @return max possible LSN on the log page
      */
     static long maxLSN(long pageNum) {
-        return makeLSN(pageNum, 9999);
+        return LSNFormat.BINARY.maxLSN(pageNum);
     }
 
     /**
-     * Get the page number of the page with the record corresponding to LSN
+     * Get the page number of the page with the record corresponding to LSN, in the format of
+     * new databases
      *
      * @param LSN LSN to get page of
      * @return page that LSN resides on
      */
     static long getLSNPage(long LSN) {
-        return LSN / 10000L;
+        return LSNFormat.BINARY.getLSNPage(LSN);
     }
 
     /**
-     * Get the index within the page of the record corresponding to LSN
+     * Get the index within the page of the record corresponding to LSN, in the format of new
+     * databases
      *
      * @param LSN LSN to get index of
      * @return index in page that LSN resides on
      */
     static int getLSNIndex(long LSN) {
-        return (int) (LSN % 10000L);
+        return LSNFormat.BINARY.getLSNIndex(LSN);
     }
 
     /**
@@ -227,7 +383,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
     @Override
     public synchronized void close() {
         if (!this.unflushedLogTail.isEmpty()) {
-            this.flushToLSN(maxLSN(unflushedLogTail.getLast().getPageNum()));
+            this.flushToLSN(lsnFormat.maxLSN(unflushedLogTail.getLast().getPageNum()));
         }
     }
 
@@ -236,7 +392,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         private int startIndex;
 
         private LogPageIterator(Page logPage, int startIndex) {
-            super(DiskSpaceManager.PAGE_SIZE);
+            super(bufferManager.getPageSize());
             this.logPage = logPage;
             this.startIndex = startIndex;
             this.logPage.unpin();
@@ -259,7 +415,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 if (LogRecord.fromBytes(buf).isPresent()) {
                     return currentIndex;
                 } else {
-                    return DiskSpaceManager.PAGE_SIZE;
+                    return bufferManager.getPageSize();
                 }
             } finally {
                 logPage.unpin();
@@ -273,7 +429,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 Buffer buf = logPage.getBuffer();
                 buf.position(index);
                 LogRecord record = LogRecord.fromBytes(buf).orElseThrow(NoSuchElementException::new);
-                record.setLSN(makeLSN(logPage.getPageNum(), index));
+                record.setLSN(lsnFormat.makeLSN(logPage.getPageNum(), index));
                 return record;
             } finally {
                 logPage.unpin();
@@ -286,10 +442,10 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
         private long nextIndex;
 
         private LogPagesIterator(long startLSN) {
-            nextIndex = getLSNPage(startLSN);
+            nextIndex = lsnFormat.getLSNPage(startLSN);
             try {
-                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
-                nextIter = new LogPageIterator(page, getLSNIndex(startLSN));
+                Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex, AccessHint.SEQUENTIAL_SCAN);
+                nextIter = new LogPageIterator(page, lsnFormat.getLSNIndex(startLSN));
             } catch (PageException e) {
                 nextIter = null;
             }
@@ -325,7 +481,7 @@ public class LogManager implements Iterable<LogRecord>, AutoCloseable {
                 do {
                     ++nextIndex;
                     try {
-                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex);
+                        Page page = bufferManager.fetchPage(new DummyLockContext(), nextIndex, AccessHint.SEQUENTIAL_SCAN);
                         nextIter = new LogPageIterator(page, 0);
                     } catch (PageException e) {
                         break;
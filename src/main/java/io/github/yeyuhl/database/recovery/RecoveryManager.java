@@ -87,6 +87,25 @@ public interface RecoveryManager extends AutoCloseable {
     long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
                       byte[] after);
 
+    /**
+     * Called when a single write to a page changes several ranges of bytes.
+     * <p>
+     * This method is never called on a log page. The bytes of the ranges are
+     * stored back to back in before and after, in the order of the ranges; the
+     * arrays may be longer than the ranges, and are not kept after this returns.
+     *
+     * @param transNum  transaction performing the write
+     * @param pageNum   page number of page being written
+     * @param numRanges number of ranges changed by the write
+     * @param offsets   offset into page where each range begins
+     * @param lengths   number of bytes in each range
+     * @param before    bytes of every range before the write
+     * @param after     bytes of every range after the write
+     * @return LSN of last record written to log
+     */
+    long logPageWrites(long transNum, long pageNum, int numRanges, short[] offsets, short[] lengths,
+                       byte[] before, byte[] after);
+
     /**
      * Called when a new partition is allocated. A log flush is necessary,
      * since changes are visible on disk immediately after this returns.
@@ -12,6 +12,8 @@ class TransactionTableEntry {
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
+    // LSN that every log record of the transaction comes after, or 0 if unknown.
+    long startLSN = 0;
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
 
@@ -68,8 +68,16 @@ public class EndCheckpointLogRecord extends LogRecord {
      * the log record can fit in one record on a page
      */
     public static boolean fitsInOneRecord(int numDPTRecords, int numTxnTableRecords) {
+        return fitsInOneRecord(numDPTRecords, numTxnTableRecords, DiskSpaceManager.PAGE_SIZE);
+    }
+
+    /**
+     * @return boolean indicating whether information for
+     * the log record can fit in one record on a log page of the given size
+     */
+    public static boolean fitsInOneRecord(int numDPTRecords, int numTxnTableRecords, int pageSize) {
         int recordSize = getRecordSize(numDPTRecords, numTxnTableRecords);
-        return recordSize <= DiskSpaceManager.PAGE_SIZE;
+        return recordSize <= pageSize;
     }
 
     public static Optional<LogRecord> fromBytes(Buffer buf) {
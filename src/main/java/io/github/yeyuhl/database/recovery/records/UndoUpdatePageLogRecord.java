@@ -19,7 +19,7 @@ public class UndoUpdatePageLogRecord extends LogRecord {
     private long pageNum;
     private long prevLSN;
     private long undoNextLSN;
-    public short offset;
+    public short offset; // unsigned, as pages may exceed 32KB
     public byte[] after;
 
     public UndoUpdatePageLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN, short offset,
@@ -64,7 +64,7 @@ public class UndoUpdatePageLogRecord extends LogRecord {
 
         Page page = bm.fetchPage(new DummyLockContext("_dummyUndoUpdatePageRecord"), pageNum);
         try {
-            page.getBuffer().position(offset).put(after);
+            page.getBuffer().position(Short.toUnsignedInt(offset)).put(after);
             page.setPageLSN(getLSN());
         } finally {
             page.unpin();
@@ -136,7 +136,7 @@ public class UndoUpdatePageLogRecord extends LogRecord {
                ", pageNum=" + pageNum +
                ", prevLSN=" + prevLSN +
                ", undoNextLSN=" + undoNextLSN +
-               ", offset=" + offset +
+               ", offset=" + Short.toUnsignedInt(offset) +
                ", after=" + Arrays.toString(after) +
                ", LSN=" + LSN +
                '}';
@@ -0,0 +1,157 @@
+package io.github.yeyuhl.database.recovery.records;
+
+import io.github.yeyuhl.database.common.Buffer;
+import io.github.yeyuhl.database.common.ByteBuffer;
+import io.github.yeyuhl.database.concurrency.DummyLockContext;
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.memory.BufferManager;
+import io.github.yeyuhl.database.memory.Page;
+import io.github.yeyuhl.database.recovery.LogRecord;
+import io.github.yeyuhl.database.recovery.LogType;
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+public class UndoUpdatePageRangesLogRecord extends LogRecord {
+    private long transNum;
+    private long pageNum;
+    private long prevLSN;
+    private long undoNextLSN;
+    public short[] offsets; // unsigned, as pages may exceed 32KB
+    public short[] lengths; // unsigned
+    public byte[] after;
+
+    public UndoUpdatePageRangesLogRecord(long transNum, long pageNum, long prevLSN, long undoNextLSN,
+                                         short[] offsets, short[] lengths, byte[] after) {
+        super(LogType.UNDO_UPDATE_PAGE_RANGES);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.undoNextLSN = undoNextLSN;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.after = after;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public Optional<Long> getUndoNextLSN() {
+        return Optional.of(undoNextLSN);
+    }
+
+    @Override
+    public boolean isRedoable() {
+        return true;
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyUndoUpdatePageRangesRecord"), pageNum);
+        try {
+            Buffer buf = page.getBuffer();
+            int pos = 0;
+            for (int i = 0; i < offsets.length; ++i) {
+                int length = Short.toUnsignedInt(lengths[i]);
+                buf.position(Short.toUnsignedInt(offsets[i])).put(Arrays.copyOfRange(after, pos, pos + length));
+                pos += length;
+            }
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+        rm.dirtyPage(pageNum, getLSN());
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[35 + 4 * offsets.length + after.length];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putLong(pageNum)
+                     .putLong(prevLSN)
+                     .putLong(undoNextLSN)
+                     .putShort((short) offsets.length);
+        for (int i = 0; i < offsets.length; ++i) {
+            buf.putShort(offsets[i]).putShort(lengths[i]);
+        }
+        buf.put(after);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        long undoNextLSN = buf.getLong();
+        short numRanges = buf.getShort();
+        short[] offsets = new short[numRanges];
+        short[] lengths = new short[numRanges];
+        int numBytes = 0;
+        for (int i = 0; i < numRanges; ++i) {
+            offsets[i] = buf.getShort();
+            lengths[i] = buf.getShort();
+            numBytes += Short.toUnsignedInt(lengths[i]);
+        }
+        byte[] after = new byte[numBytes];
+        buf.get(after);
+        return Optional.of(new UndoUpdatePageRangesLogRecord(transNum, pageNum, prevLSN, undoNextLSN, offsets,
+                           lengths, after));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UndoUpdatePageRangesLogRecord that = (UndoUpdatePageRangesLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               undoNextLSN == that.undoNextLSN &&
+               Arrays.equals(offsets, that.offsets) &&
+               Arrays.equals(lengths, that.lengths) &&
+               Arrays.equals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN, undoNextLSN);
+        result = 31 * result + Arrays.hashCode(offsets);
+        result = 31 * result + Arrays.hashCode(lengths);
+        result = 31 * result + Arrays.hashCode(after);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UndoUpdatePageRangesLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", prevLSN=" + prevLSN +
+               ", undoNextLSN=" + undoNextLSN +
+               ", offsets=" + Arrays.toString(offsets) +
+               ", lengths=" + Arrays.toString(lengths) +
+               ", after=" + Arrays.toString(after) +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
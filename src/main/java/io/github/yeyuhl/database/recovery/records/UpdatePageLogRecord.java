@@ -18,7 +18,7 @@ public class UpdatePageLogRecord extends LogRecord {
     private long transNum; // transaction that updated the page
     private long pageNum; // page that was updated
     private long prevLSN; // previous log's LSN
-    public short offset; // position of first changed byte
+    public short offset; // position of first changed byte (unsigned, as pages may exceed 32KB)
     public byte[] before; // old bytes (before update)
     public byte[] after; // new bytes (after update)
 
@@ -76,7 +76,7 @@ public class UpdatePageLogRecord extends LogRecord {
 
         Page page = bm.fetchPage(new DummyLockContext("_dummyUpdatePageRecord"), pageNum);
         try {
-            page.getBuffer().position(offset).put(after);
+            page.getBuffer().position(Short.toUnsignedInt(offset)).put(after);
             page.setPageLSN(getLSN());
         } finally {
             page.unpin();
@@ -104,8 +104,8 @@ public class UpdatePageLogRecord extends LogRecord {
         long pageNum = buf.getLong();
         long prevLSN = buf.getLong();
         short offset = buf.getShort();
-        byte[] before = new byte[buf.getShort()];
-        byte[] after = new byte[buf.getShort()];
+        byte[] before = new byte[Short.toUnsignedInt(buf.getShort())];
+        byte[] after = new byte[Short.toUnsignedInt(buf.getShort())];
         buf.get(before).get(after);
         return Optional.of(new UpdatePageLogRecord(transNum, pageNum, prevLSN, offset, before, after));
     }
@@ -137,7 +137,7 @@ public class UpdatePageLogRecord extends LogRecord {
         return "UpdatePageLogRecord{" +
                "transNum=" + transNum +
                ", pageNum=" + pageNum +
-               ", offset=" + offset +
+               ", offset=" + Short.toUnsignedInt(offset) +
                ", before=" + Arrays.toString(before) +
                ", after=" + Arrays.toString(after) +
                ", prevLSN=" + prevLSN +
@@ -0,0 +1,185 @@
+package io.github.yeyuhl.database.recovery.records;
+
+import io.github.yeyuhl.database.common.Buffer;
+import io.github.yeyuhl.database.common.ByteBuffer;
+import io.github.yeyuhl.database.concurrency.DummyLockContext;
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.memory.BufferManager;
+import io.github.yeyuhl.database.memory.Page;
+import io.github.yeyuhl.database.recovery.LogRecord;
+import io.github.yeyuhl.database.recovery.LogType;
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Log record for a single write to a page that changed several separate ranges of bytes. The
+ * bytes of all the ranges are stored back to back, in the order of the ranges, so that the
+ * record costs one header instead of one header per range.
+ */
+public class UpdatePageRangesLogRecord extends LogRecord {
+    private long transNum; // transaction that updated the page
+    private long pageNum; // page that was updated
+    private long prevLSN; // previous log's LSN
+    // position of first changed byte of each range, and number of changed bytes of each range
+    // (both unsigned, as pages may exceed 32KB)
+    public short[] offsets;
+    public short[] lengths;
+    public byte[] before; // old bytes of every range (before update)
+    public byte[] after; // new bytes of every range (after update)
+
+    /**
+     * @param transNum transaction number of transaction that updated the page
+     * @param pageNum the page that was updated
+     * @param prevLSN previous log's LSN
+     * @param offsets position of first changed byte of each range
+     * @param lengths number of changed bytes of each range
+     * @param before old bytes of every range, back to back (before update)
+     * @param after new bytes of every range, back to back (after update)
+     */
+    public UpdatePageRangesLogRecord(long transNum, long pageNum, long prevLSN, short[] offsets, short[] lengths,
+                                     byte[] before, byte[] after) {
+        super(LogType.UPDATE_PAGE_RANGES);
+        this.transNum = transNum;
+        this.pageNum = pageNum;
+        this.prevLSN = prevLSN;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.before = before;
+        this.after = after;
+    }
+
+    /**
+     * @param numRanges number of ranges
+     * @param numBytes total number of changed bytes of the ranges
+     * @return size in bytes of the serialized record
+     */
+    public static int getSize(int numRanges, int numBytes) {
+        return 27 + 4 * numRanges + 2 * numBytes;
+    }
+
+    @Override
+    public Optional<Long> getTransNum() {
+        return Optional.of(transNum);
+    }
+
+    @Override
+    public Optional<Long> getPrevLSN() {
+        return Optional.of(prevLSN);
+    }
+
+    @Override
+    public Optional<Long> getPageNum() {
+        return Optional.of(pageNum);
+    }
+
+    @Override
+    public boolean isUndoable() { return true; }
+
+    @Override
+    public boolean isRedoable() { return true; }
+
+    @Override
+    public LogRecord undo(long lastLSN) {
+        if (!isUndoable()) {
+            throw new UnsupportedOperationException("cannot undo this record: " + this);
+        }
+        return new UndoUpdatePageRangesLogRecord(transNum, pageNum, lastLSN, prevLSN, offsets, lengths, before);
+    }
+
+    @Override
+    public void redo(RecoveryManager rm, DiskSpaceManager dsm, BufferManager bm) {
+        super.redo(rm, dsm, bm);
+
+        Page page = bm.fetchPage(new DummyLockContext("_dummyUpdatePageRangesRecord"), pageNum);
+        try {
+            Buffer buf = page.getBuffer();
+            int pos = 0;
+            for (int i = 0; i < offsets.length; ++i) {
+                int length = Short.toUnsignedInt(lengths[i]);
+                buf.position(Short.toUnsignedInt(offsets[i])).put(Arrays.copyOfRange(after, pos, pos + length));
+                pos += length;
+            }
+            page.setPageLSN(getLSN());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    @Override
+    public byte[] toBytes() {
+        byte[] b = new byte[getSize(offsets.length, before.length)];
+        Buffer buf = ByteBuffer.wrap(b)
+                     .put((byte) getType().getValue())
+                     .putLong(transNum)
+                     .putLong(pageNum)
+                     .putLong(prevLSN)
+                     .putShort((short) offsets.length);
+        for (int i = 0; i < offsets.length; ++i) {
+            buf.putShort(offsets[i]).putShort(lengths[i]);
+        }
+        buf.put(before).put(after);
+        return b;
+    }
+
+    public static Optional<LogRecord> fromBytes(Buffer buf) {
+        long transNum = buf.getLong();
+        long pageNum = buf.getLong();
+        long prevLSN = buf.getLong();
+        short numRanges = buf.getShort();
+        short[] offsets = new short[numRanges];
+        short[] lengths = new short[numRanges];
+        int numBytes = 0;
+        for (int i = 0; i < numRanges; ++i) {
+            offsets[i] = buf.getShort();
+            lengths[i] = buf.getShort();
+            numBytes += Short.toUnsignedInt(lengths[i]);
+        }
+        byte[] before = new byte[numBytes];
+        byte[] after = new byte[numBytes];
+        buf.get(before).get(after);
+        return Optional.of(new UpdatePageRangesLogRecord(transNum, pageNum, prevLSN, offsets, lengths, before,
+                           after));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) { return true; }
+        if (o == null || getClass() != o.getClass()) { return false; }
+        if (!super.equals(o)) { return false; }
+        UpdatePageRangesLogRecord that = (UpdatePageRangesLogRecord) o;
+        return transNum == that.transNum &&
+               pageNum == that.pageNum &&
+               prevLSN == that.prevLSN &&
+               Arrays.equals(offsets, that.offsets) &&
+               Arrays.equals(lengths, that.lengths) &&
+               Arrays.equals(before, that.before) &&
+               Arrays.equals(after, that.after);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(super.hashCode(), transNum, pageNum, prevLSN);
+        result = 31 * result + Arrays.hashCode(offsets);
+        result = 31 * result + Arrays.hashCode(lengths);
+        result = 31 * result + Arrays.hashCode(before);
+        result = 31 * result + Arrays.hashCode(after);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "UpdatePageRangesLogRecord{" +
+               "transNum=" + transNum +
+               ", pageNum=" + pageNum +
+               ", offsets=" + Arrays.toString(offsets) +
+               ", lengths=" + Arrays.toString(lengths) +
+               ", before=" + Arrays.toString(before) +
+               ", after=" + Arrays.toString(after) +
+               ", prevLSN=" + prevLSN +
+               ", LSN=" + LSN +
+               '}';
+    }
+}
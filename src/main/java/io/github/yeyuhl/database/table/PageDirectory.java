@@ -11,9 +11,12 @@ import io.github.yeyuhl.database.concurrency.LockType;
 import io.github.yeyuhl.database.concurrency.LockUtil;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
 import io.github.yeyuhl.database.io.PageException;
+import io.github.yeyuhl.database.memory.AccessHint;
 import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.Page;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -43,17 +46,19 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // size of the header in header pages
     private static final short HEADER_HEADER_SIZE = 13;
 
-    // number of data page entries in a header page
-    private static final short HEADER_ENTRY_COUNT = (BufferManager.EFFECTIVE_PAGE_SIZE -
-            HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
-
     // size of the header in data pages
     private static final short DATA_HEADER_SIZE = 10;
 
-    // effective page size
+    // effective page size with the default page size
     public static final short EFFECTIVE_PAGE_SIZE = BufferManager.EFFECTIVE_PAGE_SIZE -
             DATA_HEADER_SIZE;
 
+    // number of data page entries in a header page
+    private final int headerEntryCount;
+
+    // effective page size
+    private final int effectivePageSize;
+
     // the buffer manager
     private BufferManager bufferManager;
 
@@ -65,7 +70,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     private HeaderPage firstHeader;
 
     // Size of metadata of an empty data page.
-    private short emptyPageMetadataSize;
+    private int emptyPageMetadataSize;
 
     // lock context of heap file/table
     private LockContext lockContext;
@@ -73,6 +78,11 @@ public class PageDirectory implements BacktrackingIterable<Page> {
     // page directory id
     private int pageDirectoryId;
 
+    // how data pages of the heap file are used (header pages are always fetched normally, as
+    // they are read far more often than data pages); scans of large heap files use
+    // SEQUENTIAL_SCAN instead of NORMAL
+    private AccessHint accessHint = AccessHint.NORMAL;
+
     /**
      * Creates a new heap file, or loads existing file if one already
      * exists at partNum.
@@ -85,31 +95,42 @@ public class PageDirectory implements BacktrackingIterable<Page> {
      * @param lockContext           lock context of this heap file
      */
     public PageDirectory(BufferManager bufferManager, int partNum, long pageNum,
-                         short emptyPageMetadataSize, LockContext lockContext) {
+                         int emptyPageMetadataSize, LockContext lockContext) {
         this.bufferManager = bufferManager;
+        this.headerEntryCount = (bufferManager.getEffectivePageSize() - HEADER_HEADER_SIZE) / DataPageEntry.SIZE;
+        this.effectivePageSize = bufferManager.getEffectivePageSize() - DATA_HEADER_SIZE;
         this.partNum = partNum;
         this.emptyPageMetadataSize = emptyPageMetadataSize;
         this.lockContext = lockContext;
         this.firstHeader = new HeaderPage(pageNum, 0, true);
     }
 
-    public short getEffectivePageSize() {
-        return EFFECTIVE_PAGE_SIZE;
+    public int getEffectivePageSize() {
+        return effectivePageSize;
     }
 
-    public void setEmptyPageMetadataSize(short emptyPageMetadataSize) {
+    public void setEmptyPageMetadataSize(int emptyPageMetadataSize) {
         this.emptyPageMetadataSize = emptyPageMetadataSize;
     }
 
+    /**
+     * Sets the access hint that data pages of the heap file are fetched with (see AccessHint).
+     *
+     * @param accessHint how pages of the heap file are used
+     */
+    public void setAccessHint(AccessHint accessHint) {
+        this.accessHint = accessHint;
+    }
+
     public Page getPage(long pageNum) {
-        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum));
+        return new DataPage(pageDirectoryId, this.bufferManager.fetchPage(lockContext, pageNum, accessHint));
     }
 
-    public Page getPageWithSpace(short requiredSpace) {
+    public Page getPageWithSpace(int requiredSpace) {
         if (requiredSpace <= 0) {
             throw new IllegalArgumentException("cannot request nonpositive amount of space");
         }
-        if (requiredSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (requiredSpace > effectivePageSize - emptyPageMetadataSize) {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
@@ -123,8 +144,8 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         return new DataPage(pageDirectoryId, page);
     }
 
-    public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+    public void updateFreeSpace(Page page, int newFreeSpace) {
+        if (newFreeSpace <= 0 || newFreeSpace > effectivePageSize - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
@@ -166,6 +187,18 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         return partNum;
     }
 
+    /**
+     * @return access hint that data pages are fetched with by a scan: SEQUENTIAL_SCAN if the
+     * heap file is too large to keep a good part of in the buffer, so that the scan does not
+     * push the rest of the buffer out, and the access hint of the heap file otherwise
+     */
+    private AccessHint scanHint() {
+        if (accessHint == AccessHint.NORMAL && getNumDataPages() > bufferManager.getNumFrames() / 4) {
+            return AccessHint.SEQUENTIAL_SCAN;
+        }
+        return accessHint;
+    }
+
     /**
      * Wrapper around page object to skip the header and verify that it belongs to this
      * page directory.
@@ -186,6 +219,11 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             return super.getBuffer().position(DATA_HEADER_SIZE).slice();
         }
 
+        @Override
+        public Buffer getReadOnlyBuffer() {
+            return super.getReadOnlyBuffer().position(DATA_HEADER_SIZE).slice();
+        }
+
         // get the full buffer (without skipping header) for internal use
         private Buffer getFullBuffer() {
             return super.getBuffer();
@@ -202,15 +240,16 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         // page number of data page
         private long pageNum;
 
-        // size in bytes of free space in data page
-        private short freeSpace;
+        // size in bytes of free space in data page (stored as an unsigned short, as pages may
+        // be larger than 32KB)
+        private int freeSpace;
 
         // creates an invalid data page entry (one where no data page has been allocated yet).
         private DataPageEntry() {
-            this(DiskSpaceManager.INVALID_PAGE_NUM, (short) -1);
+            this(DiskSpaceManager.INVALID_PAGE_NUM, 0xFFFF);
         }
 
-        private DataPageEntry(long pageNum, short freeSpace) {
+        private DataPageEntry(long pageNum, int freeSpace) {
             this.pageNum = pageNum;
             this.freeSpace = freeSpace;
         }
@@ -221,11 +260,11 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         private void toBytes(Buffer b) {
-            b.putLong(pageNum).putShort(freeSpace);
+            b.putLong(pageNum).putShort((short) freeSpace);
         }
 
         private static DataPageEntry fromBytes(Buffer b) {
-            return new DataPageEntry(b.getLong(), b.getShort());
+            return new DataPageEntry(b.getLong(), Short.toUnsignedInt(b.getShort()));
         }
 
         @Override
@@ -256,7 +295,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
             try {
                 Buffer pageBuffer = this.page.getBuffer();
                 if (pageBuffer.get() != (byte) 1) {
-                    byte[] buf = new byte[BufferManager.EFFECTIVE_PAGE_SIZE];
+                    byte[] buf = new byte[bufferManager.getEffectivePageSize()];
                     Buffer b = ByteBuffer.wrap(buf);
                     // invalid page, initialize empty header page
                     if (firstHeader) {
@@ -264,7 +303,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     }
                     b.position(0).put((byte) 1).putInt(pageDirectoryId).putLong(DiskSpaceManager.INVALID_PAGE_NUM);
                     DataPageEntry invalidPageEntry = new DataPageEntry();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = 0; i < headerEntryCount; ++i) {
                         invalidPageEntry.toBytes(b);
                     }
                     nextPageNum = -1L;
@@ -278,7 +317,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         throw new PageException("header page page directory id does not match");
                     }
                     nextPageNum = pageBuffer.getLong();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = 0; i < headerEntryCount; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(pageBuffer);
                         if (dpe.isValid()) {
                             ++this.numDataPages;
@@ -314,7 +353,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
+        private Page loadPageWithSpace(int requiredSpace) {
             this.page.pin();
             try {
                 Buffer b = this.page.getBuffer();
@@ -322,7 +361,7 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
                 // if we have any data page managed by this header page with enough space, return it
                 short unusedSlot = -1;
-                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                for (short i = 0; i < headerEntryCount; ++i) {
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
                     if (!dpe.isValid()) {
                         if (unusedSlot == -1) {
@@ -335,15 +374,15 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                         b.position(b.position() - DataPageEntry.SIZE);
                         dpe.toBytes(b);
 
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum);
+                        return bufferManager.fetchPage(lockContext, dpe.pageNum, accessHint);
                     }
                 }
 
                 // if we have any unused slot in this header page, allocate a new data page
                 if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum);
+                    Page page = bufferManager.fetchNewPage(lockContext, partNum, accessHint);
                     DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
-                            (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
+                            effectivePageSize - emptyPageMetadataSize - requiredSpace);
 
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
                     dpe.toBytes(b);
@@ -367,10 +406,10 @@ public class PageDirectory implements BacktrackingIterable<Page> {
         }
 
         // updates free space
-        private void updateSpace(Page dataPage, short index, short newFreeSpace) {
+        private void updateSpace(Page dataPage, short index, int newFreeSpace) {
             this.page.pin();
             try {
-                if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+                if (newFreeSpace < effectivePageSize - emptyPageMetadataSize) {
                     // write new free space to disk
                     Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
@@ -397,8 +436,35 @@ public class PageDirectory implements BacktrackingIterable<Page> {
 
         // iterator over the data pages managed by this header page
         private class HeaderPageIterator extends IndexBacktrackingIterator<Page> {
+            // index of the last entry whose data page has been requested from read-ahead
+            private int readAheadIndex = -1;
+
+            // access hint that data pages are fetched with
+            private final AccessHint hint = scanHint();
+
             private HeaderPageIterator() {
-                super(HEADER_ENTRY_COUNT);
+                super(headerEntryCount);
+            }
+
+            // asks the buffer manager to read ahead the data pages following the entry at
+            // index, once fewer than half of the read-ahead window are left in flight
+            private void readAhead(Buffer b, int index) {
+                int window = bufferManager.getReadAheadWindow();
+                if (window == 0 || readAheadIndex >= headerEntryCount - 1
+                        || readAheadIndex - index > window / 2) {
+                    return;
+                }
+                List<Long> pageNums = new ArrayList<>();
+                int i = Math.max(index, readAheadIndex) + 1;
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * i);
+                for (; i < headerEntryCount && pageNums.size() < window; ++i) {
+                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
+                    if (dpe.isValid()) {
+                        pageNums.add(dpe.pageNum);
+                    }
+                }
+                readAheadIndex = i - 1;
+                bufferManager.prefetch(pageNums);
             }
 
             @Override
@@ -407,13 +473,13 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                 try {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * ++currentIndex);
-                    for (int i = currentIndex; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (int i = currentIndex; i < headerEntryCount; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(b);
                         if (dpe.isValid()) {
                             return i;
                         }
                     }
-                    return HEADER_ENTRY_COUNT;
+                    return headerEntryCount;
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -426,7 +492,8 @@ public class PageDirectory implements BacktrackingIterable<Page> {
                     Buffer b = HeaderPage.this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum));
+                    readAhead(b, index);
+                    return new DataPage(pageDirectoryId, bufferManager.fetchPage(lockContext, dpe.pageNum, hint));
                 } finally {
                     HeaderPage.this.page.unpin();
                 }
@@ -106,6 +106,10 @@ public class Table implements BacktrackingIterable<Record> {
     // The number of records on each data page.
     private int numRecordsPerPage;
 
+    // Largest number of records on a data page: entry numbers of record ids are shorts, so
+    // pages larger than 32KB with small records are not filled up.
+    static final int MAX_RECORDS_PER_PAGE = Short.MAX_VALUE + 1;
+
     // The lock context of the table.
     private LockContext tableContext;
 
@@ -128,8 +132,8 @@ public class Table implements BacktrackingIterable<Record> {
         this.bitmapSizeInBytes = computeBitmapSizeInBytes(pageDirectory.getEffectivePageSize(), schema);
         this.numRecordsPerPage = computeNumRecordsPerPage(pageDirectory.getEffectivePageSize(), schema);
         // mark everything that is not used for records as metadata
-        this.pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() - numRecordsPerPage
-                * schema.getSizeInBytes()));
+        this.pageDirectory.setEmptyPageMetadataSize(pageDirectory.getEffectivePageSize() - numRecordsPerPage
+                * schema.getSizeInBytes());
         this.stats = stats;
         if (!this.stats.containsKey(name)) this.stats.put(name, new TableStats(this.schema, this.numRecordsPerPage));
     }
@@ -154,8 +158,8 @@ public class Table implements BacktrackingIterable<Record> {
     public void setFullPageRecords() {
         numRecordsPerPage = 1;
         bitmapSizeInBytes = 0;
-        pageDirectory.setEmptyPageMetadataSize((short) (pageDirectory.getEffectivePageSize() -
-                schema.getSizeInBytes()));
+        pageDirectory.setEmptyPageMetadataSize(pageDirectory.getEffectivePageSize() -
+                schema.getSizeInBytes());
     }
 
     public TableStats getStats() {
@@ -173,7 +177,7 @@ public class Table implements BacktrackingIterable<Record> {
     private byte[] getBitMap(Page page) {
         if (bitmapSizeInBytes > 0) {
             byte[] bytes = new byte[bitmapSizeInBytes];
-            page.getBuffer().get(bytes, 0, bitmapSizeInBytes);
+            page.getReadOnlyBuffer().get(bytes, 0, bitmapSizeInBytes);
             return bytes;
         } else {
             return new byte[]{(byte) 0xFF};
@@ -198,9 +202,9 @@ public class Table implements BacktrackingIterable<Record> {
      * Computes the maximum number of records per page of the given `schema` that
      * can fit on a page with `pageSize` bytes of space, including the overhead
      * for the bitmap. In most cases this can be computed as the number of bits
-     * in the page floor divided by the number of bits per record. In the
-     * special case where only a single record can fit in a page, no bitmap is
-     * needed.
+     * in the page floor divided by the number of bits per record (but no more
+     * than MAX_RECORDS_PER_PAGE). In the special case where only a single
+     * record can fit in a page, no bitmap is needed.
      *
      * @param pageSize size of page in bytes
      * @param schema   schema for the records to be stored on this page
@@ -222,7 +226,7 @@ public class Table implements BacktrackingIterable<Record> {
         // +1 for space in bitmap
         int recordOverheadInBits = 1 + 8 * schema.getSizeInBytes();
         int pageSizeInBits = pageSize * 8;
-        return pageSizeInBits / recordOverheadInBits;
+        return Math.min(pageSizeInBits / recordOverheadInBits, MAX_RECORDS_PER_PAGE);
     }
 
     // Modifiers ///////////////////////////////////////////////////////////////
@@ -295,7 +299,7 @@ public class Table implements BacktrackingIterable<Record> {
             }
 
             int offset = bitmapSizeInBytes + (rid.getEntryNum() * schema.getSizeInBytes());
-            Buffer buf = page.getBuffer();
+            Buffer buf = page.getReadOnlyBuffer();
             buf.position(offset);
             return Record.fromBytes(buf, schema);
         } finally {
@@ -354,8 +358,7 @@ public class Table implements BacktrackingIterable<Record> {
 
             stats.get(name).removeRecord(record);
             int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
-            pageDirectory.updateFreeSpace(page,
-                    (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+            pageDirectory.updateFreeSpace(page, (numRecordsPerPage - numRecords) * schema.getSizeInBytes());
             return record;
         } finally {
             page.unpin();
@@ -3,11 +3,17 @@ package io.github.yeyuhl.database;
 import io.github.yeyuhl.database.categories.Proj99Tests;
 import io.github.yeyuhl.database.categories.SystemTests;
 import io.github.yeyuhl.database.common.PredicateOperator;
+import io.github.yeyuhl.database.concurrency.DummyLockManager;
 import io.github.yeyuhl.database.databox.DataBox;
 import io.github.yeyuhl.database.databox.impl.IntDataBox;
 import io.github.yeyuhl.database.databox.impl.StringDataBox;
 import io.github.yeyuhl.database.databox.Type;
+import io.github.yeyuhl.database.io.DiskSpaceManagerImpl;
+import io.github.yeyuhl.database.io.MappedDiskSpaceManager;
+import io.github.yeyuhl.database.memory.ClockEvictionPolicy;
 import io.github.yeyuhl.database.query.QueryPlan;
+import io.github.yeyuhl.database.recovery.LSNFormat;
+import io.github.yeyuhl.database.recovery.RecoveryManager;
 import io.github.yeyuhl.database.table.Record;
 import io.github.yeyuhl.database.table.RecordId;
 import io.github.yeyuhl.database.table.Schema;
@@ -19,10 +25,12 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.nio.file.Paths;
 import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category({Proj99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -148,6 +156,178 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testMappedDatabaseDurability() {
+        db.close();
+        this.filename = this.filename + "-mapped";
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), false,
+                MappedDiskSpaceManager::new);
+
+        Record input = TestUtils.createRecordWithAllTypes();
+        RecordId rid;
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+            rid = t1.getTransactionContext().addRecord("testTable1", input);
+        }
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), false,
+                MappedDiskSpaceManager::new);
+
+        try (Transaction t1 = db.beginTransaction()) {
+            assertEquals(input, t1.getTransactionContext().getRecord("testTable1", rid));
+        }
+    }
+
+    @Test
+    public void testLargePages() {
+        db.close();
+        this.filename = this.filename + "-8k";
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), true,
+                (String dir, RecoveryManager rm) -> new DiskSpaceManagerImpl(dir, rm, true, false, 8192));
+        assertEquals(8192, db.getBufferManager().getPageSize());
+
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+            for (int i = 0; i < 2000; ++i) {
+                t1.getTransactionContext().addRecord("testTable1", new Record(false, i, "a", 1.0f));
+            }
+            t1.createIndex("testTable1", "int", false);
+        }
+
+        // the page size was fixed when the database was created
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        assertEquals(8192, db.getBufferManager().getPageSize());
+
+        try (Transaction t2 = db.beginTransaction()) {
+            QueryPlan queryPlan = t2.query("testTable1");
+            queryPlan.select("int", PredicateOperator.EQUALS, 1234);
+            Iterator<Record> iter = queryPlan.execute();
+            assertEquals(new Record(false, 1234, "a", 1.0f), iter.next());
+            assertFalse(iter.hasNext());
+
+            int count = 0;
+            iter = t2.query("testTable1").execute();
+            while (iter.hasNext()) {
+                iter.next();
+                ++count;
+            }
+            assertEquals(2000, count);
+        }
+    }
+
+    @Test
+    public void testLargestPages() {
+        db.close();
+        this.filename = this.filename + "-64k";
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), true,
+                (String dir, RecoveryManager rm) -> new DiskSpaceManagerImpl(dir, rm, true, false, 65536));
+        assertEquals(65536, db.getBufferManager().getPageSize());
+        // LSNs of this database need more than the 4 decimal digits of older databases
+        assertEquals(LSNFormat.BINARY, LSNFormat.read(Paths.get(this.filename)));
+
+        // the records all fit on one data page, so most of them lie more than 32KB into the page
+        RecordId[] rids = new RecordId[5000];
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+            for (int i = 0; i < rids.length; ++i) {
+                rids[i] = t1.getTransactionContext().addRecord("testTable1", new Record(false, i, "a", 1.0f));
+            }
+            t1.createIndex("testTable1", "int", false);
+        }
+        assertEquals(rids[0].getPageNum(), rids[rids.length - 1].getPageNum());
+
+        try (Transaction t2 = db.beginTransaction()) {
+            t2.getTransactionContext().updateRecord("testTable1", rids[4500], new Record(true, 4500, "b", 2.0f));
+        }
+        Transaction t3 = db.beginTransaction();
+        t3.getTransactionContext().updateRecord("testTable1", rids[4999], new Record(true, -1, "c", 3.0f));
+        t3.getTransactionContext().deleteRecord("testTable1", rids[4000]);
+        t3.rollback();
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(), true);
+        assertEquals(65536, db.getBufferManager().getPageSize());
+
+        try (Transaction t4 = db.beginTransaction()) {
+            TransactionContext transaction = t4.getTransactionContext();
+            assertEquals(new Record(true, 4500, "b", 2.0f), transaction.getRecord("testTable1", rids[4500]));
+            assertEquals(new Record(false, 4999, "a", 1.0f), transaction.getRecord("testTable1", rids[4999]));
+            assertEquals(new Record(false, 4000, "a", 1.0f), transaction.getRecord("testTable1", rids[4000]));
+
+            QueryPlan queryPlan = t4.query("testTable1");
+            queryPlan.select("int", PredicateOperator.EQUALS, 4321);
+            Iterator<Record> iter = queryPlan.execute();
+            assertEquals(new Record(false, 4321, "a", 1.0f), iter.next());
+            assertFalse(iter.hasNext());
+
+            int count = 0;
+            iter = t4.query("testTable1").execute();
+            while (iter.hasNext()) {
+                iter.next();
+                ++count;
+            }
+            assertEquals(5000, count);
+        }
+    }
+
+    @Test
+    public void testScanWithReadAhead() {
+        db.getBufferManager().enableReadAhead(2);
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+            for (int i = 0; i < 2000; ++i) {
+                t1.getTransactionContext().addRecord("testTable1", TestUtils.createRecordWithAllTypes());
+            }
+        }
+        db.getBufferManager().evictAll();
+
+        try (Transaction t2 = db.beginTransaction()) {
+            Iterator<Record> iter = t2.query("testTable1").execute();
+            int count = 0;
+            while (iter.hasNext()) {
+                assertEquals(TestUtils.createRecordWithAllTypes(), iter.next());
+                ++count;
+            }
+            assertEquals(2000, count);
+        }
+        assertTrue(db.getBufferManager().getNumPrefetches() > 0);
+    }
+
+    @Test
+    public void testBufferWarmUp() throws InterruptedException {
+        try (Transaction t1 = db.beginTransaction()) {
+            t1.createTable(TestUtils.createSchemaWithAllTypes(), "testTable1");
+            for (int i = 0; i < 200; ++i) {
+                t1.getTransactionContext().addRecord("testTable1", TestUtils.createRecordWithAllTypes());
+            }
+        }
+
+        db.close();
+        db = new Database(this.filename, 32);
+        db.warmUpBuffer(32);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (db.getBufferManager().isWarmingUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(db.getBufferManager().isWarmingUp());
+        assertTrue(db.getBufferManager().getNumWarmUpLoads() > 0);
+
+        // the pages of the table were reloaded, so scanning it does not read anything
+        try (Transaction t2 = db.beginTransaction()) {
+            long numIOs = db.getBufferManager().getNumIOs();
+            Iterator<Record> iter = t2.query("testTable1").execute();
+            int count = 0;
+            while (iter.hasNext()) {
+                iter.next();
+                ++count;
+            }
+            assertEquals(200, count);
+            assertEquals(numIOs, db.getBufferManager().getNumIOs());
+        }
+    }
+
     @Test
     public void testREADMESample() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -0,0 +1,38 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Disk space manager in write-back mode that counts how many times each partition is forced
+ * to disk.
+ */
+public class ForceCountingDiskSpaceManager extends DiskSpaceManagerImpl {
+    private final Map<Integer, Integer> numForces = new ConcurrentHashMap<>();
+
+    public ForceCountingDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        super(dbDir, recoveryManager, false);
+    }
+
+    /**
+     * @param partNum partition number
+     * @return number of times the partition has been forced to disk
+     */
+    public int getNumForces(int partNum) {
+        return numForces.getOrDefault(partNum, 0);
+    }
+
+    @Override
+    PartitionHandle newPartitionHandle(int partNum) {
+        return new PartitionHandle(partNum, getRecoveryManager(), isSyncOnWrite(), isChecksummed()) {
+            @Override
+            void force() throws IOException {
+                numForces.merge(partNum, 1, Integer::sum);
+                super.force();
+            }
+        };
+    }
+}
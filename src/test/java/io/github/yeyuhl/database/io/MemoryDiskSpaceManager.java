@@ -109,4 +109,7 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
     }
+
+    @Override
+    public void sync() {}
 }
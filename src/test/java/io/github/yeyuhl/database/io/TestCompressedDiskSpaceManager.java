@@ -0,0 +1,176 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.categories.Proj99Tests;
+import io.github.yeyuhl.database.categories.SystemTests;
+import io.github.yeyuhl.database.recovery.DummyRecoveryManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestCompressedDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager;
+    private Path managerRoot;
+
+    @Before
+    public void beforeEach() throws IOException {
+        managerRoot = tempFolder.newFolder("compressed-dsm-test").toPath();
+    }
+
+    private DiskSpaceManager getDiskSpaceManager() {
+        return new CompressedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    private File pagesFile(int partNum) {
+        return managerRoot.resolve(partNum + ".pages").toFile();
+    }
+
+    // a page that looks like a table page: a few records padded with zeros
+    private static byte[] sparseContents(int seed) {
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; i += 64) {
+            buf[i] = (byte) (seed + i);
+            buf[i + 1] = (byte) seed;
+        }
+        return buf;
+    }
+
+    private static byte[] randomContents(Random random) {
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        random.nextBytes(buf);
+        return buf;
+    }
+
+    @Test
+    public void testReadWritePersistent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[10];
+        byte[][] contents = new byte[pageNums.length][];
+        Random random = new Random(0);
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            contents[i] = i == 0 ? randomContents(random) : sparseContents(i);
+            diskSpaceManager.writePage(pageNums[i], contents[i]);
+        }
+        diskSpaceManager.close();
+
+        // only the incompressible page takes up a full page
+        assertTrue(pagesFile(partNum).length() < 2 * DiskSpaceManager.PAGE_SIZE);
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int i = 0; i < pageNums.length; ++i) {
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(contents[i], buf);
+        }
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(pageNums, bufs);
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertArrayEquals(contents[i], bufs[i]);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        assertFalse(pagesFile(partNum).exists());
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteDirectBuffers() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[2];
+        byte[][] contents = new byte[][] { randomContents(new Random(0)), sparseContents(5) };
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            ByteBuffer buf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+            buf.put(contents[i]);
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+
+        for (int i = 0; i < pageNums.length; ++i) {
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(contents[i], buf);
+
+            ByteBuffer directBuf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+            diskSpaceManager.readPage(pageNums[i], directBuf);
+            assertEquals(ByteBuffer.wrap(contents[i]), directBuf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReallocFreedPageZeroed() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum, sparseContents(7));
+        diskSpaceManager.freePage(pageNum);
+        diskSpaceManager.close();
+
+        // the old contents of the page are still in the pages file, but must not come back
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.allocPage(pageNum);
+        byte[] buf = sparseContents(3);
+        diskSpaceManager.readPage(pageNum, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testCompaction() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(1);
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum1, sparseContents(1));
+
+        Random random = new Random(0);
+        byte[] last = null;
+        int numWrites = (int) (2 * CompressedPartitionHandle.MIN_COMPACTION_SIZE / DiskSpaceManager.PAGE_SIZE);
+        for (int i = 0; i < numWrites; ++i) {
+            last = randomContents(random);
+            diskSpaceManager.writePage(pageNum2, last);
+        }
+        assertTrue(pagesFile(partNum).length() <= CompressedPartitionHandle.MIN_COMPACTION_SIZE);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, buf);
+        assertArrayEquals(sparseContents(1), buf);
+        diskSpaceManager.readPage(pageNum2, buf);
+        assertArrayEquals(last, buf);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum1, buf);
+        assertArrayEquals(sparseContents(1), buf);
+        diskSpaceManager.readPage(pageNum2, buf);
+        assertArrayEquals(last, buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+}
@@ -10,8 +10,13 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.junit.Assert.*;
 
@@ -137,6 +142,33 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testAllocPageExtents() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+
+        // the file is grown by a whole extent at once
+        long length = managerRoot.resolve(Integer.toString(partNum)).toFile().length();
+        assertEquals((2L + PartitionHandle.PAGES_PER_EXTENT) * DiskSpaceManager.PAGE_SIZE, length);
+        for (int i = 1; i < PartitionHandle.PAGES_PER_EXTENT; ++i) {
+            diskSpaceManager.allocPage(partNum);
+        }
+        assertEquals(length, managerRoot.resolve(Integer.toString(partNum)).toFile().length());
+
+        // a freed page that was written to is zeroed out again when it is reallocated
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(buf, (byte) 7);
+        diskSpaceManager.writePage(pageNum1, buf);
+        diskSpaceManager.freePage(pageNum1);
+        diskSpaceManager.allocPage(pageNum1);
+        diskSpaceManager.readPage(pageNum1, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
     @Test(expected = NoSuchElementException.class)
     public void testReadBadPart() {
         diskSpaceManager = getDiskSpaceManager();
@@ -298,5 +330,425 @@ public class TestDiskSpaceManager {
         diskSpaceManager.freePart(partNum2);
         diskSpaceManager.close();
     }
-}
 
+    @Test
+    public void testWriteBackSyncPersistent() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), false);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] buf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.sync();
+        diskSpaceManager.writePage(pageNum2, buf2);
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] readbuf1 = new byte[DiskSpaceManager.PAGE_SIZE];
+        byte[] readbuf2 = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf1);
+        diskSpaceManager.readPage(pageNum2, readbuf2);
+
+        assertArrayEquals(buf1, readbuf1);
+        assertArrayEquals(buf2, readbuf2);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWritePages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum1 = diskSpaceManager.allocPart();
+        int partNum2 = diskSpaceManager.allocPart();
+        // the last page under the first header page and the first page under the second are not
+        // stored next to each other, so they cannot be written with one request
+        long[] pageNums = new long[] {
+            diskSpaceManager.allocPage(partNum1),
+            diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum1, DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER)),
+            diskSpaceManager.allocPage(partNum2),
+            diskSpaceManager.allocPage(partNum1),
+            diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNum1, DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER - 1)),
+            diskSpaceManager.allocPage(partNum2),
+            diskSpaceManager.allocPage(partNum1),
+        };
+        byte[][] bufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < bufs.length; ++i) {
+            for (int j = 0; j < bufs[i].length; ++j) {
+                bufs[i][j] = (byte) (i * 31 + j);
+            }
+        }
+        diskSpaceManager.writePages(pageNums, bufs);
+
+        for (int i = 0; i < pageNums.length; ++i) {
+            byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertArrayEquals(bufs[i], readbuf);
+        }
+
+        byte[][] readbufs = new byte[pageNums.length][DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPages(pageNums, readbufs);
+        for (int i = 0; i < pageNums.length; ++i) {
+            assertArrayEquals(bufs[i], readbufs[i]);
+        }
+
+        diskSpaceManager.freePart(partNum1);
+        diskSpaceManager.freePart(partNum2);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteDirectBuffers() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[] {
+            diskSpaceManager.allocPage(partNum),
+            diskSpaceManager.allocPage(partNum),
+            diskSpaceManager.allocPage(partNum),
+        };
+        ByteBuffer[] bufs = new ByteBuffer[pageNums.length];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; ++j) {
+                bufs[i].put(j, (byte) (i * 31 + j));
+            }
+        }
+        diskSpaceManager.writePage(pageNums[0], bufs[0]);
+        diskSpaceManager.writePages(Arrays.copyOfRange(pageNums, 1, 3), Arrays.copyOfRange(bufs, 1, 3));
+
+        for (int i = 0; i < pageNums.length; ++i) {
+            byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+            diskSpaceManager.readPage(pageNums[i], readbuf);
+            assertEquals(bufs[i], ByteBuffer.wrap(readbuf));
+        }
+
+        ByteBuffer readbuf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        // the position and limit of the buffer are not used
+        readbuf.position(100);
+        diskSpaceManager.readPage(pageNums[0], readbuf);
+        assertEquals(100, readbuf.position());
+        readbuf.clear();
+        assertEquals(bufs[0], readbuf);
+
+        ByteBuffer[] readbufs = new ByteBuffer[pageNums.length];
+        for (int i = 0; i < readbufs.length; ++i) {
+            readbufs[i] = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        }
+        diskSpaceManager.readPages(pageNums, readbufs);
+        assertArrayEquals(bufs, readbufs);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testChecksums() throws IOException {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, true);
+        int partNum = diskSpaceManager.allocPart(1);
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = PartitionHandle.CHECKSUM_SIZE; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf.clone());
+        diskSpaceManager.writePage(pageNum2, buf.clone());
+        diskSpaceManager.close();
+
+        // flip a bit in the middle of the second page
+        try (RandomAccessFile file = new RandomAccessFile(managerRoot.resolve(Integer.toString(partNum)).toFile(), "rw")) {
+            long offset = new PartitionHandle(partNum, new DummyRecoveryManager())
+                    .dataPageOffset(DiskSpaceManager.getPageNum(pageNum2)) + 1000;
+            file.seek(offset);
+            int b = file.read();
+            file.seek(offset);
+            file.write(b ^ 0x10);
+        }
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, true);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, readbuf);
+        assertArrayEquals(Arrays.copyOfRange(buf, PartitionHandle.CHECKSUM_SIZE, buf.length),
+                          Arrays.copyOfRange(readbuf, PartitionHandle.CHECKSUM_SIZE, readbuf.length));
+        try {
+            diskSpaceManager.readPage(pageNum2, readbuf);
+            fail("corrupted page read without error");
+        } catch (PageException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        try {
+            diskSpaceManager.readPages(new long[] {pageNum1, pageNum2},
+                                       new byte[][] {new byte[DiskSpaceManager.PAGE_SIZE], new byte[DiskSpaceManager.PAGE_SIZE]});
+            fail("corrupted page read without error");
+        } catch (PageException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+
+        // without checksums enabled, the page is returned as is
+        diskSpaceManager.close();
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum2, readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testChecksumsZeroedFirstSector() throws IOException {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, true);
+        int partNum = diskSpaceManager.allocPart(1);
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = PartitionHandle.CHECKSUM_SIZE; i < buf.length; ++i) {
+            buf[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf.clone());
+        diskSpaceManager.close();
+
+        // zero the first sector of the first page, checksum included, as a torn write may
+        try (RandomAccessFile file = new RandomAccessFile(managerRoot.resolve(Integer.toString(partNum)).toFile(), "rw")) {
+            file.seek(new PartitionHandle(partNum, new DummyRecoveryManager())
+                    .dataPageOffset(DiskSpaceManager.getPageNum(pageNum1)));
+            file.write(new byte[512]);
+        }
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, true);
+        byte[] readbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        try {
+            diskSpaceManager.readPage(pageNum1, readbuf);
+            fail("corrupted page read without error");
+        } catch (PageException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        // a page that was never written is all zero, and has no checksum to check
+        diskSpaceManager.readPage(pageNum2, readbuf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], readbuf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReopenFailureClosesPartitions() {
+        diskSpaceManager = getDiskSpaceManager();
+        int[] partNums = new int[8];
+        for (int i = 0; i < partNums.length; ++i) {
+            partNums[i] = diskSpaceManager.allocPart();
+            diskSpaceManager.allocPage(partNums[i]);
+        }
+        diskSpaceManager.close();
+
+        // one partition fails to open: every partition that did open is closed again
+        int badPartNum = partNums[3];
+        Set<Integer> opened = ConcurrentHashMap.newKeySet();
+        Set<Integer> closed = ConcurrentHashMap.newKeySet();
+        try {
+            new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager()) {
+                @Override
+                PartitionHandle newPartitionHandle(int partNum) {
+                    return new PartitionHandle(partNum, getRecoveryManager(), isSyncOnWrite(), isChecksummed()) {
+                        @Override
+                        void open(String fileName) {
+                            if (partNum == badPartNum) {
+                                throw new PageException("could not open partition " + partNum);
+                            }
+                            super.open(fileName);
+                            opened.add(partNum);
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            closed.add(partNum);
+                            super.close();
+                        }
+                    };
+                }
+            };
+            fail("partition opened without error");
+        } catch (PageException e) {
+            assertTrue(e.getMessage().contains(Integer.toString(badPartNum)));
+        }
+        assertEquals(partNums.length - 1, opened.size());
+        assertEquals(opened, closed);
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int partNum : partNums) {
+            diskSpaceManager.freePart(partNum);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReopenManyPartitions() {
+        diskSpaceManager = getDiskSpaceManager();
+        int[] partNums = new int[32];
+        long[][] pageNums = new long[partNums.length][];
+        for (int p = 0; p < partNums.length; ++p) {
+            partNums[p] = diskSpaceManager.allocPart();
+            // one page under the first header page, and one under the second
+            pageNums[p] = new long[] {
+                diskSpaceManager.allocPage(partNums[p]),
+                diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(partNums[p],
+                                           DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER + p)),
+            };
+            for (int i = 0; i < pageNums[p].length; ++i) {
+                byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                Arrays.fill(buf, (byte) (p * 2 + i));
+                diskSpaceManager.writePage(pageNums[p][i], buf);
+            }
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int p = 0; p < partNums.length; ++p) {
+            for (int i = 0; i < pageNums[p].length; ++i) {
+                diskSpaceManager.readPage(pageNums[p][i], buf);
+                assertEquals((byte) (p * 2 + i), buf[0]);
+                assertEquals((byte) (p * 2 + i), buf[DiskSpaceManager.PAGE_SIZE - 1]);
+            }
+            // the header pages are loaded correctly, so allocation picks up where it left off
+            assertEquals(DiskSpaceManager.getVirtualPageNum(partNums[p], 1), diskSpaceManager.allocPage(partNums[p]));
+            try {
+                diskSpaceManager.readPage(DiskSpaceManager.getVirtualPageNum(partNums[p],
+                                          DiskSpaceManagerImpl.DATA_PAGES_PER_HEADER + p + 1), buf);
+                fail("read unallocated page");
+            } catch (PageException e) {
+                /* do nothing */
+            }
+            diskSpaceManager.freePage(pageNums[p][1]);
+        }
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        for (int p = 0; p < partNums.length; ++p) {
+            try {
+                diskSpaceManager.readPage(pageNums[p][1], buf);
+                fail("read freed page");
+            } catch (PageException e) {
+                /* do nothing */
+            }
+            diskSpaceManager.freePart(partNums[p]);
+        }
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testPageSizePersistent() {
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, false, 8192);
+        assertEquals(8192, diskSpaceManager.getPageSize());
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf1 = new byte[8192];
+        byte[] buf2 = new byte[8192];
+        for (int i = 0; i < buf1.length; ++i) {
+            buf1[i] = (byte) (Integer.valueOf(i).hashCode() & 0xFF);
+            buf2[i] = (byte) ((Integer.valueOf(i).hashCode() >> 8) & 0xFF);
+        }
+        diskSpaceManager.writePage(pageNum1, buf1);
+        diskSpaceManager.writePage(pageNum2, buf2);
+        try {
+            diskSpaceManager.writePage(pageNum1, new byte[DiskSpaceManager.PAGE_SIZE]);
+            fail("wrote page of the wrong size");
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+        diskSpaceManager.close();
+
+        // the page size given when reopening is ignored
+        diskSpaceManager = getDiskSpaceManager();
+        assertEquals(8192, diskSpaceManager.getPageSize());
+        byte[] readbuf1 = new byte[8192];
+        byte[] readbuf2 = new byte[8192];
+        diskSpaceManager.readPage(pageNum1, readbuf1);
+        diskSpaceManager.readPage(pageNum2, readbuf2);
+        assertArrayEquals(buf1, readbuf1);
+        assertArrayEquals(buf2, readbuf2);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testSupportedPageSizes() throws IOException {
+        for (int pageSize = 8192; pageSize <= DiskSpaceManagerImpl.MAX_PAGE_SIZE; pageSize *= 2) {
+            String dir = tempFolder.newFolder("dsm-" + pageSize).toString();
+            diskSpaceManager = new DiskSpaceManagerImpl(dir, new DummyRecoveryManager(), true, false, pageSize);
+            int partNum = diskSpaceManager.allocPart();
+            long pageNum = diskSpaceManager.allocPage(partNum);
+            byte[] buf = new byte[pageSize];
+            Arrays.fill(buf, (byte) 7);
+            diskSpaceManager.writePage(pageNum, buf);
+            byte[] readbuf = new byte[pageSize];
+            diskSpaceManager.readPage(pageNum, readbuf);
+            assertArrayEquals(buf, readbuf);
+            diskSpaceManager.close();
+        }
+        assertEquals(65536, DiskSpaceManagerImpl.MAX_PAGE_SIZE);
+        for (int pageSize : new int[] { 2048, 12288, 131072 }) {
+            try {
+                new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager(), true, false, pageSize);
+                fail("created disk space manager with " + pageSize + " byte pages");
+            } catch (IllegalArgumentException e) {
+                /* do nothing */
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        diskSpaceManager = getDiskSpaceManager();
+        int[] partNums = {diskSpaceManager.allocPart(), diskSpaceManager.allocPart()};
+        long[][] pageNums = new long[partNums.length][16];
+        for (int p = 0; p < partNums.length; ++p) {
+            for (int i = 0; i < pageNums[p].length; ++i) {
+                pageNums[p][i] = diskSpaceManager.allocPage(partNums[p]);
+                byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                Arrays.fill(buf, (byte) (p * 16 + i));
+                diskSpaceManager.writePage(pageNums[p][i], buf);
+            }
+        }
+
+        Thread[] threads = new Thread[8];
+        Throwable[] errors = new Throwable[threads.length];
+        for (int t = 0; t < threads.length; ++t) {
+            final int threadNum = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                    for (int iter = 0; iter < 200; ++iter) {
+                        int p = (threadNum + iter) % partNums.length;
+                        int i = iter % pageNums[p].length;
+                        diskSpaceManager.readPage(pageNums[p][i], buf);
+                        assertEquals((byte) (p * 16 + i), buf[0]);
+                        assertEquals((byte) (p * 16 + i), buf[DiskSpaceManager.PAGE_SIZE - 1]);
+                    }
+                } catch (Throwable e) {
+                    errors[threadNum] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t].join();
+            if (errors[t] != null) {
+                throw new AssertionError(errors[t]);
+            }
+        }
+
+        diskSpaceManager.freePart(partNums[0]);
+        diskSpaceManager.freePart(partNums[1]);
+        diskSpaceManager.close();
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.yeyuhl.database.io;
+
+import io.github.yeyuhl.database.categories.Proj99Tests;
+import io.github.yeyuhl.database.categories.SystemTests;
+import io.github.yeyuhl.database.recovery.DummyRecoveryManager;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestMappedDiskSpaceManager {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private DiskSpaceManager diskSpaceManager;
+    private Path managerRoot;
+
+    @Before
+    public void beforeEach() throws IOException {
+        managerRoot = tempFolder.newFolder("mapped-dsm-test").toPath();
+    }
+
+    private DiskSpaceManager getDiskSpaceManager() {
+        return new MappedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    private static byte[] pageContents(int seed) {
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < buf.length; ++i) {
+            buf[i] = (byte) ((Integer.valueOf(i + seed).hashCode() * 31) & 0xFF);
+        }
+        return buf;
+    }
+
+    @Test
+    public void testAllocPageZeroed() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        byte[] buf = pageContents(0);
+        diskSpaceManager.readPage(pageNum, buf);
+        assertArrayEquals(new byte[DiskSpaceManager.PAGE_SIZE], buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWriteAcrossChunks() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        int numPages = MappedPartitionHandle.PAGES_PER_CHUNK * 2 + 3;
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            diskSpaceManager.writePage(pageNums[i], pageContents(i));
+        }
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(pageContents(i), buf);
+        }
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testConcurrentReadWrite() throws InterruptedException {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        int numThreads = 4;
+        int numPages = MappedPartitionHandle.PAGES_PER_CHUNK * numThreads;
+        long[] pageNums = new long[numPages];
+        for (int i = 0; i < numPages; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+
+        // each thread writes and reads back every numThreads-th page, so all threads use every chunk
+        Thread[] threads = new Thread[numThreads];
+        boolean[] failed = new boolean[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+                for (int i = first; i < numPages; i += numThreads) {
+                    diskSpaceManager.writePage(pageNums[i], pageContents(i));
+                    diskSpaceManager.readPage(pageNums[i], buf);
+                    failed[first] |= !Arrays.equals(pageContents(i), buf);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (boolean f : failed) {
+            assertFalse(f);
+        }
+        diskSpaceManager.sync();
+        diskSpaceManager.close();
+
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        for (int i = 0; i < numPages; ++i) {
+            diskSpaceManager.readPage(pageNums[i], buf);
+            assertArrayEquals(pageContents(i), buf);
+        }
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadWritePersistent() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum1 = diskSpaceManager.allocPage(partNum);
+        long pageNum2 = diskSpaceManager.allocPage(partNum);
+        diskSpaceManager.writePage(pageNum1, pageContents(1));
+        diskSpaceManager.writePage(pageNum2, pageContents(2));
+        diskSpaceManager.close();
+
+        // partition files are in the same format as those of DiskSpaceManagerImpl
+        diskSpaceManager = new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum1, buf);
+        assertArrayEquals(pageContents(1), buf);
+        diskSpaceManager.writePage(pageNum2, pageContents(3));
+        diskSpaceManager.close();
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(pageNum2, buf);
+        assertArrayEquals(pageContents(3), buf);
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+}
@@ -2,17 +2,32 @@ package io.github.yeyuhl.database.memory;
 
 import io.github.yeyuhl.database.categories.Proj99Tests;
 import io.github.yeyuhl.database.categories.SystemTests;
+import io.github.yeyuhl.database.TransactionContext;
+import io.github.yeyuhl.database.common.Buffer;
+import io.github.yeyuhl.database.common.ByteBuffer;
 import io.github.yeyuhl.database.concurrency.DummyLockContext;
+import io.github.yeyuhl.database.concurrency.DummyTransactionContext;
+import io.github.yeyuhl.database.concurrency.LoggingLockManager;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
 import io.github.yeyuhl.database.io.MemoryDiskSpaceManager;
 import io.github.yeyuhl.database.io.PageException;
 import io.github.yeyuhl.database.recovery.DummyRecoveryManager;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
+import java.nio.ReadOnlyBufferException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
 
@@ -21,6 +36,9 @@ public class TestBufferManager {
     private DiskSpaceManager diskSpaceManager;
     private BufferManager bufferManager;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void beforeEach() {
         diskSpaceManager = new MemoryDiskSpaceManager();
@@ -92,6 +110,36 @@ public class TestBufferManager {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testReadOnlyBuffer() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+        page.getBuffer().position(67).putInt(0xDEADBEEF).putLong(186L);
+
+        Buffer buf = page.getReadOnlyBuffer();
+        assertEquals(0xDEADBEEF, buf.position(67).getInt());
+        assertEquals(186L, buf.getLong());
+        try {
+            buf.putInt(0);
+            fail("wrote to read-only buffer");
+        } catch (ReadOnlyBufferException e) {
+            /* do nothing */
+        }
+        page.unpin();
+
+        try {
+            page.getReadOnlyBuffer();
+            fail("got read-only buffer of unpinned page");
+        } catch (IllegalStateException e) {
+            /* do nothing */
+        }
+
+        page.pin();
+        assertEquals(0xDEADBEEF, page.getReadOnlyBuffer().position(67).getInt());
+        page.unpin();
+    }
+
     @Test
     public void testFlush() {
         int partNum = diskSpaceManager.allocPart(1);
@@ -137,6 +185,36 @@ public class TestBufferManager {
                           37 + BufferManager.RESERVED_SPACE));
     }
 
+    @Test
+    public void testFlushPages() {
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] expected = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        byte[] actual = new byte[DiskSpaceManager.PAGE_SIZE];
+
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) (67 + i), (short) 4, expected);
+            frame.unpin();
+            pageNums.add(frame.getPageNum());
+        }
+        long numIOs = bufferManager.getNumIOs();
+
+        bufferManager.flushPages(pageNums.subList(0, 2));
+        assertEquals(numIOs + 2, bufferManager.getNumIOs());
+        for (int i = 0; i < 3; ++i) {
+            diskSpaceManager.readPage(pageNums.get(i), actual);
+            byte[] onDisk = Arrays.copyOfRange(actual, 67 + i + BufferManager.RESERVED_SPACE,
+                                               71 + i + BufferManager.RESERVED_SPACE);
+            assertArrayEquals(i < 2 ? expected : new byte[4], onDisk);
+        }
+
+        // clean pages are not written again
+        bufferManager.flushPages(pageNums);
+        assertEquals(numIOs + 3, bufferManager.getNumIOs());
+    }
+
     @Test
     public void testFlushLogPage() {
         int partNum = diskSpaceManager.allocPart(0);
@@ -330,4 +408,485 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart(1);
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0));
     }
+
+    @Test
+    public void testConcurrentHits() throws Exception {
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] pageNums = new long[5];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            pageNums[i] = frame.getPageNum();
+            frame.unpin();
+        }
+        long numIOs = bufferManager.getNumIOs();
+
+        Thread[] threads = new Thread[8];
+        Throwable[] errors = new Throwable[threads.length];
+        for (int t = 0; t < threads.length; ++t) {
+            final int threadNum = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    byte[] buf = new byte[1];
+                    for (int iter = 0; iter < 2000; ++iter) {
+                        int i = (threadNum + iter) % pageNums.length;
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i]);
+                        try {
+                            frame.readBytes((short) 0, (short) 1, buf);
+                            assertEquals((byte) i, buf[0]);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors[threadNum] = e;
+                }
+            });
+            threads[t].start();
+        }
+        for (int t = 0; t < threads.length; ++t) {
+            threads[t].join();
+            if (errors[t] != null) {
+                throw new AssertionError(errors[t]);
+            }
+        }
+        // every fetch was a hit
+        assertEquals(numIOs, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testShards() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                LRUEvictionPolicy::new, 4);
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 32; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            pageNums.add(frame.getPageNum());
+            frame.unpin();
+        }
+
+        // every shard evicts its own pages, so at most 8 pages stay loaded in total
+        List<Long> loaded = new ArrayList<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loaded.add(pageNum));
+        assertTrue(loaded.size() <= 8);
+        assertTrue(pageNums.containsAll(loaded));
+
+        byte[] buf = new byte[1];
+        for (int i = 0; i < pageNums.size(); ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums.get(i));
+            frame.readBytes((short) 0, (short) 1, buf);
+            frame.unpin();
+            assertEquals((byte) i, buf[0]);
+        }
+
+        bufferManager.evictAll();
+        List<Long> loadedAfterEvict = new ArrayList<>();
+        bufferManager.iterPageNums((pageNum, dirty) -> loadedAfterEvict.add(pageNum));
+        assertEquals(Collections.emptyList(), loadedAfterEvict);
+
+        bufferManager.freePart(partNum);
+        bufferManager.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyShards() {
+        new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4, ClockEvictionPolicy::new, 5);
+    }
+
+    @Test
+    public void testOffHeap() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                ClockEvictionPolicy::new, 2, true);
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            page.getBuffer().position(67).putInt(i).putLong(186L * i);
+            pageNums.add(page.getPageNum());
+            page.unpin();
+        }
+
+        // most pages were evicted, and so were written to disk from outside the heap
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNums.get(1), buf);
+        Buffer b = ByteBuffer.wrap(buf);
+        assertEquals(1, b.getInt(BufferManager.RESERVED_SPACE + 67));
+        assertEquals(186L, b.getLong(BufferManager.RESERVED_SPACE + 71));
+
+        for (int i = 0; i < pageNums.size(); ++i) {
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNums.get(i));
+            assertEquals(i, page.getBuffer().position(67).getInt());
+            assertEquals(186L * i, page.getReadOnlyBuffer().position(71).getLong());
+            page.unpin();
+        }
+
+        bufferManager.evictAll();
+        diskSpaceManager.readPage(pageNums.get(9), buf);
+        assertEquals(9, ByteBuffer.wrap(buf).getInt(BufferManager.RESERVED_SPACE + 67));
+        bufferManager.close();
+    }
+
+    @Test
+    public void testAccessHintRing() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new LRUEvictionPolicy());
+        assertEquals(16, bufferManager.getNumFrames());
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> hotPageNums = new ArrayList<>();
+        for (int i = 0; i < 16; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            hotPageNums.add(page.getPageNum());
+            page.unpin();
+        }
+
+        // temp pages fill up a ring of 4 frames, and then keep reusing them
+        List<Long> tempPageNums = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum, AccessHint.TEMP);
+            page.getBuffer().putInt(i);
+            tempPageNums.add(page.getPageNum());
+            page.unpin();
+        }
+
+        long numIOs = bufferManager.getNumIOs();
+        for (long pageNum : hotPageNums.subList(4, 16)) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin();
+        }
+        for (long pageNum : tempPageNums.subList(16, 20)) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNum).unpin();
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+
+        // pages evicted from the ring were written out
+        Page page = bufferManager.fetchPage(new DummyLockContext(), tempPageNums.get(3), AccessHint.TEMP);
+        try {
+            assertEquals(3, page.getBuffer().getInt());
+        } finally {
+            page.unpin();
+        }
+        assertTrue(bufferManager.getNumIOs() > numIOs);
+
+        // a pinned frame in the ring is skipped, and the eviction policy picks a frame instead
+        Page pinned = bufferManager.fetchPage(new DummyLockContext(), tempPageNums.get(17));
+        try {
+            bufferManager.fetchNewPage(new DummyLockContext(), partNum, AccessHint.TEMP).unpin();
+        } finally {
+            pinned.unpin();
+        }
+        numIOs = bufferManager.getNumIOs();
+        bufferManager.fetchPage(new DummyLockContext(), tempPageNums.get(17)).unpin();
+        assertEquals(numIOs, bufferManager.getNumIOs());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testPrefetch() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            pageNums.add(diskSpaceManager.allocPage(partNum));
+        }
+
+        // prefetch is ignored until read-ahead is enabled
+        bufferManager.prefetch(pageNums);
+        assertEquals(0, bufferManager.getReadAheadWindow());
+        assertEquals(0, bufferManager.getNumPrefetches());
+
+        bufferManager.enableReadAhead(1);
+        assertTrue(bufferManager.getReadAheadWindow() > 0);
+        bufferManager.prefetch(pageNums);
+        // at most a quarter of the buffer holds prefetched pages that have not been fetched
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.getNumPrefetches() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(4, bufferManager.getNumPrefetches());
+        assertEquals(4, bufferManager.getNumIOs());
+
+        for (int i = 0; i < 4; ++i) {
+            bufferManager.fetchPageFrame(pageNums.get(i)).unpin();
+        }
+        assertEquals(4, bufferManager.getNumIOs());
+        assertEquals(4, bufferManager.getNumPrefetchHits());
+        assertEquals(0, bufferManager.getNumPrefetchesWasted());
+
+        bufferManager.close();
+    }
+
+    @Test
+    public void testConcurrentPrefetchHits() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            pageNums.add(diskSpaceManager.allocPage(partNum));
+        }
+        bufferManager.enableReadAhead(1);
+        bufferManager.prefetch(pageNums);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.getNumPrefetches() < 4 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(4, bufferManager.getNumPrefetches());
+
+        // every thread fetches every prefetched page, but each page is only a prefetch hit once
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (long pageNum : pageNums) {
+                    bufferManager.fetchPageFrame(pageNum).unpin();
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4, bufferManager.getNumIOs());
+        assertEquals(4, bufferManager.getNumPrefetchHits());
+        assertEquals(32, bufferManager.getMetrics().getHits());
+
+        // no prefetched pages are left waiting, so the whole quota is available again
+        List<Long> morePageNums = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            morePageNums.add(diskSpaceManager.allocPage(partNum));
+        }
+        bufferManager.prefetch(morePageNums);
+        deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.getNumPrefetches() < 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(8, bufferManager.getNumPrefetches());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testFetchNewPageDuringFlush() throws InterruptedException {
+        // while evictAll flushes every frame, the page flush hook lets another thread fetch a new
+        // page (which finds every frame locked), then flushes pages itself, as flushing the log
+        // partition does
+        BufferManager[] holder = new BufferManager[1];
+        AtomicBoolean inHook = new AtomicBoolean();
+        Thread[] fetcher = new Thread[1];
+        int partNum = diskSpaceManager.allocPart(1);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public void pageFlushHook(long pageLSN) {
+                if (inHook.getAndSet(true)) {
+                    return;
+                }
+                fetcher[0] = new Thread(() -> holder[0].fetchNewPageFrame(partNum).unpin());
+                fetcher[0].setDaemon(true);
+                fetcher[0].start();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                holder[0].flushPages(Collections.singletonList(DiskSpaceManager.getVirtualPageNum(partNum, 0)));
+            }
+        }, 4, new ClockEvictionPolicy());
+        holder[0] = bufferManager;
+        for (int i = 0; i < 4; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum);
+            frame.writeBytes((short) 0, (short) 1, new byte[] { (byte) i });
+            frame.unpin();
+        }
+
+        Thread evictor = new Thread(bufferManager::evictAll);
+        evictor.setDaemon(true);
+        evictor.start();
+        evictor.join(10000);
+        assertFalse(evictor.isAlive());
+        fetcher[0].join(10000);
+        assertFalse(fetcher[0].isAlive());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testBackgroundWriter() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            page.getBuffer().putInt(i);
+            pageNums.add(page.getPageNum());
+            page.unpin();
+        }
+        assertEquals(0, bufferManager.runBackgroundWriter());
+
+        // rounds run by hand: the interval is long enough that none run on their own
+        bufferManager.enableBackgroundWriter(0.5, 3600000);
+        Page pinned = bufferManager.fetchPage(new DummyLockContext(), pageNums.get(0));
+        try {
+            // half the buffer is made clean, skipping the pinned page, in order of page number
+            assertEquals(4, bufferManager.runBackgroundWriter());
+            assertEquals(4, bufferManager.getNumBackgroundWrites());
+            assertEquals(3, bufferManager.getBackgroundWriterBacklog());
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            for (int i = 0; i < 8; ++i) {
+                diskSpaceManager.readPage(pageNums.get(i), buf);
+                int expected = i >= 1 && i <= 4 ? i : 0;
+                assertEquals(expected, ByteBuffer.wrap(buf).getInt(BufferManager.RESERVED_SPACE));
+            }
+            assertEquals(0, bufferManager.runBackgroundWriter());
+            assertEquals(2, bufferManager.getNumBackgroundWriterRounds());
+
+            // loading pages evicts the clean pages, without writing anything
+            long numIOs = bufferManager.getNumIOs();
+            for (int i = 0; i < 4; ++i) {
+                Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+                page.getBuffer().putInt(8 + i);
+                page.unpin();
+            }
+            assertEquals(numIOs + 4, bufferManager.getNumIOs());
+            assertEquals(0, bufferManager.getNumDirtyEvictions());
+
+            // the next round picks up after the last page written
+            assertEquals(4, bufferManager.runBackgroundWriter());
+            assertEquals(3, bufferManager.getBackgroundWriterBacklog());
+            diskSpaceManager.readPage(pageNums.get(7), buf);
+            assertEquals(7, ByteBuffer.wrap(buf).getInt(BufferManager.RESERVED_SPACE));
+        } finally {
+            pinned.unpin();
+        }
+        bufferManager.close();
+    }
+
+    @Test
+    public void testBackgroundWriterThread() throws InterruptedException {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                new ClockEvictionPolicy());
+        bufferManager.enableBackgroundWriter(1, 10);
+        int partNum = diskSpaceManager.allocPart(1);
+        for (int i = 0; i < 8; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            page.getBuffer().putInt(i);
+            page.unpin();
+        }
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.getNumBackgroundWrites() < 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(8, bufferManager.getNumBackgroundWrites());
+        bufferManager.fetchNewPage(new DummyLockContext(), partNum).unpin();
+        assertEquals(0, bufferManager.getNumDirtyEvictions());
+        bufferManager.close();
+    }
+
+    @Test
+    public void testMetrics() {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 5,
+                new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            Page page = bufferManager.fetchNewPage(new DummyLockContext(), partNum);
+            if (i == 0) {
+                page.getBuffer().putInt(1);
+            }
+            pageNums.add(page.getPageNum());
+            page.unpin();
+        }
+        BufferMetrics metrics = bufferManager.getMetrics();
+        assertEquals(0, metrics.getHits());
+        assertEquals(6, metrics.getMisses());
+        // the sixth page evicted the first one, which was dirty
+        assertEquals(0, metrics.getCleanEvictions());
+        assertEquals(1, metrics.getDirtyEvictions());
+        assertEquals(6, metrics.getReadLatency().getCount());
+        assertEquals(1, metrics.getWriteLatency().getCount());
+        assertEquals(6, metrics.getPagesRead());
+        assertEquals(1, metrics.getPagesWritten());
+        assertEquals(7, bufferManager.getNumIOs());
+
+        TransactionContext transaction = new DummyTransactionContext(new LoggingLockManager(), 0);
+        TransactionContext.setTransaction(transaction);
+        try {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums.get(5)).unpin();
+            bufferManager.fetchPage(new DummyLockContext(), pageNums.get(0)).unpin();
+        } finally {
+            TransactionContext.unsetTransaction();
+        }
+        assertEquals(1, metrics.getHits());
+        assertEquals(7, metrics.getMisses());
+        assertEquals(1, metrics.getCleanEvictions());
+        assertEquals(0.125, metrics.getHitRatio(), 1e-9);
+        BufferMetrics transactionMetrics = transaction.getBufferMetrics();
+        assertEquals(1, transactionMetrics.getHits());
+        assertEquals(1, transactionMetrics.getMisses());
+        assertEquals(1, transactionMetrics.getCleanEvictions());
+        assertEquals(2, transactionMetrics.getPins());
+        assertEquals(1, transactionMetrics.getReadLatency().getCount());
+        assertEquals(1, transactionMetrics.getPagesRead());
+
+        Map<Integer, Integer> residency = bufferManager.getPartitionResidency();
+        assertEquals(Collections.singletonMap(partNum, 5), residency);
+        bufferManager.close();
+    }
+
+    @Test
+    public void testLatencyHistogram() {
+        BufferMetrics.LatencyHistogram histogram = new BufferMetrics().getReadLatency();
+        assertEquals(0, histogram.getPercentileMicros(50));
+        histogram.record(500);
+        for (int i = 0; i < 98; ++i) {
+            histogram.record(3000);
+        }
+        histogram.record(100000);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1, histogram.getBucketCounts()[0]);
+        assertEquals(98, histogram.getBucketCounts()[2]);
+        assertEquals(4, histogram.getPercentileMicros(50));
+        assertEquals(4, histogram.getPercentileMicros(99));
+        assertEquals(128, histogram.getPercentileMicros(100));
+        assertEquals((500 + 98 * 3000 + 100000) / 1000.0 / 100, histogram.getAverageMicros(), 1e-9);
+    }
+
+    @Test
+    public void testWarmUp() throws IOException, InterruptedException {
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new LRUEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+        List<Long> pageNums = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            pageNums.add(diskSpaceManager.allocPage(partNum));
+            bufferManager.fetchPage(new DummyLockContext(), pageNums.get(i)).unpin();
+            Thread.sleep(1);
+        }
+        // pages 2 to 5 are loaded, and 3 was used most recently
+        bufferManager.fetchPage(new DummyLockContext(), pageNums.get(3)).unpin();
+        Path file = tempFolder.newFolder().toPath().resolve("warm_up");
+        bufferManager.saveResidentPages(file);
+        bufferManager.close();
+
+        bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 4,
+                new LRUEvictionPolicy());
+        bufferManager.fetchPage(new DummyLockContext(), pageNums.get(0)).unpin();
+        bufferManager.fetchPage(new DummyLockContext(), pageNums.get(1)).unpin();
+        // the 3 most recently used pages are 3, 5 and 4, but only two frames are free
+        bufferManager.warmUp(file, 3);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bufferManager.isWarmingUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(bufferManager.isWarmingUp());
+        assertEquals(2, bufferManager.getNumWarmUpLoads());
+        assertEquals(0, bufferManager.getMetrics().getCleanEvictions());
+
+        long numIOs = bufferManager.getNumIOs();
+        for (int i : new int[] {0, 1, 3, 4}) {
+            bufferManager.fetchPage(new DummyLockContext(), pageNums.get(i)).unpin();
+        }
+        assertEquals(numIOs, bufferManager.getNumIOs());
+        bufferManager.close();
+    }
 }
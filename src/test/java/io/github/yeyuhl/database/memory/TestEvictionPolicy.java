@@ -2,10 +2,15 @@ package io.github.yeyuhl.database.memory;
 
 import io.github.yeyuhl.database.categories.Proj99Tests;
 import io.github.yeyuhl.database.categories.SystemTests;
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.io.MemoryDiskSpaceManager;
+import io.github.yeyuhl.database.recovery.DummyRecoveryManager;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.function.Supplier;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -32,7 +37,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -40,11 +45,11 @@ public class TestEvictionPolicy {
         }
 
         @Override
-        void readBytes(short position, short num, byte[] buf) {
+        void readBytes(int position, int num, byte[] buf) {
         }
 
         @Override
-        void writeBytes(short position, short num, byte[] buf) {
+        void writeBytes(int position, int num, byte[] buf) {
         }
 
         @Override
@@ -193,4 +198,198 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testTwoQueuePolicy() {
+        EvictionPolicy policy = new TwoQueueEvictionPolicy();
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        // hits on pages loaded once do not matter
+        policy.hit(frames[0]);
+
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        // page 0 is loaded again soon after being evicted, so it is kept from now on
+        policy.init(frames[0]); policy.hit(frames[0]);
+
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+        frames[2].pin();
+
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[2], frames[3]}));
+        policy.cleanup(frames[3]);
+
+        policy.init(frames[5]); policy.hit(frames[5]);
+
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[2], frames[5]}));
+        policy.cleanup(frames[4]);
+
+        policy.init(frames[6]); policy.hit(frames[6]);
+
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[0], frames[6], frames[2], frames[5]}));
+        policy.cleanup(frames[5]);
+
+        // only page 0 is left unpinned once the pages loaded once are pinned
+        frames[6].pin();
+        policy.init(frames[7]); policy.hit(frames[7]);
+        frames[7].pin();
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[6], frames[2], frames[7]}));
+        policy.cleanup(frames[0]);
+
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {placeholderFrames[0], frames[6], frames[2], frames[7]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+    }
+
+    @Test
+    public void testLRUKPolicy() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, 1);
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        // a second reference to page 0; the hit on page 3 is correlated with loading it
+        policy.hit(frames[0]);
+        policy.hit(frames[3]);
+
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        // page 1 is loaded again, and keeps the history of its first reference
+        policy.init(frames[1]); policy.hit(frames[1]);
+
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[3]}));
+        policy.cleanup(frames[3]);
+
+        policy.init(frames[2]); policy.hit(frames[2]);
+        frames[4].pin();
+
+        // every unpinned page has been referenced twice: page 0 has the oldest second reference
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[2]}));
+        policy.cleanup(frames[0]);
+
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {placeholderFrames[0], frames[4], placeholderFrames[1], placeholderFrames[2]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[4].unpin();
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy(1);
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        // a second reference to page 0 moves it to T2
+        policy.hit(frames[0]);
+
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        // page 1 was evicted from T1 too early: it goes to T2, and T1 grows to 1 page
+        policy.init(frames[1]); policy.hit(frames[1]);
+
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[4], frames[3]}));
+        policy.cleanup(frames[3]);
+
+        policy.init(frames[5]); policy.hit(frames[5]);
+
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[4], frames[5]}));
+        policy.cleanup(frames[4]);
+
+        // T1 is no larger than its target, so the least recently used page of T2 goes
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], placeholderFrames[0], frames[5]}));
+        policy.cleanup(frames[0]);
+
+        frames[1].pin();
+        frames[5].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {placeholderFrames[0], frames[1], placeholderFrames[1], frames[5]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[1].unpin();
+        frames[5].unpin();
+    }
+
+    @Test
+    public void testScanResistance() {
+        // hot pages in LRU are pushed out by a scan larger than the buffer
+        assertEquals(HOT_PAGES, hotPageMissesAfterScan(LRUEvictionPolicy::new));
+        assertEquals(0, hotPageMissesAfterScan(TwoQueueEvictionPolicy::new));
+        assertEquals(0, hotPageMissesAfterScan(LRUKEvictionPolicy::new));
+        assertEquals(0, hotPageMissesAfterScan(ARCEvictionPolicy::new));
+    }
+
+    private static final int HOT_PAGES = 3;
+
+    /**
+     * Reads a few hot pages again and again (along with other pages), then scans more pages
+     * than fit in the buffer, reading each page of the scan many times in a row.
+     * @return number of hot pages read from disk when read again after the scan
+     */
+    private static long hotPageMissesAfterScan(Supplier<EvictionPolicy> policy) {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 8,
+                policy, 1);
+        int partNum = diskSpaceManager.allocPart(1);
+        long[] hotPages = new long[HOT_PAGES];
+        for (int i = 0; i < HOT_PAGES; ++i) {
+            hotPages[i] = diskSpaceManager.allocPage(partNum);
+        }
+        for (int round = 0; round < 10; ++round) {
+            for (long pageNum : hotPages) {
+                readPage(bufferManager, pageNum, 1);
+            }
+            for (int i = 0; i < 5; ++i) {
+                readPage(bufferManager, diskSpaceManager.allocPage(partNum), 1);
+            }
+        }
+        for (int i = 0; i < 40; ++i) {
+            readPage(bufferManager, diskSpaceManager.allocPage(partNum), 20);
+        }
+        long numIOs = bufferManager.getNumIOs();
+        for (long pageNum : hotPages) {
+            readPage(bufferManager, pageNum, 1);
+        }
+        long misses = bufferManager.getNumIOs() - numIOs;
+        bufferManager.close();
+        diskSpaceManager.close();
+        return misses;
+    }
+
+    private static void readPage(BufferManager bufferManager, long pageNum, int numReads) {
+        BufferFrame frame = bufferManager.fetchPageFrame(pageNum);
+        byte[] buf = new byte[4];
+        for (int i = 0; i < numReads; ++i) {
+            frame.readBytes((short) (4 * i), (short) 4, buf);
+        }
+        frame.unpin();
+    }
 }
@@ -0,0 +1,71 @@
+package io.github.yeyuhl.database.memory;
+
+import io.github.yeyuhl.database.categories.Proj99Tests;
+import io.github.yeyuhl.database.categories.SystemTests;
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestPageTable {
+    @Test
+    public void testPutGetRemove() {
+        PageTable table = new PageTable(4);
+        long pageNum1 = DiskSpaceManager.getVirtualPageNum(1, 0);
+        long pageNum2 = DiskSpaceManager.getVirtualPageNum(1, 1);
+        assertEquals(-1, table.get(pageNum1));
+        assertFalse(table.containsKey(pageNum1));
+
+        table.put(pageNum1, 3);
+        table.put(pageNum2, 0);
+        assertEquals(3, table.get(pageNum1));
+        assertEquals(0, table.get(pageNum2));
+        assertTrue(table.containsKey(pageNum1));
+
+        // only removed if mapped to the given frame
+        assertFalse(table.remove(pageNum1, 2));
+        assertEquals(3, table.get(pageNum1));
+        assertTrue(table.remove(pageNum1, 3));
+        assertEquals(-1, table.get(pageNum1));
+        assertFalse(table.remove(pageNum1, 3));
+        assertEquals(0, table.get(pageNum2));
+
+        table.put(pageNum2, 1);
+        assertEquals(1, table.get(pageNum2));
+    }
+
+    @Test
+    public void testMatchesMap() {
+        // random puts and removes on a full table, so that probe sequences overlap and wrap around
+        int maxEntries = 16;
+        PageTable table = new PageTable(maxEntries);
+        Map<Long, Integer> expected = new HashMap<>();
+        List<Long> keys = new ArrayList<>();
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; ++i) {
+            if (expected.size() < maxEntries && (keys.isEmpty() || random.nextBoolean())) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(random.nextInt(4), random.nextInt(64));
+                if (!expected.containsKey(pageNum)) {
+                    keys.add(pageNum);
+                }
+                int frameIndex = random.nextInt(maxEntries);
+                expected.put(pageNum, frameIndex);
+                table.put(pageNum, frameIndex);
+            } else {
+                long pageNum = keys.remove(random.nextInt(keys.size()));
+                assertTrue(table.remove(pageNum, expected.remove(pageNum)));
+            }
+            for (long pageNum : keys) {
+                assertEquals((int) expected.get(pageNum), table.get(pageNum));
+            }
+        }
+    }
+}
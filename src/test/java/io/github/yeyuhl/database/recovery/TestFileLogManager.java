@@ -0,0 +1,335 @@
+package io.github.yeyuhl.database.recovery;
+
+import io.github.yeyuhl.database.categories.Proj99Tests;
+import io.github.yeyuhl.database.categories.SystemTests;
+import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.io.MemoryDiskSpaceManager;
+import io.github.yeyuhl.database.memory.BufferManager;
+import io.github.yeyuhl.database.memory.ClockEvictionPolicy;
+import io.github.yeyuhl.database.recovery.records.MasterLogRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@Category({Proj99Tests.class, SystemTests.class})
+public class TestFileLogManager {
+    private static final int PAGES_PER_SEGMENT = 4;
+    // master records are 9 bytes long, and the end of each log page holds its checksum
+    private static final int RECORDS_PER_PAGE = (DiskSpaceManager.PAGE_SIZE - FileLogManager.CHECKSUM_SIZE) / 9;
+
+    private BufferManager bufferManager;
+    private Path logDir;
+    private FileLogManager logManager;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws IOException {
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
+        this.bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new ClockEvictionPolicy());
+        this.logDir = tempFolder.newFolder("log").toPath();
+        this.logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+    }
+
+    @After
+    public void cleanup() {
+        logManager.close();
+        bufferManager.close();
+    }
+
+    @Test
+    public void testAppendFetchScan() {
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(LogManager.makeLSN(i / RECORDS_PER_PAGE, (i % RECORDS_PER_PAGE) * 9),
+                    logManager.appendToLog(new MasterLogRecord(i)));
+        }
+        assertEquals(new MasterLogRecord(0), logManager.fetchLogRecord(0));
+        assertEquals(new MasterLogRecord(500),
+                     logManager.fetchLogRecord(LogManager.makeLSN(1, (500 - RECORDS_PER_PAGE) * 9)));
+
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        // the log never goes through the buffer manager
+        assertEquals(0, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testFlushAndReopen() {
+        for (int i = 0; i < RECORDS_PER_PAGE * 6; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.flushToLSN(LogManager.makeLSN(2, 0));
+        assertEquals(LogManager.maxLSN(2), logManager.getFlushedLSN());
+
+        // the last three pages are lost without a flush
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        assertEquals(LogManager.maxLSN(2), logManager.getFlushedLSN());
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i < RECORDS_PER_PAGE * 3; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        // records are appended on a new page after the pages written before
+        assertEquals(LogManager.makeLSN(3, 0), logManager.appendToLog(new MasterLogRecord(-1)));
+        logManager.close();
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        assertEquals(new MasterLogRecord(-1), logManager.fetchLogRecord(LogManager.makeLSN(3, 0)));
+        assertEquals(LogManager.makeLSN(4, 0), logManager.appendToLog(new MasterLogRecord(-2)));
+    }
+
+    @Test
+    public void testFlushedPagesAreNotAppendedTo() {
+        long LSN = logManager.appendToLog(new MasterLogRecord(1));
+        logManager.flushToLSN(LSN);
+        assertEquals(LogManager.makeLSN(1, 0), logManager.appendToLog(new MasterLogRecord(2)));
+
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(1), iter.next());
+        assertEquals(new MasterLogRecord(2), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testPreallocatedSegments() throws IOException {
+        for (int i = 0; i < RECORDS_PER_PAGE * (PAGES_PER_SEGMENT + 1); ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.close();
+
+        Path first = logDir.resolve(FileLogManager.SEGMENT_PREFIX + 0);
+        Path second = logDir.resolve(FileLogManager.SEGMENT_PREFIX + 1);
+        assertEquals((long) PAGES_PER_SEGMENT * DiskSpaceManager.PAGE_SIZE, Files.size(first));
+        assertEquals((long) PAGES_PER_SEGMENT * DiskSpaceManager.PAGE_SIZE, Files.size(second));
+        assertFalse(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + 2)));
+        assertTrue(FileLogManager.exists(logDir));
+
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        Iterator<LogRecord> iter = logManager.scanFrom(LogManager.makeLSN(PAGES_PER_SEGMENT, 0));
+        for (int i = RECORDS_PER_PAGE * PAGES_PER_SEGMENT; i < RECORDS_PER_PAGE * (PAGES_PER_SEGMENT + 1); ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testReopenAfterTornFlush() throws IOException {
+        for (int i = 0; i < RECORDS_PER_PAGE * 8; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.close();
+
+        // a crash in the middle of a flush left page 5 unwritten, but pages 6 and 7 written
+        this.overwrite(5, 0, new byte[DiskSpaceManager.PAGE_SIZE]);
+
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        assertEquals(LogManager.maxLSN(4), logManager.getFlushedLSN());
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i < RECORDS_PER_PAGE * 5; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+
+        // the records after the hole never come back
+        assertEquals(LogManager.makeLSN(5, 0), logManager.appendToLog(new MasterLogRecord(-1)));
+        logManager.close();
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        iter = logManager.scanFrom(LogManager.makeLSN(5, 0));
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        assertFalse(iter.hasNext());
+        assertEquals(LogManager.makeLSN(6, 0), logManager.appendToLog(new MasterLogRecord(-2)));
+    }
+
+    @Test
+    public void testReopenAfterTornPage() throws IOException {
+        for (int i = 0; i < RECORDS_PER_PAGE * 3; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.close();
+
+        // only the start of page 2 made it to disk
+        this.overwrite(2, DiskSpaceManager.PAGE_SIZE / 2, new byte[DiskSpaceManager.PAGE_SIZE / 2]);
+
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        assertEquals(LogManager.maxLSN(1), logManager.getFlushedLSN());
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i < RECORDS_PER_PAGE * 2; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testRewriteMasterRecord() {
+        for (int i = 0; i < 1000; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.rewriteMasterRecord(new MasterLogRecord(77));
+        logManager.flushToLSN(LogManager.maxLSN(2));
+        logManager.rewriteMasterRecord(new MasterLogRecord(-1));
+        logManager.close();
+
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        for (int i = 1; i < 1000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testTruncate() {
+        for (int i = 0; i < RECORDS_PER_PAGE * PAGES_PER_SEGMENT * 4; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        long LSN = LogManager.makeLSN(PAGES_PER_SEGMENT * 3 + 1, 0);
+        logManager.flushToLSN(LSN);
+
+        // segment 0 holds the master record, and segment 3 holds LSN
+        assertEquals(PAGES_PER_SEGMENT * 2, logManager.truncate(LSN));
+        assertEquals(0, logManager.truncate(LSN));
+        assertTrue(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + 0)));
+        assertFalse(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + 1)));
+        assertFalse(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + 2)));
+        assertTrue(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + 3)));
+        assertEquals(new MasterLogRecord(0), logManager.fetchLogRecord(0));
+        assertEquals(new MasterLogRecord(RECORDS_PER_PAGE * PAGES_PER_SEGMENT * 3),
+                     logManager.scanFrom(LogManager.makeLSN(PAGES_PER_SEGMENT, 0)).next());
+        logManager.close();
+
+        // scans skip the deleted segments, and appends go after the last page written
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        assertEquals(LogManager.makeLSN(PAGES_PER_SEGMENT * 4, 0), logManager.appendToLog(new MasterLogRecord(-1)));
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i < RECORDS_PER_PAGE * PAGES_PER_SEGMENT; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        for (int i = RECORDS_PER_PAGE * PAGES_PER_SEGMENT * 3; i < RECORDS_PER_PAGE * PAGES_PER_SEGMENT * 4; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testConcurrentAppends() throws InterruptedException {
+        int numThreads = 8;
+        int recordsPerThread = 2000;
+        long[][] LSNs = new long[numThreads][recordsPerThread];
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; ++i) {
+                    LSNs[thread][i] = logManager.appendToLog(new MasterLogRecord(thread * recordsPerThread + i));
+                    if (i % 100 == 0) {
+                        // flushes seal the tail while other threads are appending to it
+                        logManager.flushToLSN(LSNs[thread][i]);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Set<Long> allLSNs = new HashSet<>();
+        for (int t = 0; t < numThreads; ++t) {
+            for (int i = 0; i < recordsPerThread; ++i) {
+                assertTrue(allLSNs.add(LSNs[t][i]));
+                assertEquals(new MasterLogRecord(t * recordsPerThread + i), logManager.fetchLogRecord(LSNs[t][i]));
+            }
+        }
+        logManager.close();
+
+        // every record made it to disk exactly once, and the records of each thread are in order
+        logManager = new FileLogManager(bufferManager, logDir, PAGES_PER_SEGMENT);
+        int[] next = new int[numThreads];
+        int numRecords = 0;
+        Iterator<LogRecord> iter = logManager.iterator();
+        while (iter.hasNext()) {
+            LogRecord record = iter.next();
+            assertTrue(allLSNs.contains(record.getLSN()));
+            long value = ((MasterLogRecord) record).lastCheckpointLSN;
+            int thread = (int) (value / recordsPerThread);
+            assertEquals(thread * recordsPerThread + next[thread], value);
+            ++next[thread];
+            ++numRecords;
+        }
+        assertEquals(numThreads * recordsPerThread, numRecords);
+    }
+
+    @Test
+    public void testConcurrentReadsOfTail() throws InterruptedException {
+        int numThreads = 4;
+        int recordsPerThread = 20000;
+        // records that were only partly copied in would lose the high bit
+        long highBit = 1L << 62;
+        AtomicLong lastLSN = new AtomicLong();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < recordsPerThread; ++i) {
+                    lastLSN.set(logManager.appendToLog(new MasterLogRecord(highBit | (thread * recordsPerThread + i))));
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        int numRead = 0;
+        boolean writing;
+        do {
+            writing = Arrays.stream(threads).anyMatch(Thread::isAlive);
+            Iterator<LogRecord> iter = logManager.scanFrom(LogManager.makeLSN(LogManager.getLSNPage(lastLSN.get()), 0));
+            while (iter.hasNext()) {
+                long value = ((MasterLogRecord) iter.next()).lastCheckpointLSN;
+                assertEquals(highBit, value & highBit);
+                assertTrue((value & ~highBit) < numThreads * recordsPerThread);
+                ++numRead;
+            }
+        } while (writing);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(numRead > 0);
+    }
+
+    /**
+     * Overwrites part of a log page on disk, as a crash in the middle of writing it would.
+     */
+    private void overwrite(long pageNum, int offset, byte[] bytes) throws IOException {
+        Path segment = logDir.resolve(FileLogManager.SEGMENT_PREFIX + pageNum / PAGES_PER_SEGMENT);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(java.nio.ByteBuffer.wrap(bytes),
+                          (pageNum % PAGES_PER_SEGMENT) * DiskSpaceManager.PAGE_SIZE + offset);
+        }
+    }
+}
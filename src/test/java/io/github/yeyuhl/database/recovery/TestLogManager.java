@@ -4,6 +4,7 @@ import io.github.yeyuhl.database.categories.SystemTests;
 import io.github.yeyuhl.database.concurrency.DummyLockContext;
 import io.github.yeyuhl.database.concurrency.LockContext;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
+import io.github.yeyuhl.database.io.ForceCountingDiskSpaceManager;
 import io.github.yeyuhl.database.io.MemoryDiskSpaceManager;
 import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.ClockEvictionPolicy;
@@ -11,19 +12,26 @@ import io.github.yeyuhl.database.memory.Page;
 import io.github.yeyuhl.database.recovery.records.MasterLogRecord;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.IOException;
 import java.util.Iterator;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 @Category(SystemTests.class)
 public class TestLogManager {
     private LogManager logManager;
     private BufferManager bufferManager;
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Before
     public void setup() {
         DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager();
@@ -72,9 +80,9 @@ public class TestLogManager {
     @Test
     public void testFlushedLSN() {
         logManager.appendToLog(new MasterLogRecord(1234));
-        logManager.flushToLSN(9999);
+        logManager.flushToLSN(LogManager.maxLSN(0));
 
-        assertEquals(9999, logManager.getFlushedLSN());
+        assertEquals(LogManager.maxLSN(0), logManager.getFlushedLSN());
     }
 
     @Test
@@ -83,7 +91,7 @@ public class TestLogManager {
             logManager.appendToLog(new MasterLogRecord(i));
         }
 
-        Iterator<LogRecord> iter = logManager.scanFrom(90000);
+        Iterator<LogRecord> iter = logManager.scanFrom(LogManager.makeLSN(9, 0));
         for (int i = 9 * (DiskSpaceManager.PAGE_SIZE / 9); i < 10000; ++i) {
             assertEquals(new MasterLogRecord(i), iter.next());
         }
@@ -116,18 +124,88 @@ public class TestLogManager {
         p.unpin();
         p.flush();
         long prevIO = bufferManager.getNumIOs();
-        logManager.flushToLSN(20001);
+        logManager.flushToLSN(LogManager.makeLSN(2, 1));
         long postIO = bufferManager.getNumIOs();
         assertEquals(3, postIO - prevIO);
 
         prevIO = bufferManager.getNumIOs();
-        logManager.flushToLSN(50001);
+        logManager.flushToLSN(LogManager.makeLSN(5, 1));
         postIO = bufferManager.getNumIOs();
         assertEquals(2, postIO - prevIO);
 
         prevIO = bufferManager.getNumIOs();
-        logManager.flushToLSN(50055);
+        logManager.flushToLSN(LogManager.makeLSN(5, 55));
         postIO = bufferManager.getNumIOs();
         assertEquals(0, postIO - prevIO);
     }
+
+    @Test
+    public void testGroupCommit() throws InterruptedException {
+        int numThreads = 8;
+        int recordsPerPage = DiskSpaceManager.PAGE_SIZE / 9;
+        long[] LSNs = new long[numThreads];
+        for (int i = 0; i < recordsPerPage * 4; ++i) {
+            long LSN = logManager.appendToLog(new MasterLogRecord(i));
+            if (i % (recordsPerPage / 2) == 0 && i / (recordsPerPage / 2) < numThreads) {
+                LSNs[i / (recordsPerPage / 2)] = LSN;
+            }
+        }
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; ++i) {
+            long LSN = LSNs[i];
+            threads[i] = new Thread(() -> logManager.groupFlushToLSN(LSN));
+        }
+        synchronized (logManager) {
+            // the first committer leads, and blocks flushing until the log manager is released...
+            threads[0].start();
+            waitForState(threads[0], Thread.State.BLOCKED);
+            // ...while the others queue up behind it
+            for (int i = 1; i < numThreads; ++i) {
+                threads[i].start();
+                waitForState(threads[i], Thread.State.WAITING);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // one flush for the leader, and one more for everyone its flush did not cover
+        assertEquals(2, logManager.getNumGroupFlushes());
+        assertEquals(numThreads, logManager.getNumGroupCommits());
+        assertEquals(LogManager.maxLSN(LogManager.getLSNPage(LSNs[numThreads - 1])), logManager.getFlushedLSN());
+    }
+
+    @Test
+    public void testFlushForcesLogInWriteBackMode() throws IOException {
+        ForceCountingDiskSpaceManager diskSpaceManager = new ForceCountingDiskSpaceManager(
+                tempFolder.newFolder("write-back").getAbsolutePath(), new DummyRecoveryManager());
+        diskSpaceManager.allocPart(0);
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        BufferManager bufferManager = new BufferManager(diskSpaceManager, new DummyRecoveryManager(), 16,
+                new ClockEvictionPolicy());
+        LogManager logManager = new LogManager(bufferManager);
+        try {
+            // data pages are not forced until sync
+            diskSpaceManager.writePage(pageNum, new byte[DiskSpaceManager.PAGE_SIZE]);
+            assertEquals(0, diskSpaceManager.getNumForces(partNum));
+
+            // the log is on disk once flushToLSN returns
+            int numForces = diskSpaceManager.getNumForces(0);
+            long LSN = logManager.appendToLog(new MasterLogRecord(1234));
+            assertEquals(numForces, diskSpaceManager.getNumForces(0));
+            logManager.flushToLSN(LSN);
+            assertTrue(diskSpaceManager.getNumForces(0) > numForces);
+        } finally {
+            logManager.close();
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    private static void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+        while (thread.getState() != state) {
+            Thread.sleep(1);
+        }
+    }
 }
@@ -98,6 +98,18 @@ public class TestLogRecord {
                        pageString));
     }
 
+    @Test
+    public void testUpdatePageRangesSerialize() {
+        checkSerialize(new UpdatePageRangesLogRecord(-98765L, -43210L, -12345L, new short[] {12, 1234},
+                       new short[] {2, 3}, "asdfg".getBytes(), "zxcvb".getBytes()));
+    }
+
+    @Test
+    public void testUndoUpdatePageRangesSerialize() {
+        checkSerialize(new UndoUpdatePageRangesLogRecord(-98765L, -43210L, -12345L, -57812L,
+                       new short[] {12, 1234}, new short[] {2, 3}, "zxcvb".getBytes()));
+    }
+
     @Test
     public void testBeginCheckpointSerialize() {
         checkSerialize(new BeginCheckpointLogRecord());
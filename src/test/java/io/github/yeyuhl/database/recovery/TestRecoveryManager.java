@@ -6,10 +6,12 @@ import io.github.yeyuhl.database.categories.HiddenTests;
 import io.github.yeyuhl.database.categories.Proj5Tests;
 import io.github.yeyuhl.database.categories.PublicTests;
 import io.github.yeyuhl.database.common.Pair;
+import io.github.yeyuhl.database.concurrency.DummyLockContext;
 import io.github.yeyuhl.database.io.DiskSpaceManager;
 import io.github.yeyuhl.database.io.DiskSpaceManagerImpl;
 import io.github.yeyuhl.database.memory.BufferManager;
 import io.github.yeyuhl.database.memory.LRUEvictionPolicy;
+import io.github.yeyuhl.database.memory.Page;
 import io.github.yeyuhl.database.recovery.records.*;
 import org.junit.After;
 import org.junit.Before;
@@ -22,7 +24,11 @@ import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import static junit.framework.TestCase.assertTrue;
@@ -156,19 +162,20 @@ public class TestRecoveryManager {
         // AbortTransaction |        2 |   30000 |       0 |
         // AbortTransaction |        1 |   40000 |   20000 |
         // EndTransaction   |        2 |   50000 |   30000 |
-        logManager.flushToLSN(9999L); // force next record to be LSN 10000L
+        logManager.flushToLSN(LogManager.maxLSN(0)); // force next record onto log page 1
         LogRecord updateRecord = new UpdatePageLogRecord(t1.getTransNum(), 10000000001L, 0L, (short) 71, before, after);
         logManager.appendToLog(updateRecord);
-        logManager.flushToLSN(19999L); // force next record to be LSN 20000L
-        LogRecord allocRecord = new AllocPartLogRecord(t1.getTransNum(), 7, 10000L);
+        logManager.flushToLSN(LogManager.maxLSN(1)); // force next record onto log page 2
+        LogRecord allocRecord = new AllocPartLogRecord(t1.getTransNum(), 7, LogManager.makeLSN(1, 0));
         logManager.appendToLog(allocRecord);
-        logManager.flushToLSN(29999L); // force next record to be LSN 30000L
+        logManager.flushToLSN(LogManager.maxLSN(2)); // force next record onto log page 3
         logManager.appendToLog(new AbortTransactionLogRecord(t2.getTransNum(), 0L)); // random log
-        logManager.flushToLSN(39999L); // force next record to be LSN 40000L
-        logManager.appendToLog(new AbortTransactionLogRecord(t1.getTransNum(), 20000L));
-        logManager.flushToLSN(49999L); // force next record to be LSN 50000L
-        logManager.appendToLog(new EndTransactionLogRecord(t2.getTransNum(), 30000L)); // random log
-        logManager.flushToLSN(59999L); // force next record to be LSN 60000L
+        logManager.flushToLSN(LogManager.maxLSN(3)); // force next record onto log page 4
+        logManager.appendToLog(new AbortTransactionLogRecord(t1.getTransNum(), LogManager.makeLSN(2, 0)));
+        logManager.flushToLSN(LogManager.maxLSN(4)); // force next record onto log page 5
+        // random log
+        logManager.appendToLog(new EndTransactionLogRecord(t2.getTransNum(), LogManager.makeLSN(3, 0)));
+        logManager.flushToLSN(LogManager.maxLSN(5)); // force next record onto log page 6
 
         // Execute the update/alloc records so that changes can be undone
         updateRecord.redo(recoveryManager, diskSpaceManager, bufferManager);
@@ -179,7 +186,7 @@ public class TestRecoveryManager {
         bufferManager.evictAll();
 
         // Manually set T1's lastLSN to the Abort record's LSN. Update status.
-        recoveryManager.transactionTable.get(t1.getTransNum()).lastLSN = 40000L;
+        recoveryManager.transactionTable.get(t1.getTransNum()).lastLSN = LogManager.makeLSN(4, 0);
         t1.setStatus(Transaction.Status.ABORTING);
 
         // Manually remove T2 from transaction table. Update status.
@@ -188,10 +195,10 @@ public class TestRecoveryManager {
 
         // 2. T1 ends. T1's alloc record and update record should be undone
         ///   (redo should be called on their CLRs)
-        LogRecord expectedAllocCLR = allocRecord.undo(40000L);
-        expectedAllocCLR.setLSN(60000L);
-        LogRecord expectedUpdateCLR = updateRecord.undo(60000L);
-        expectedUpdateCLR.setLSN(70000L);
+        LogRecord expectedAllocCLR = allocRecord.undo(LogManager.makeLSN(4, 0));
+        expectedAllocCLR.setLSN(LogManager.makeLSN(6, 0));
+        LogRecord expectedUpdateCLR = updateRecord.undo(LogManager.makeLSN(6, 0));
+        expectedUpdateCLR.setLSN(LogManager.makeLSN(7, 0));
 
         setupRedoChecks(
             record -> assertEquals(expectedAllocCLR, record),
@@ -201,7 +208,7 @@ public class TestRecoveryManager {
         finishRedoChecks();
 
         // 3. Check state after ending
-        Iterator<LogRecord> logs = logManager.scanFrom(60000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(6, 0));
 
         // The CLR for the alloc record and the CLR for the update record have
         // been appended.
@@ -420,6 +427,80 @@ public class TestRecoveryManager {
         assertEquals(LSN1, (long) dirtyPageTable.get(10000000002L));
     }
 
+    /**
+     * Tests logging a write that changed several ranges of a page:
+     * 1. T1 logs a write of three ranges of 1000 bytes on 10000000001L
+     *    Checks:
+     *      - The first two ranges are logged in one UpdatePageRangesLogRecord, and the third
+     *        (which does not fit on the same log page) in an UpdatePageLogRecord
+     *      - Transaction table and dirty page table are updated as for single writes
+     * 2. T1 rolls back the write
+     *    Checks:
+     *      - The CLRs restore the bytes of every range
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testLogPageWrites() {
+        short[] offsets = new short[] { 0, 1200, 2400, 0 };
+        short[] lengths = new short[] { 1000, 1000, 1000, 0 };
+        // scratch buffers may be longer than the ranges
+        byte[] before = new byte[3500];
+        byte[] after = new byte[3500];
+        for (int i = 0; i < 3000; ++i) {
+            before[i] = (byte) (i / 1000);
+            after[i] = (byte) (i / 1000 + 10);
+        }
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        recoveryManager.savepoint(1L, "savepoint 1");
+        long LSN = recoveryManager.logPageWrites(1L, 10000000001L, 3, offsets, lengths, before, after);
+        assertEquals(LSN, transactionTable.get(1L).lastLSN);
+
+        Iterator<LogRecord> logs = logManager.iterator();
+        LogRecord record = logs.next();
+        while (record.getType() != LogType.UPDATE_PAGE_RANGES) {
+            record = logs.next();
+        }
+        UpdatePageRangesLogRecord ranges = (UpdatePageRangesLogRecord) record;
+        assertArrayEquals(new short[] { 0, 1200 }, ranges.offsets);
+        assertArrayEquals(new short[] { 1000, 1000 }, ranges.lengths);
+        assertArrayEquals(Arrays.copyOfRange(before, 0, 2000), ranges.before);
+        assertArrayEquals(Arrays.copyOfRange(after, 0, 2000), ranges.after);
+        assertEquals(record.getLSN(), (long) dirtyPageTable.get(10000000001L));
+
+        record = logs.next();
+        assertEquals(LSN, record.getLSN());
+        assertEquals(LogType.UPDATE_PAGE, record.getType());
+        assertEquals((short) 2400, ((UpdatePageLogRecord) record).offset);
+        assertArrayEquals(Arrays.copyOfRange(after, 2000, 3000), ((UpdatePageLogRecord) record).after);
+        assertFalse(logs.hasNext());
+
+        recoveryManager.rollbackToSavepoint(1L, "savepoint 1");
+
+        logs = logManager.scanFrom(LSN);
+        logs.next(); // last page write record
+        assertEquals(LogType.UNDO_UPDATE_PAGE, logs.next().getType());
+        LogRecord clr = logs.next();
+        assertEquals(LogType.UNDO_UPDATE_PAGE_RANGES, clr.getType());
+        assertArrayEquals(ranges.before, ((UndoUpdatePageRangesLogRecord) clr).after);
+        assertEquals(ranges.getPrevLSN(), clr.getUndoNextLSN());
+        assertFalse(logs.hasNext());
+
+        Page page = bufferManager.fetchPage(new DummyLockContext(), 10000000001L);
+        try {
+            byte[] contents = new byte[3400];
+            page.getBuffer().get(contents);
+            for (int r = 0; r < 3; ++r) {
+                for (int i = 0; i < lengths[r]; ++i) {
+                    assertEquals(before[r * 1000 + i], contents[offsets[r] + i]);
+                }
+            }
+        } finally {
+            page.unpin();
+        }
+    }
+
     /**
      * Tests rolling back to a savepoint:
      * 1. T1 sets a savepoint, logs a page write, then rolls back to the savepoint
@@ -522,7 +603,7 @@ public class TestRecoveryManager {
         // Perform checkpoint
         recoveryManager.checkpoint();
 
-        Iterator<LogRecord> logs = logManager.scanFrom(10000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(1, 0));
 
         // Next 3 logs should be from the checkpoint
         LogRecord beginCheckpoint = logs.next();
@@ -590,13 +671,13 @@ public class TestRecoveryManager {
         recoveryManager.startTransaction(t1);
         recoveryManager.startTransaction(t2);
 
-        logManager.flushToLSN(9999L); // force next record to be LSN 10000L
+        logManager.flushToLSN(LogManager.maxLSN(0)); // force next record onto log page 1
         LogRecord updateRecord1 = new UpdatePageLogRecord(t1.getTransNum(), 10000000001L, 0L, (short) 71,
                 before, after);
         logManager.appendToLog(updateRecord1);
         updateRecord1.redo(recoveryManager, diskSpaceManager, bufferManager);
 
-        logManager.flushToLSN(19999L); // force next record to be LSN 20000L
+        logManager.flushToLSN(LogManager.maxLSN(1)); // force next record onto log page 2
         LogRecord updateRecord2 = new UpdatePageLogRecord(t2.getTransNum(), 10000000001L, 0L, (short) 33,
                 before, after);
         logManager.appendToLog(updateRecord2);
@@ -605,38 +686,38 @@ public class TestRecoveryManager {
         transactionTable.get(t2.getTransNum()).lastLSN = updateRecord2.getLSN();
         recoveryManager.savepoint(t2.getTransNum(), "savepoint");
 
-        logManager.flushToLSN(29999L); // force next record to be LSN 30000L
-        LogRecord updateRecord3 = new UpdatePageLogRecord(t2.getTransNum(), 10000000001L, 20000L,
-                (short) 11,
+        logManager.flushToLSN(LogManager.maxLSN(2)); // force next record onto log page 3
+        LogRecord updateRecord3 = new UpdatePageLogRecord(t2.getTransNum(), 10000000001L,
+                LogManager.makeLSN(2, 0), (short) 11,
                 before, after);
         logManager.appendToLog(updateRecord3);
         updateRecord3.redo(recoveryManager, diskSpaceManager, bufferManager);
 
-        logManager.flushToLSN(39999L); // force next record to be LSN 40000L
-        LogRecord updateRecord4 = new UpdatePageLogRecord(t1.getTransNum(), 10000000002L, 10000L,
-                (short) 991,
+        logManager.flushToLSN(LogManager.maxLSN(3)); // force next record onto log page 4
+        LogRecord updateRecord4 = new UpdatePageLogRecord(t1.getTransNum(), 10000000002L,
+                LogManager.makeLSN(1, 0), (short) 991,
                 before, after);
         logManager.appendToLog(updateRecord4);
         updateRecord4.redo(recoveryManager, diskSpaceManager, bufferManager);
 
-        logManager.flushToLSN(49999L); // force next record to be LSN 50000L
-        LogRecord updateRecord5 = new UndoUpdatePageLogRecord(t2.getTransNum(), 10000000001L, 30000L,
-                20000L,
+        logManager.flushToLSN(LogManager.maxLSN(4)); // force next record onto log page 5
+        LogRecord updateRecord5 = new UndoUpdatePageLogRecord(t2.getTransNum(), 10000000001L,
+                LogManager.makeLSN(3, 0), LogManager.makeLSN(2, 0),
                 (short) 11, before);
         logManager.appendToLog(updateRecord5);
         updateRecord5.redo(recoveryManager, diskSpaceManager, bufferManager);
 
-        logManager.flushToLSN(59999L); // force next record to be LSN 60000L
+        logManager.flushToLSN(LogManager.maxLSN(5)); // force next record onto log page 6
 
         // Flush buffer manager + DPT
         recoveryManager.redoComplete = true; // Must be set to true to flush DPT
         bufferManager.evictAll();
 
         // Manually set DPT and transaction table values
-        dirtyPageTable.put(10000000001L, 10000L);
-        dirtyPageTable.put(10000000003L, 40000L);
-        transactionTable.get(t1.getTransNum()).lastLSN = 40000L;
-        transactionTable.get(t2.getTransNum()).lastLSN = 50000L;
+        dirtyPageTable.put(10000000001L, LogManager.makeLSN(1, 0));
+        dirtyPageTable.put(10000000003L, LogManager.makeLSN(4, 0));
+        transactionTable.get(t1.getTransNum()).lastLSN = LogManager.makeLSN(4, 0);
+        transactionTable.get(t2.getTransNum()).lastLSN = LogManager.makeLSN(5, 0);
         Map<Long, Long> expectedDPT = new HashMap<>(dirtyPageTable);
         Map<Long, TransactionTableEntry> expectedTxnTable = new HashMap<>(transactionTable);
 
@@ -650,9 +731,9 @@ public class TestRecoveryManager {
         assertEquals(1L, finalNumIOs - initNumIOs);
 
         // 2. T2 rolls back to savepoint.
-        Iterator<LogRecord> logs = logManager.scanFrom(60000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(6, 0));
         assertFalse(logs.hasNext()); // no other records written
-        assertEquals(59999L, logManager.getFlushedLSN()); // not flushed
+        assertEquals(LogManager.maxLSN(5), logManager.getFlushedLSN()); // not flushed
         assertEquals(t1.getStatus(), Transaction.Status.RUNNING);
         assertEquals(expectedDPT, dirtyPageTable);
         assertEquals(expectedTxnTable, transactionTable);
@@ -819,12 +900,12 @@ public class TestRecoveryManager {
         recoveryManager.restartAnalysis();
 
         // check log
-        Iterator<LogRecord> logs = logManager.scanFrom(20000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(2, 0));
         assertEquals(new EndTransactionLogRecord(2L, LSNs.get(8)), logs.next());
         LogRecord abortRecord = logs.next();
         assertEquals(new AbortTransactionLogRecord(4L, 0), abortRecord);
         assertFalse(logs.hasNext());
-        assertEquals(19999L, logManager.getFlushedLSN());
+        assertEquals(LogManager.maxLSN(1), logManager.getFlushedLSN());
 
         // T1 and T2 should have ended, and been removed
         assertFalse(transactionTable.containsKey(1l));
@@ -908,7 +989,7 @@ public class TestRecoveryManager {
         assertEquals(Transaction.Status.RECOVERY_ABORTING, transactionTable.get(6L).transaction.getStatus());
 
         // check log
-        Iterator<LogRecord> logs = logManager.scanFrom(20000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(2, 0));
         assertEquals(new EndTransactionLogRecord(2L, LSNs.get(1)), logs.next());
         assertEquals(new EndTransactionLogRecord(5L, LSNs.get(7)), logs.next());
         assertFalse(logs.hasNext());
@@ -1136,7 +1217,7 @@ public class TestRecoveryManager {
         assertEquals(Transaction.Status.COMPLETE, t1.getStatus());
         assertFalse(transactionTable.containsKey(1L));
 
-        Iterator<LogRecord> logs = logManager.scanFrom(20000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(2, 0));
 
         LogRecord next = logs.next();
         assertEquals(logManager.fetchLogRecord(LSNs.get(0)).undo(LSNs.get(5)), next);
@@ -1214,7 +1295,7 @@ public class TestRecoveryManager {
         }, (LogRecord record) -> {
             assertEquals(LogType.UNDO_ALLOC_PAGE, record.getType());
             assertNotNull("log record not appended to log yet", record.LSN);
-            assertEquals(29999L, logManager1.getFlushedLSN()); // flushed
+            assertEquals(LogManager.maxLSN(2), logManager1.getFlushedLSN()); // flushed
             assertEquals((long) record.LSN, transactionTable.get(1L).lastLSN);
             assertEquals(Optional.of(10000000099L), record.getPageNum());
         }, (LogRecord record) -> {
@@ -1233,7 +1314,7 @@ public class TestRecoveryManager {
         assertFalse(transactionTable.containsKey(1L));
 
         // 5
-        Iterator<LogRecord> logs = logManager.scanFrom(20000L);
+        Iterator<LogRecord> logs = logManager.scanFrom(LogManager.makeLSN(2, 0));
 
         LogRecord next = logs.next();
         assertEquals(logManager.fetchLogRecord(LSNs.get(2)).undo(LSNs.get(3)), next);
@@ -1510,4 +1591,333 @@ public class TestRecoveryManager {
         recoveryManager.diskSpaceManager.close();
         DummyTransaction.cleanupTransactions();
     }
+
+    /**
+     * Tests that checkpoints reclaim the log that restart no longer needs. The log is kept in
+     * segment files of 4 log pages each.
+     * Checks:
+     *  - Log pages are kept while an active transaction or a dirty page needs them
+     *  - Once neither does, the segments before the last checkpoint are deleted, except the
+     *    one holding the master record
+     *  - Restart from the truncated log succeeds
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointTruncatesLog() throws IOException {
+        String dir = tempFolder.newFolder("truncate-dir").getAbsolutePath();
+        Path logDir = tempFolder.newFolder("log").toPath();
+        recoveryManager.close();
+        recoveryManager = loadRecoveryManager(dir);
+        logManager = recoveryManager.logManager = new FileLogManager(bufferManager, logDir, 4);
+        recoveryManager.initialize();
+        recoveryManager.restart();
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+        Arrays.fill(after, (byte) 1);
+        // two records per log page: 20 log pages
+        for (int i = 0; i < 40; ++i) {
+            recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after);
+        }
+        Path secondSegment = logDir.resolve(FileLogManager.SEGMENT_PREFIX + 1);
+
+        // T1 is still active
+        recoveryManager.checkpoint();
+        assertTrue(Files.exists(secondSegment));
+
+        // the page T1 wrote is still dirty
+        recoveryManager.commit(1L);
+        recoveryManager.end(1L);
+        recoveryManager.checkpoint();
+        assertTrue(Files.exists(secondSegment));
+
+        recoveryManager.diskIOHook(pageNum);
+        recoveryManager.checkpoint();
+        assertTrue(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + 0)));
+        for (int i = 1; i < 5; ++i) {
+            assertFalse(Files.exists(logDir.resolve(FileLogManager.SEGMENT_PREFIX + i)));
+        }
+        long checkpointLSN = ((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+        assertEquals(new BeginCheckpointLogRecord(), logManager.fetchLogRecord(checkpointLSN));
+        recoveryManager.close();
+
+        recoveryManager = loadRecoveryManager(dir);
+        recoveryManager.logManager = new FileLogManager(bufferManager, logDir, 4);
+        recoveryManager.restart();
+        assertTrue(recoveryManager.transactionTable.isEmpty());
+    }
+
+    /**
+     * Tests a checkpoint started by another thread after T1's page write is appended to the
+     * log, but before logPageWrite returns. The write never reaches the page.
+     * Checks:
+     *  - The checkpoint waits for the write to be in the DPT and transaction table
+     *  - Restart redoes the write
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointDuringPageWrite() throws IOException, InterruptedException {
+        String dir = tempFolder.newFolder("checkpoint-race-dir").getAbsolutePath();
+        Path logDir = tempFolder.newFolder("log").toPath();
+        recoveryManager.close();
+        ARIESRecoveryManager rm = recoveryManager = loadRecoveryManager(dir);
+        Thread checkpointer = new Thread(rm::checkpoint);
+        AtomicBoolean startCheckpoint = new AtomicBoolean();
+        logManager = rm.logManager = new FileLogManager(bufferManager, logDir) {
+            @Override
+            public long appendToLog(LogRecord record) {
+                long LSN = super.appendToLog(record);
+                if (record.getType() == LogType.UPDATE_PAGE && startCheckpoint.getAndSet(false)) {
+                    checkpointer.start();
+                    try {
+                        checkpointer.join(200);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return LSN;
+            }
+        };
+        rm.initialize();
+        rm.restart();
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        rm.startTransaction(transaction1);
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+        startCheckpoint.set(true);
+        rm.logPageWrite(1L, pageNum, (short) 0, before, after);
+        checkpointer.join();
+        rm.commit(1L);
+        shutdownRecoveryManager(rm);
+
+        recoveryManager = loadRecoveryManager(dir);
+        recoveryManager.logManager = new FileLogManager(bufferManager, logDir);
+        recoveryManager.restart();
+        byte[] actual = new byte[4];
+        Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            page.getBuffer().get(actual);
+            assertArrayEquals(after, actual);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Tests that a checkpoint keeps the log of a page that is written back, in write-back mode,
+     * after the checkpoint has synced the disk space manager: the write is not on disk yet, so
+     * the page's records are still needed by redo.
+     * Checks:
+     *  - The segments holding the page's records survive the checkpoint
+     *  - The next checkpoint, which syncs the write, reclaims them
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testCheckpointKeepsLogOfUnsyncedWriteBack() throws IOException {
+        String dir = tempFolder.newFolder("write-back-dir").getAbsolutePath();
+        Path logDir = tempFolder.newFolder("log").toPath();
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        AtomicBoolean writeBackAfterSync = new AtomicBoolean();
+        ARIESRecoveryManager rm = new ARIESRecoveryManager(DummyTransaction::create);
+        DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, rm, false) {
+            @Override
+            public void sync() {
+                super.sync();
+                if (writeBackAfterSync.getAndSet(false)) {
+                    // the page is written back right after the checkpoint's sync
+                    Page page = rm.bufferManager.fetchPage(new DummyLockContext(), pageNum);
+                    try {
+                        page.flush();
+                    } finally {
+                        page.unpin();
+                    }
+                }
+            }
+        };
+        BufferManager bm = new BufferManager(dsm, rm, 32, new LRUEvictionPolicy());
+        dsm.allocPart(0);
+        dsm.allocPart(1);
+        dsm.allocPage(pageNum);
+        rm.setManagers(dsm, bm);
+        rm.logManager = new FileLogManager(bm, logDir, 4);
+        rm.initialize();
+        rm.restart();
+        recoveryManager.close();
+        recoveryManager = rm;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        rm.startTransaction(transaction1);
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+        Arrays.fill(after, (byte) 1);
+        // two records per log page: 20 log pages
+        for (int i = 0; i < 40; ++i) {
+            rm.logPageWrite(1L, pageNum, (short) 0, before, after);
+        }
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            page.getBuffer().put(after);
+        } finally {
+            page.unpin();
+        }
+        rm.commit(1L);
+        rm.end(1L);
+        Path secondSegment = logDir.resolve(FileLogManager.SEGMENT_PREFIX + 1);
+
+        writeBackAfterSync.set(true);
+        rm.checkpoint();
+        assertFalse(rm.dirtyPageTable.containsKey(pageNum));
+        assertTrue(Files.exists(secondSegment));
+
+        rm.checkpoint();
+        assertFalse(Files.exists(secondSegment));
+    }
+
+    /**
+     * Tests restart from a log written before the LSN format was recorded, whose LSNs are
+     * page number * 10000 + offset. T1 writes a page over 20 log pages, a checkpoint is taken,
+     * and T1 writes the page once more and commits; none of the writes reach the page.
+     * Checks:
+     *  - A database directory without an LSN format file reads as LSNFormat.DECIMAL
+     *  - Restart in that format finds the checkpoint, and redoes T1's last write with its LSN
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testRestartDecimalLSNLog() throws IOException {
+        String dir = tempFolder.newFolder("decimal-dir").getAbsolutePath();
+        long pageNum = DiskSpaceManager.getVirtualPageNum(1, 0);
+        ARIESRecoveryManager rm = new ARIESRecoveryManager(DummyTransaction::create, null, LSNFormat.DECIMAL);
+        DiskSpaceManager dsm = new DiskSpaceManagerImpl(dir, rm);
+        BufferManager bm = new BufferManager(dsm, rm, 32, new LRUEvictionPolicy());
+        dsm.allocPart(0);
+        dsm.allocPart(1);
+        dsm.allocPage(pageNum);
+        rm.setManagers(dsm, bm);
+        rm.initialize();
+        rm.restart();
+        recoveryManager.close();
+        recoveryManager = rm;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        rm.startTransaction(transaction1);
+        byte[] before = new byte[1000];
+        byte[] after = new byte[1000];
+        Arrays.fill(after, (byte) 1);
+        // two records per log page: 20 log pages
+        for (int i = 0; i < 40; ++i) {
+            rm.logPageWrite(1L, pageNum, (short) 0, before, after);
+        }
+        rm.checkpoint();
+        byte[] last = new byte[1000];
+        Arrays.fill(last, (byte) 2);
+        long lastLSN = rm.logPageWrite(1L, pageNum, (short) 0, after, last);
+        rm.commit(1L);
+        assertTrue(lastLSN / 10000L >= 20);
+        assertTrue(lastLSN % 10000L < DiskSpaceManager.PAGE_SIZE);
+        shutdownRecoveryManager(rm);
+
+        Path dbDir = Paths.get(dir);
+        assertFalse(Files.exists(dbDir.resolve(LSNFormat.LSN_FORMAT_FILE)));
+        assertEquals(LSNFormat.DECIMAL, LSNFormat.read(dbDir));
+        rm = new ARIESRecoveryManager(DummyTransaction::create, null, LSNFormat.read(dbDir));
+        dsm = new DiskSpaceManagerImpl(dir, rm);
+        bm = new BufferManager(dsm, rm, 32, new LRUEvictionPolicy());
+        rm.setManagers(dsm, bm);
+        recoveryManager = rm;
+        rm.restart();
+
+        byte[] actual = new byte[1000];
+        Page page = bm.fetchPage(new DummyLockContext(), pageNum);
+        try {
+            page.getBuffer().get(actual);
+            assertArrayEquals(last, actual);
+            assertEquals(lastLSN, page.getPageLSN());
+        } finally {
+            page.unpin();
+        }
+        assertTrue(rm.transactionTable.isEmpty());
+    }
+
+    /**
+     * Tests that the background checkpointer takes checkpoints.
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testPeriodicCheckpoints() throws InterruptedException {
+        try {
+            recoveryManager.enablePeriodicCheckpoints(0, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+
+        long checkpointLSN = ((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN;
+        recoveryManager.enablePeriodicCheckpoints(0, 10);
+        while (((MasterLogRecord) logManager.fetchLogRecord(0L)).lastCheckpointLSN == checkpointLSN) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Tests redo with several workers. T1 writes each of the 10 pages of partition 1 several
+     * times, then allocates partition 2 and one of its pages, and writes that page.
+     * Checks:
+     *  - Every page ends up with the bytes of its last write, and the LSN of that write
+     *  - Records after the partition and page allocations are redone after them
+     */
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelRedo() {
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        Map<Long, Long> lastLSNs = new HashMap<>();
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        for (int i = 0; i < 5; ++i) {
+            for (int j = 0; j < 10; ++j) {
+                long pageNum = DiskSpaceManager.getVirtualPageNum(1, j);
+                byte[] after = new byte[] { (byte) i, (byte) j, (byte) i, (byte) j };
+                lastLSNs.put(pageNum, recoveryManager.logPageWrite(1L, pageNum, (short) 0, before, after));
+            }
+        }
+        long newPageNum = DiskSpaceManager.getVirtualPageNum(2, 0);
+        recoveryManager.logAllocPart(1L, 2);
+        recoveryManager.logAllocPage(1L, newPageNum);
+        lastLSNs.put(newPageNum, recoveryManager.logPageWrite(1L, newPageNum, (short) 0, before,
+                new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D }));
+
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        recoveryManager.setRedoWorkers(4);
+        recoveryManager.restartAnalysis();
+        recoveryManager.restartRedo();
+
+        for (Map.Entry<Long, Long> entry : lastLSNs.entrySet()) {
+            long pageNum = entry.getKey();
+            byte[] expected = pageNum == newPageNum
+                    ? new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D }
+                    : new byte[] { (byte) 4, (byte) DiskSpaceManager.getPageNum(pageNum), (byte) 4,
+                            (byte) DiskSpaceManager.getPageNum(pageNum) };
+            byte[] actual = new byte[4];
+            Page page = bufferManager.fetchPage(new DummyLockContext(), pageNum);
+            try {
+                page.getBuffer().get(actual);
+                assertArrayEquals(expected, actual);
+                assertEquals((long) entry.getValue(), page.getPageLSN());
+            } finally {
+                page.unpin();
+            }
+        }
+
+        try {
+            recoveryManager.setRedoWorkers(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            /* do nothing */
+        }
+    }
 }